@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Runs one of the JVM benchmarks in src/test/java, for example:
+#   ./benchmark.sh org.samcrow.colonynavigator.data4.ColonyStoreBenchmark
+# Arguments after the class name are passed to the benchmark.
+#
+# The benchmark and the application classes it uses are compiled with javac, without Gradle.
+# The jars they need must be in the benchmark-libs folder: joda-time, and an android-all jar
+# from Robolectric, which contains the Android classes that the application classes refer to.
+# Its implementations of classes such as android.util.JsonReader work on a desktop JVM.
+#
+# Times are measured on the computer running the benchmark, so they are useful for comparing
+# implementations, but not as the times taken on a device.
+
+set -e
+cd "$(dirname "$0")"
+
+CLASS=$1
+shift
+SOURCE=src/test/java/$(echo "$CLASS" | tr . /).java
+
+mkdir -p build/benchmark
+javac -nowarn -cp "benchmark-libs/*" -sourcepath src/main/java:src/test/java \
+    -d build/benchmark "$SOURCE"
+java -cp "build/benchmark:benchmark-libs/*" "$CLASS" "$@"
@@ -9,6 +9,7 @@ import androidx.appcompat.app.AppCompatDialogFragment;
 import android.view.View;
 import android.widget.CheckBox;
 
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
 
 /**
@@ -26,8 +27,8 @@ public class ColonyEditDialogFragment extends AppCompatDialogFragment {
         final Bundle args = new Bundle();
 
         args.putString("colony_id", colony.getID());
-        args.putBoolean("colony_visited", colony.getAttribute("census.visited", false));
-        args.putBoolean("colony_active", colony.getAttribute("census.active", false));
+        args.putBoolean("colony_visited", colony.getFlag(AttributeKey.VISITED));
+        args.putBoolean("colony_active", colony.getFlag(AttributeKey.ACTIVE));
 
         fragment.setArguments(args);
 
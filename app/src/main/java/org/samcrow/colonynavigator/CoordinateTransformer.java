@@ -3,17 +3,22 @@ package org.samcrow.colonynavigator;
 import android.graphics.PointF;
 
 import org.mapsforge.core.model.LatLong;
+import org.samcrow.colonynavigator.data4.ColonySet;
 
 /**
  * Transforms coordinates from GPS latitude/longitude into local colony
  * coordinates
  * <p>
  * This uses a 6-parameter model with values calculated separately.
+ * <p>
+ * The methods that take output arrays do not allocate memory. The methods that transform arrays
+ * of coordinates are the fastest way to transform many points. A transformer has no mutable
+ * state, so it can be used on any thread.
  *
  * @author Sam Crow
  */
 public class CoordinateTransformer {
-    private static CoordinateTransformer instance;
+    private static final CoordinateTransformer INSTANCE = new CoordinateTransformer();
 
     // Hard-coded values calculated separately
     // These use X for latitude and Y for longitude
@@ -27,12 +32,7 @@ public class CoordinateTransformer {
     }
 
     public static CoordinateTransformer getInstance() {
-
-        if (instance == null) {
-            instance = new CoordinateTransformer();
-        }
-
-        return instance;
+        return INSTANCE;
     }
 
     /**
@@ -43,12 +43,37 @@ public class CoordinateTransformer {
      * @return A point with the transformed coordinates
      */
     public PointF toLocal(double longitude, double latitude) {
-        double[] gpsPoint = new double[]{latitude, longitude};
-        double[] localPoint = new double[2];
+        return new PointF((float) gpsToColony.transformX(latitude, longitude),
+                (float) gpsToColony.transformY(latitude, longitude));
+    }
 
-        gpsToColony.transform(gpsPoint, localPoint);
+    /**
+     * Transforms GPS coordinates into local coordinates without allocating memory
+     *
+     * @param longitude The longitude
+     * @param latitude  The latitude
+     * @param out       An array of at least two elements. The X coordinate is stored in out[0]
+     *                  and the Y coordinate is stored in out[1].
+     */
+    public void toLocal(double longitude, double latitude, double[] out) {
+        out[0] = gpsToColony.transformX(latitude, longitude);
+        out[1] = gpsToColony.transformY(latitude, longitude);
+    }
 
-        return new PointF((float) localPoint[0], (float) localPoint[1]);
+    /**
+     * Transforms a range of GPS coordinates into local coordinates. The output arrays may be the
+     * same as the input arrays.
+     *
+     * @param longitudes The longitudes
+     * @param latitudes  The latitudes
+     * @param x          The array to store the X coordinates in
+     * @param y          The array to store the Y coordinates in
+     * @param start      The index of the first point to transform
+     * @param end        The index after the last point to transform
+     */
+    public void toLocal(double[] longitudes, double[] latitudes, double[] x, double[] y,
+                        int start, int end) {
+        gpsToColony.transform(latitudes, longitudes, x, y, start, end);
     }
 
     /**
@@ -59,13 +84,51 @@ public class CoordinateTransformer {
      * @return A point with the longitude mapped to x and the latitude mapped to
      * y
      */
-    public LatLong toGps(float x, float y) {
-        double[] localPoint = new double[]{x, y};
-        double[] gpsPoint = new double[2];
+    public LatLong toGps(double x, double y) {
+        return new LatLong(colonyToGps.transformX(x, y), colonyToGps.transformY(x, y));
+    }
 
-        colonyToGps.transform(localPoint, gpsPoint);
+    /**
+     * Transforms local coordinates into GPS coordinates without allocating memory
+     *
+     * @param x   The X location
+     * @param y   The Y location
+     * @param out An array of at least two elements. The latitude is stored in out[0] and the
+     *            longitude is stored in out[1].
+     */
+    public void toGps(double x, double y, double[] out) {
+        out[0] = colonyToGps.transformX(x, y);
+        out[1] = colonyToGps.transformY(x, y);
+    }
 
-        return new LatLong(gpsPoint[0], gpsPoint[1]);
+    /**
+     * Transforms a range of local coordinates into GPS coordinates. The output arrays may be the
+     * same as the input arrays.
+     *
+     * @param x          The X coordinates
+     * @param y          The Y coordinates
+     * @param latitudes  The array to store the latitudes in
+     * @param longitudes The array to store the longitudes in
+     * @param start      The index of the first point to transform
+     * @param end        The index after the last point to transform
+     */
+    public void toGps(double[] x, double[] y, double[] latitudes, double[] longitudes,
+                      int start, int end) {
+        colonyToGps.transform(x, y, latitudes, longitudes, start, end);
+    }
 
+    /**
+     * Calculates the GPS coordinates of all colonies in a set
+     *
+     * @param colonies   The colonies
+     * @param latitudes  An array with at least one element for each colony, to store the
+     *                   latitudes in, in iteration order
+     * @param longitudes An array with at least one element for each colony, to store the
+     *                   longitudes in, in iteration order
+     */
+    public void toGps(ColonySet colonies, double[] latitudes, double[] longitudes) {
+        // The local coordinates are transformed in place
+        colonies.getCoordinates(latitudes, longitudes);
+        colonyToGps.transform(latitudes, longitudes, latitudes, longitudes, 0, colonies.size());
     }
 }
@@ -7,12 +7,11 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageManager;
+import android.database.MatrixCursor;
 import android.database.SQLException;
-import android.graphics.PointF;
 import android.graphics.drawable.Drawable;
-import android.location.Location;
-import android.location.LocationListener;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -22,8 +21,10 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MenuItem.OnMenuItemClickListener;
+import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -34,6 +35,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SearchView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.cursoradapter.widget.CursorAdapter;
+import androidx.cursoradapter.widget.SimpleCursorAdapter;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.applantation.android.svg.SVG;
@@ -53,20 +56,34 @@ import org.mapsforge.map.model.IMapViewPosition;
 import org.mapsforge.map.model.Model;
 import org.mapsforge.map.model.common.PreferencesFacade;
 import org.mapsforge.map.reader.MapFile;
-import org.mapsforge.map.rendertheme.InternalRenderTheme;
+import org.mapsforge.map.reader.header.MapFileException;
 import org.mapsforge.map.rendertheme.XmlRenderTheme;
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonyLoadTask;
+import org.samcrow.colonynavigator.data4.ColonySearchIndex;
 import org.samcrow.colonynavigator.data4.ColonySelection;
 import org.samcrow.colonynavigator.data4.ColonySet;
 import org.samcrow.colonynavigator.data4.NewColony;
 import org.samcrow.colonynavigator.data4.NewColonyDatabase;
 import org.samcrow.colonynavigator.data4.NewColonyProvider;
-import org.samcrow.colonynavigator.map.ColonyMarker;
+import org.samcrow.colonynavigator.data4.NewColonyQuery;
+import org.samcrow.colonynavigator.map.ColonyOverlayLayer;
+import org.samcrow.colonynavigator.map.FrameTimer;
+import org.samcrow.colonynavigator.map.LocationPipeline;
+import org.samcrow.colonynavigator.map.MapTheme;
 import org.samcrow.colonynavigator.map.NotifyingMyLocationOverlay;
+import org.samcrow.colonynavigator.map.PackedTileArchive;
+import org.samcrow.colonynavigator.map.PackedTileCache;
 import org.samcrow.colonynavigator.map.RouteLineLayer;
-import org.samcrow.data.provider.ColonyProvider;
+import org.samcrow.colonynavigator.map.SmoothedLocation;
+import org.samcrow.data.provider.LoadStage;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -91,6 +108,23 @@ public class MainActivity extends AppCompatActivity implements
     private static final int PERMISSION_REQUEST = 30223;
     private static final int CARD_TREE_REQUEST = 30225;
     private static final String TAG = MainActivity.class.getSimpleName();
+    /**
+     * The maximum number of colony IDs suggested in the search box
+     */
+    private static final int MAX_SUGGESTIONS = 8;
+    private static final String SUGGESTION_COLUMN = "colony_id";
+    /**
+     * The scale of text on the map
+     */
+    private static final float TEXT_SCALE = 1.5f;
+    /**
+     * The asset containing pre-rendered map tiles, created by map/generate_tiles.sh
+     */
+    private static final String TILE_ARCHIVE = "site.tiles";
+    /**
+     * The preference that stores the name of the selected {@link MapTheme}
+     */
+    private static final String MAP_THEME_PREFERENCE = "map_theme";
     /**
      * The current selected colony
      */
@@ -98,9 +132,31 @@ public class MainActivity extends AppCompatActivity implements
     private PreferencesFacade preferencesFacade;
     private MapView mapView;
     private LayerManager layerManager;
+    /**
+     * Measures the time taken to draw the map
+     */
+    private final FrameTimer frameTimer = new FrameTimer();
+    /**
+     * The cache for rendered tiles
+     */
+    private TileCache tileCache;
+    /**
+     * The map, or null if it has not been opened
+     */
+    private MapFile mapFile;
+    /**
+     * The layer that draws the map, and the cache that it uses. These are null until the map
+     * has been opened.
+     */
+    private TileRendererLayer tileRendererLayer;
+    private TileCache tileRendererCache;
     private NotifyingMyLocationOverlay locationOverlay;
-    private ColonyProvider provider;
+    private NewColonyProvider provider;
     private ColonySet colonies;
+    /**
+     * The index used to suggest colonies in the search box
+     */
+    private ColonySearchIndex searchIndex;
     private NewColonyDatabase newColonyDB;
     /**
      * If the application has been granted all permissions and has completed initialization
@@ -320,9 +376,9 @@ public class MainActivity extends AppCompatActivity implements
 
         final CoordinateTransformer transformer = CoordinateTransformer.getInstance();
         colonies = provider.getColonies();
-        for (Colony colony : colonies) {
-            layerManager.getLayers().add(new ColonyMarker(colony, transformer));
-        }
+        searchIndex = new ColonySearchIndex(colonies);
+        layerManager.getLayers().add(new ColonyOverlayLayer(colonies, selection,
+                mapView.getModel().mapViewPosition, transformer, frameTimer));
 
         // Add layers above colonies
 
@@ -331,11 +387,68 @@ public class MainActivity extends AppCompatActivity implements
         // Route line layer
         setUpRouteLine();
 
+        // Timing, above everything else
+        layerManager.getLayers().add(frameTimer.getEndLayer());
+
         // New colonies
-        newColonyDB = new NewColonyDatabase(this);
+        newColonyDB = NewColonyDatabase.getInstance(this);
         mInitialized = true;
         // Start location updates
         locationOverlay.enableMyLocation(false);
+
+        loadColonies();
+    }
+
+    /**
+     * Starts loading colonies in the background. Colonies are shown on the map as they are
+     * loaded, and the current stage is shown in the progress indicator.
+     */
+    private void loadColonies() {
+        final View progressView = findViewById(R.id.load_progress);
+        final TextView progressText = findViewById(R.id.load_progress_text);
+        progressView.setVisibility(View.VISIBLE);
+
+        provider.load(new ColonyLoadTask.Listener() {
+            private String mStageLabel = "";
+
+            @Override
+            public void stageStarted(LoadStage stage) {
+                mStageLabel = getString(stage.getLabel());
+                progressText.setText(getString(R.string.load_progress, mStageLabel, colonies.size()));
+            }
+
+            @Override
+            public void coloniesAdded() {
+                progressText.setText(getString(R.string.load_progress, mStageLabel, colonies.size()));
+                layerManager.redrawLayers();
+            }
+
+            @Override
+            public void colonyReplaced(Colony oldColony, Colony newColony) {
+                if (selection.getSelectedColony() == oldColony) {
+                    selection.setSelectedColony(newColony);
+                }
+            }
+
+            @Override
+            public void loadFinished(Exception error) {
+                progressView.setVisibility(View.GONE);
+                layerManager.redrawLayers();
+                if (error != null) {
+                    new Builder(MainActivity.this)
+                            .setTitle(R.string.failed_to_load_colonies)
+                            .setMessage(error.getMessage())
+                            .setNeutralButton(R.string.quit, new OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    // Close this activity
+                                    MainActivity.this.finish();
+                                }
+                            })
+                            .show();
+                }
+            }
+        });
     }
 
     private void setUpMap() {
@@ -351,37 +464,144 @@ public class MainActivity extends AppCompatActivity implements
         layout.addView(mapView);
 
         // Create a tile cache
-        TileCache tileCache = AndroidUtil.createTileCache(this, getPersistableId(),
+        tileCache = AndroidUtil.createTileCache(this, getPersistableId(),
                 mapView.getModel().displayModel.getTileSize(),
                 getScreenRatio(),
                 mapView.getModel().frameBufferModel.getOverdrawFactor());
 
         layerManager = mapView.getLayerManager();
+        // Timing, below everything else
+        layerManager.getLayers().add(frameTimer.getStartLayer());
 
-        try {
-            // Create a tile layer for OpenStreetMap data
-            TileRendererLayer tileRendererLayer = createTileRendererLayer(
-                    tileCache,
-                    initializePosition(mapView.getModel().mapViewPosition),
-                    InternalRenderTheme.OSMARENDER);
+        // Extract and open the map in the background. The tile layer is added when it is ready.
+        initializePosition(mapView.getModel().mapViewPosition);
+        new OpenMapTask(this, tileCache, getMapTheme())
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        mapView.getModel().mapViewPosition.setMapPosition(START_POSITION);
+    }
 
-            layerManager.getLayers().add(tileRendererLayer);
-        } catch (IOException e) {
+    /**
+     * Called when the map has been opened. Adds a tile layer for the map below all other layers.
+     *
+     * @param mapFile   the map, or null if it could not be opened
+     * @param tileCache the tile cache to use
+     * @param theme     the theme that tileCache was set up for
+     * @param error     the error that prevented the map from being opened, or null
+     */
+    private void mapOpened(MapFile mapFile, TileCache tileCache, MapTheme theme,
+                           IOException error) {
+        if (error != null) {
             new Builder(MainActivity.this)
                     .setTitle(R.string.failed_to_open_map)
-                    .setMessage(e.getMessage())
+                    .setMessage(error.getMessage())
                     .show();
+            return;
+        }
+        this.mapFile = mapFile;
+        addTileRendererLayer(tileCache, theme);
+    }
+
+    /**
+     * Adds a tile layer for the map below all other layers except the frame timer's start layer
+     *
+     * @param cache the tile cache for the layer to use
+     * @param theme the theme to draw the map with
+     */
+    private void addTileRendererLayer(TileCache cache, MapTheme theme) {
+        tileRendererCache = cache;
+        tileRendererLayer = createTileRendererLayer(cache, mapFile,
+                mapView.getModel().mapViewPosition, theme.createRenderTheme(getAssets()));
+        layerManager.getLayers().add(1, tileRendererLayer);
+    }
+
+    /**
+     * @return the selected map theme
+     */
+    private MapTheme getMapTheme() {
+        return MapTheme.fromName(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(MAP_THEME_PREFERENCE, null));
+    }
+
+    /**
+     * Selects a map theme and draws the map again with it. This does nothing if the map has
+     * not been opened.
+     *
+     * @param theme the theme to select
+     */
+    private void setMapTheme(MapTheme theme) {
+        if (tileRendererLayer == null) {
+            return;
+        }
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putString(MAP_THEME_PREFERENCE, theme.name()).apply();
+        // The layer is not destroyed, because that would close the map file
+        layerManager.getLayers().remove(tileRendererLayer);
+        // Cached tiles are identified only by position, so tiles drawn with the old theme
+        // must be removed
+        tileRendererCache.purge();
+        addTileRendererLayer(addTileArchive(tileCache, mapFile, theme.name()), theme);
+    }
+
+    /**
+     * Extracts the map file, opens it, and opens the pre-rendered tile archive
+     */
+    private static class OpenMapTask extends AsyncTask<Void, Void, MapFile> {
+        private final MainActivity mActivity;
+        private final MapTheme mTheme;
+        private TileCache mTileCache;
+        private IOException mError;
+
+        /**
+         * @param activity  the activity to add the tile layer to
+         * @param tileCache the cache to use for tiles that are not in the tile archive
+         * @param theme     the theme that the map will be drawn with
+         */
+        OpenMapTask(MainActivity activity, TileCache tileCache, MapTheme theme) {
+            mActivity = activity;
+            mTileCache = tileCache;
+            mTheme = theme;
+        }
+
+        @Override
+        protected MapFile doInBackground(Void... voids) {
+            try {
+                final MapFile mapFile = openMapFile(Storage.getResourceAsFile(mActivity, R.raw.site));
+                mTileCache = mActivity.addTileArchive(mTileCache, mapFile, mTheme.name());
+                return mapFile;
+            } catch (IOException e) {
+                mError = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(MapFile mapFile) {
+            mActivity.mapOpened(mapFile, mTileCache, mTheme, mError);
+        }
+    }
+
+    /**
+     * Opens a map file through a read-only file channel
+     */
+    private static MapFile openMapFile(File file) throws IOException {
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            // The modification time is the data timestamp, so cached tiles rendered from an
+            // older copy of the map are rendered again
+            return new MapFile(channel, file.lastModified(), null);
+        } catch (MapFileException e) {
+            channel.close();
+            throw new IOException("Invalid map file", e);
         }
-        mapView.getModel().mapViewPosition.setMapPosition(START_POSITION);
     }
 
     private void setUpRouteLine() {
-        final RouteLineLayer route = new RouteLineLayer(locationOverlay);
+        final RouteLineLayer route = new RouteLineLayer(locationOverlay,
+                mapView.getModel().mapViewPosition, CoordinateTransformer.getInstance());
         selection.addChangeListener(new ColonySelection.Listener() {
             @Override
             public void selectedColonyChanged(Colony oldColony, Colony newColony) {
-                route.setDestination(CoordinateTransformer.getInstance()
-                        .toGps((float) newColony.getX(), (float) newColony.getY()));
+                route.setDestination(newColony);
             }
         });
         layerManager.getLayers().add(route);
@@ -390,16 +610,28 @@ public class MainActivity extends AppCompatActivity implements
     private void setUpLocationOverlay() {
         locationOverlay = new NotifyingMyLocationOverlay(this,
                 mapView.getModel().mapViewPosition,
-                AndroidGraphicFactory.convertToBitmap(getMyLocationDrawable()));
+                AndroidGraphicFactory.convertToBitmap(getMyLocationDrawable()),
+                CoordinateTransformer.getInstance());
         layerManager.getLayers().add(locationOverlay);
         // locationOverlay.enableMyLocation() gets called in onResume().
 
         final TextView coordinatesView = findViewById(R.id.current_coordinates);
-        locationOverlay.addLocationListener(new LocationListener() {
+        locationOverlay.addLocationListener(new LocationPipeline.Listener() {
+            /**
+             * The rounded coordinates shown
+             */
+            private long mShownX = Long.MIN_VALUE;
+            private long mShownY = Long.MIN_VALUE;
+
             @Override
-            public void onLocationChanged(@NonNull Location location) {
-                final PointF coordinates = CoordinateTransformer.getInstance().toLocal(location.getLongitude(), location.getLatitude());
-                coordinatesView.setText(String.format(Locale.getDefault(), "(%.0f, %.0f)", coordinates.x, coordinates.y));
+            public void locationChanged(SmoothedLocation location) {
+                final long x = Math.round(location.getX());
+                final long y = Math.round(location.getY());
+                if (x != mShownX || y != mShownY) {
+                    mShownX = x;
+                    mShownY = y;
+                    coordinatesView.setText(String.format(Locale.getDefault(), "(%d, %d)", x, y));
+                }
             }
         });
     }
@@ -435,16 +667,45 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     private TileRendererLayer createTileRendererLayer(
-            TileCache tileCache, IMapViewPosition mapViewPosition,
-            XmlRenderTheme renderTheme) throws IOException {
-        TileRendererLayer tileRendererLayer = new TileRendererLayer(tileCache,
-                new MapFile(Storage.getResourceAsFile(this, R.raw.site)), mapViewPosition,
-                AndroidGraphicFactory.INSTANCE);
+            TileCache tileCache, MapFile mapFile, IMapViewPosition mapViewPosition,
+            XmlRenderTheme renderTheme) {
+        TileRendererLayer tileRendererLayer = new TileRendererLayer(tileCache, mapFile,
+                mapViewPosition, AndroidGraphicFactory.INSTANCE);
         tileRendererLayer.setXmlRenderTheme(renderTheme);
-        tileRendererLayer.setTextScale(1.5f);
+        tileRendererLayer.setTextScale(TEXT_SCALE);
         return tileRendererLayer;
     }
 
+    /**
+     * Wraps a tile cache so that tiles are read from the pre-rendered tile archive, if the
+     * archive exists and was rendered from the current map with the same settings. This may be
+     * called on any thread.
+     *
+     * @param tileCache the cache to use for tiles that are not in the archive
+     * @param mapFile   the map that the tiles are rendered from
+     * @param theme     the name of the render theme
+     * @return a cache that uses the archive, or tileCache if the archive can't be used
+     */
+    private TileCache addTileArchive(TileCache tileCache, MapFile mapFile, String theme) {
+        final PackedTileArchive archive;
+        try {
+            archive = PackedTileArchive.openAsset(getAssets(), TILE_ARCHIVE);
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No tile archive, rendering all tiles");
+            return tileCache;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open tile archive, rendering all tiles", e);
+            return tileCache;
+        }
+        if (!archive.getTheme().equals(theme) || archive.getTextScale() != TEXT_SCALE
+                || archive.getCreationTime() < mapFile.getMapFileInfo().mapDate) {
+            Log.w(TAG, "Tile archive was rendered with different settings or an older map,"
+                    + " rendering all tiles");
+            return tileCache;
+        }
+        return new PackedTileCache(archive, tileCache);
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences preferences,
                                           String key) {
@@ -466,15 +727,13 @@ public class MainActivity extends AppCompatActivity implements
         final String colonyId = colonyData.getString("colony_id");
         Colony colony = colonies.get(colonyId);
         if (colonyData.containsKey("colony_visited")) {
-            colony.setAttribute("census.visited", colonyData.getBoolean("colony_visited"));
+            colony.setFlag(AttributeKey.VISITED, colonyData.getBoolean("colony_visited"));
         }
         if (colonyData.containsKey("colony_active")) {
-            colony.setAttribute("census.active", colonyData.getBoolean("colony_active"));
+            colony.setFlag(AttributeKey.ACTIVE, colonyData.getBoolean("colony_active"));
         }
-        // Save the colony
+        // Save the colony. The colony layer redraws the map if the colony's marker changed.
         provider.updateColony(colony);
-        // Redraw the colonies, and all other layers
-        layerManager.redrawLayers();
     }
 
     @Override
@@ -489,11 +748,45 @@ public class MainActivity extends AppCompatActivity implements
         searchView.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
         searchView.setIconifiedByDefault(false);
 
+        // Suggestions
+        final String[] suggestionColumns = {"_id", SUGGESTION_COLUMN};
+        final CursorAdapter suggestionAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_list_item_1, null, new String[]{SUGGESTION_COLUMN},
+                new int[]{android.R.id.text1}, 0);
+        searchView.setSuggestionsAdapter(suggestionAdapter);
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                final MatrixCursor cursor = (MatrixCursor) suggestionAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    searchView.setQuery(cursor.getString(1), true);
+                }
+                return true;
+            }
+        });
+
         searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            private final List<String> mSuggestions = new ArrayList<>(MAX_SUGGESTIONS);
 
             @Override
             public boolean onQueryTextChange(String newText) {
-                return false;
+                if (searchIndex == null) {
+                    // Not set up yet
+                    return false;
+                }
+                mSuggestions.clear();
+                searchIndex.search(newText, MAX_SUGGESTIONS, mSuggestions);
+                final MatrixCursor cursor = new MatrixCursor(suggestionColumns, mSuggestions.size());
+                for (int i = 0; i < mSuggestions.size(); i++) {
+                    cursor.addRow(new Object[]{i, mSuggestions.get(i)});
+                }
+                suggestionAdapter.changeCursor(cursor);
+                return true;
             }
 
             @Override
@@ -512,8 +805,7 @@ public class MainActivity extends AppCompatActivity implements
                     // Center the map view on the colony
                     mapView.getModel().mapViewPosition.animateTo(
                             CoordinateTransformer.getInstance()
-                                    .toGps((float) newSelectedColony.getX(),
-                                            (float) newSelectedColony.getY()));
+                                    .toGps(newSelectedColony.getX(), newSelectedColony.getY()));
                     return true;
                 } else {
                     // No colony
@@ -534,7 +826,10 @@ public class MainActivity extends AppCompatActivity implements
             @Override
             public boolean onMenuItemClick(MenuItem item) {
                 final Colony selectedColony = selection.getSelectedColony();
-                if (selectedColony != null) {
+                if (selectedColony != null && !provider.isLoaded()) {
+                    // Changes made now could be replaced when loading finishes
+                    Toast.makeText(MainActivity.this, R.string.colonies_loading, Toast.LENGTH_SHORT).show();
+                } else if (selectedColony != null) {
                     ColonyEditDialogFragment editor = ColonyEditDialogFragment.newInstance(
                             selectedColony);
                     editor.show(getSupportFragmentManager(), "editor");
@@ -575,18 +870,29 @@ public class MainActivity extends AppCompatActivity implements
             }
         });
 
+        // Map theme item
+        final MenuItem detailedMapItem = menu.findItem(R.id.detailed_map_item);
+        detailedMapItem.setChecked(getMapTheme() == MapTheme.OSMARENDER);
+        detailedMapItem.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (tileRendererLayer == null) {
+                    // Map not open yet
+                    return true;
+                }
+                detailedMapItem.setChecked(!detailedMapItem.isChecked());
+                setMapTheme(detailedMapItem.isChecked() ? MapTheme.OSMARENDER : MapTheme.SITE);
+                return true;
+            }
+        });
+
         // Show colonies item
         final MenuItem showColoniesItem = menu.findItem(R.id.show_new_colonies_item);
         showColoniesItem.setOnMenuItemClickListener(new OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
-                final List<NewColony> colonies = newColonyDB.getNewColonies();
-
-                final NewColonyListDialogFragment dialog = new NewColonyListDialogFragment();
-                final Bundle args = new Bundle();
-                args.putParcelableArray("colonies",
-                        colonies.toArray(new NewColony[0]));
-                dialog.setArguments(args);
+                final NewColonyListDialogFragment dialog =
+                        NewColonyListDialogFragment.newInstance(NewColonyQuery.ALL);
                 dialog.show(getSupportFragmentManager(), "new colony list");
 
                 return true;
@@ -599,12 +905,26 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onPause() {
         super.onPause();
+        if (provider != null) {
+            // Write changes now in case the application is stopped
+            provider.getSaveScheduler().saveNow();
+        }
         if (locationOverlay != null) {
             // Pause location updates
             locationOverlay.disableMyLocation();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mapView != null) {
+            // Removes and destroys all layers, which stops the location pipeline thread, and
+            // destroys the tile caches
+            mapView.destroyAll();
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -619,7 +939,7 @@ public class MainActivity extends AppCompatActivity implements
 
     @Override
     public void createColony(String name, String notes) {
-        final Location currentLocation = locationOverlay.getLastLocation();
+        final SmoothedLocation currentLocation = locationOverlay.getLastSmoothedLocation();
         if (currentLocation == null) {
             new Builder(this)
                     .setTitle(R.string.no_location_available)
@@ -627,9 +947,8 @@ public class MainActivity extends AppCompatActivity implements
                     .show();
             return;
         }
-        final PointF localCoords = CoordinateTransformer.getInstance()
-                .toLocal(currentLocation.getLongitude(), currentLocation.getLatitude());
-        final NewColony colony = new NewColony(localCoords.x, localCoords.y, name, notes);
+        final NewColony colony = new NewColony(currentLocation.getX(), currentLocation.getY(),
+                name, notes);
         try {
             newColonyDB.insertNewColony(colony);
         } catch (SQLException e) {
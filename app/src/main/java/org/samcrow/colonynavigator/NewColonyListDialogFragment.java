@@ -3,9 +3,11 @@ package org.samcrow.colonynavigator;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
+import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.DataSetObserver;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
@@ -15,20 +17,50 @@ import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.EditText;
-import android.widget.ListAdapter;
+import android.widget.CursorAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import org.samcrow.colonynavigator.data4.NewColony;
+import org.samcrow.colonynavigator.data4.NewColonyDatabase;
+import org.samcrow.colonynavigator.data4.NewColonyQuery;
 import org.samcrow.colonynavigator.data4.NewColonyWriteTask;
 import org.samcrow.colonynavigator.data4.NewColonyWriteTask.Params;
 
 /**
  * Displays a list of {@link org.samcrow.colonynavigator.data4.NewColony NewColonies}
+ * <p/>
+ * The colonies are read from the {@link NewColonyDatabase} through a cursor, which reads rows
+ * in blocks as the list scrolls. The arguments contain only a {@link NewColonyQuery}, so the
+ * size of the arguments does not depend on the number of colonies.
+ * <p/>
+ * The export button always writes all new colonies, even if the query shows only some of them.
+ * The exported file is a copy of the whole database that is appended to on each export, so it
+ * must not be limited to the colonies shown.
  */
 public class NewColonyListDialogFragment extends AppCompatDialogFragment {
 
+    /**
+     * The adapter that shows the colonies
+     */
+    private NewColonyAdapter mAdapter;
+    /**
+     * The task that is querying the colonies, or null
+     */
+    private QueryTask mQueryTask;
+
+    /**
+     * Creates a dialog that shows the new colonies that match a query
+     *
+     * @param query the query
+     * @return a dialog fragment
+     */
+    public static NewColonyListDialogFragment newInstance(NewColonyQuery query) {
+        final Bundle args = new Bundle();
+        query.writeTo(args);
+        final NewColonyListDialogFragment dialog = new NewColonyListDialogFragment();
+        dialog.setArguments(args);
+        return dialog;
+    }
 
     @NonNull
     @Override
@@ -43,10 +75,12 @@ public class NewColonyListDialogFragment extends AppCompatDialogFragment {
 
         final ListView list = (ListView) view.findViewById(R.id.new_colony_list);
 
-        // Load new colonies from the arguments
-        final Bundle args = getArguments();
-        final NewColony[] colonies = (NewColony[]) args.getParcelableArray("colonies");
-        list.setAdapter(new NewColonyAdapter(colonies));
+        // Query the colonies in the background
+        final NewColonyQuery query = NewColonyQuery.readFrom(getArguments());
+        mAdapter = new NewColonyAdapter(getContext());
+        list.setAdapter(mAdapter);
+        mQueryTask = new QueryTask(NewColonyDatabase.getInstance(getContext()), this);
+        mQueryTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, query);
 
         // Get card URI from preferences
         final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getContext());
@@ -55,6 +89,7 @@ public class NewColonyListDialogFragment extends AppCompatDialogFragment {
 
         // Set up buttons
 
+        // This exports all new colonies, not only the colonies that match the query
         final Button exportButton = (Button) view.findViewById(R.id.save_new_colonies_button);
         exportButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -62,7 +97,7 @@ public class NewColonyListDialogFragment extends AppCompatDialogFragment {
                 final Storage.FileUris uris = Storage.getMemoryCardUris(view.getContext(), chosenCardUri);
                 assert uris != null;
                 final NewColonyWriteTask task = new NewColonyWriteTask(view.getContext());
-                task.execute(new Params(colonies, uris));
+                task.execute(new Params(uris));
             }
         });
 
@@ -77,82 +112,96 @@ public class NewColonyListDialogFragment extends AppCompatDialogFragment {
         return builder.create();
     }
 
-    private static class NewColonyAdapter implements ListAdapter {
-
-        private final NewColony[] colonies;
-
-        public NewColonyAdapter(NewColony[] colonies) {
-            this.colonies = colonies;
-        }
-
-        @Override
-        public void registerDataSetObserver(DataSetObserver observer) {
-            // Nothing
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mQueryTask != null) {
+            mQueryTask.detach();
+            mQueryTask = null;
         }
-
-        @Override
-        public void unregisterDataSetObserver(DataSetObserver observer) {
-            // Nothing
+        if (mAdapter != null) {
+            // Closes the cursor
+            mAdapter.changeCursor(null);
         }
+    }
 
-        @Override
-        public int getCount() {
-            return colonies.length;
-        }
+    /**
+     * Called by the query task when the cursor is ready
+     */
+    private void queryFinished(Cursor cursor) {
+        mQueryTask = null;
+        mAdapter.changeCursor(cursor);
+    }
 
-        @Override
-        public Object getItem(int position) {
-            return colonies[position];
+    /**
+     * Queries colonies and fills the first block of the cursor in the background
+     */
+    private static class QueryTask extends AsyncTask<NewColonyQuery, Void, Cursor> {
+        private final NewColonyDatabase mDatabase;
+        /**
+         * The dialog to deliver the result to. This is cleared when the dialog is destroyed.
+         */
+        private NewColonyListDialogFragment mDialog;
+
+        QueryTask(NewColonyDatabase database, NewColonyListDialogFragment dialog) {
+            mDatabase = database;
+            mDialog = dialog;
         }
 
-        @Override
-        public long getItemId(int position) {
-            return colonies[position].getID();
+        /**
+         * Cancels this task and stops it from referring to the dialog. This must be called on
+         * the main thread.
+         */
+        void detach() {
+            mDialog = null;
+            cancel(false);
         }
 
         @Override
-        public boolean hasStableIds() {
-            return true;
+        protected Cursor doInBackground(NewColonyQuery... queries) {
+            final Cursor cursor = mDatabase.queryNewColonies(queries[0]);
+            // Counting the rows runs the query and fills the first block of rows
+            cursor.getCount();
+            return cursor;
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            final NewColony colony = colonies[position];
-            if (convertView instanceof EditText) {
-                ((TextView) convertView).setText(colony.toString());
-                return convertView;
+        protected void onPostExecute(Cursor cursor) {
+            if (mDialog != null) {
+                mDialog.queryFinished(cursor);
             } else {
-                final TextView view = new TextView(parent.getContext());
-                view.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 20);
-                view.setPadding(10, 10, 10, 10);
-                view.setText(colony.toString());
-                return view;
+                cursor.close();
             }
         }
 
         @Override
-        public int getItemViewType(int position) {
-            return 0;
+        protected void onCancelled(Cursor cursor) {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+    }
 
-        @Override
-        public int getViewTypeCount() {
-            return 1;
-        }
+    /**
+     * Shows one text view for each colony, reusing views that have scrolled out of sight
+     */
+    private static class NewColonyAdapter extends CursorAdapter {
 
-        @Override
-        public boolean isEmpty() {
-            return colonies.length == 0;
+        NewColonyAdapter(Context context) {
+            super(context, null, 0);
         }
 
         @Override
-        public boolean areAllItemsEnabled() {
-            return true;
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            final TextView view = new TextView(context);
+            view.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 20);
+            view.setPadding(10, 10, 10, 10);
+            return view;
         }
 
         @Override
-        public boolean isEnabled(int position) {
-            return true;
+        public void bindView(View view, Context context, Cursor cursor) {
+            ((TextView) view).setText(NewColonyDatabase.readColony(cursor).toString());
         }
     }
 }
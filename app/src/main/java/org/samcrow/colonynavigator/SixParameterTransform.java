@@ -40,4 +40,39 @@ class SixParameterTransform {
         pointOut[0] = convertedX;
         pointOut[1] = convertedY;
     }
+
+    /**
+     * @return the X coordinate of a transformed point
+     */
+    public double transformX(double inX, double inY) {
+        return a0 + a1 * inX + a2 * inY;
+    }
+
+    /**
+     * @return the Y coordinate of a transformed point
+     */
+    public double transformY(double inX, double inY) {
+        return b0 + b1 * inX + b2 * inY;
+    }
+
+    /**
+     * Transforms a range of points stored in separate arrays of X and Y coordinates. The output
+     * arrays may be the same as the input arrays.
+     *
+     * @param inX   the input X coordinates
+     * @param inY   the input Y coordinates
+     * @param outX  the array to store the output X coordinates in
+     * @param outY  the array to store the output Y coordinates in
+     * @param start the index of the first point to transform
+     * @param end   the index after the last point to transform
+     */
+    public void transform(@NonNull double[] inX, @NonNull double[] inY,
+                          @NonNull double[] outX, @NonNull double[] outY, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final double x = inX[i];
+            final double y = inY[i];
+            outX[i] = a0 + a1 * x + a2 * y;
+            outY[i] = b0 + b1 * x + b2 * y;
+        }
+    }
 }
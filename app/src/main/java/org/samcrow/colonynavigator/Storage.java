@@ -1,48 +1,174 @@
 package org.samcrow.colonynavigator;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.documentfile.provider.DocumentFile;
 import android.util.Log;
 
-import org.apache.commons.io.IOUtils;
-
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
 
 /**
  * Utilities for storage and file management
  */
 public class Storage {
+    private static final String TAG = Storage.class.getSimpleName();
+
     private Storage() {
     }
 
     /**
-     * Returns a File object containing the path to a file containing the specified resource
+     * The name of the preferences file that records the extracted version of each resource
+     */
+    private static final String RESOURCE_PREFERENCES = "extracted_resources";
+
+    /**
+     * Returns a file containing a raw resource, extracting the resource if necessary
+     * <p/>
+     * Extracted files are named after the resource and a checksum of its content, so when a new
+     * version of the application changes a resource, the resource is extracted again. The file
+     * is written under a temporary name and then renamed, so a partly written file is never
+     * used. The checksum is recorded with the time the application was installed, so the
+     * resource is only read to calculate the checksum after the application is installed or
+     * updated.
+     * <p/>
+     * This method reads and may write files, so it should not be called on the main thread.
      *
      * @param resid the ID of the raw resource to get
      * @return a file containing the content of the resource
      */
-    public static File getResourceAsFile(Context ctx, int resid) throws IOException {
-        final File storedFile = pathForResource(ctx, resid);
-        if (storedFile.exists()) {
-            return storedFile;
-        } else {
-            try (InputStream stream = ctx.getResources().openRawResource(resid); OutputStream fileOut = new FileOutputStream(storedFile)) {
-                IOUtils.copy(stream, fileOut);
-                return storedFile;
+    @WorkerThread
+    public static synchronized File getResourceAsFile(Context ctx, int resid) throws IOException {
+        final String name = ctx.getResources().getResourceEntryName(resid);
+        final File directory = ctx.getCacheDir();
+        final SharedPreferences preferences = ctx.getSharedPreferences(RESOURCE_PREFERENCES, Context.MODE_PRIVATE);
+        final String installTimeKey = name + ".install_time";
+        final String checksumKey = name + ".checksum";
+        final String lengthKey = name + ".length";
+        final long installTime = getInstallTime(ctx);
+
+        if (installTime != -1 && preferences.getLong(installTimeKey, -1) == installTime) {
+            final File recorded = new File(directory, resourceFileName(name, preferences.getString(checksumKey, "")));
+            if (recorded.isFile() && recorded.length() == preferences.getLong(lengthKey, -1)) {
+                return recorded;
             }
         }
+
+        final CRC32 checksum = new CRC32();
+        final long length;
+        try (InputStream stream = ctx.getResources().openRawResource(resid)) {
+            length = update(checksum, stream, null);
+        }
+        final String checksumText = String.format("%08x", checksum.getValue());
+        final File file = new File(directory, resourceFileName(name, checksumText));
+        if (!(file.isFile() && file.length() == length)) {
+            Log.i(TAG, "Extracting resource " + name + " to " + file);
+            extractResource(ctx, resid, file, checksum.getValue());
+        }
+        deleteOtherVersions(directory, name, file);
+        // Files from before resources were versioned
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, resid + ".resource").delete();
+
+        preferences.edit()
+                .putLong(installTimeKey, installTime)
+                .putString(checksumKey, checksumText)
+                .putLong(lengthKey, length)
+                .apply();
+        return file;
     }
 
-    private static File pathForResource(Context ctx, int resid) {
-        return new File(ctx.getCacheDir().getAbsolutePath(), resid + ".resource");
+    private static String resourceFileName(String name, String checksum) {
+        return name + "-" + checksum + ".resource";
+    }
+
+    /**
+     * Copies a resource to a temporary file, checks that it has the expected checksum, and
+     * renames it to the destination
+     */
+    private static void extractResource(Context ctx, int resid, File destination, long expectedChecksum) throws IOException {
+        final File temporary = new File(destination.getParentFile(), destination.getName() + ".tmp");
+        final CRC32 checksum = new CRC32();
+        try (InputStream stream = ctx.getResources().openRawResource(resid);
+             FileOutputStream fileOut = new FileOutputStream(temporary)) {
+            update(checksum, stream, fileOut);
+            // Ensure that the content is stored before the file is renamed
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw e;
+        }
+        if (checksum.getValue() != expectedChecksum) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException("Checksum of extracted resource " + destination.getName() + " does not match");
+        }
+        if (!temporary.renameTo(destination)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException("Failed to rename " + temporary + " to " + destination);
+        }
+    }
+
+    /**
+     * Reads a stream to the end, updating a checksum and optionally copying the content to
+     * another stream
+     *
+     * @return the number of bytes read
+     */
+    private static long update(CRC32 checksum, InputStream stream, @Nullable OutputStream copy) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long total = 0;
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            checksum.update(buffer, 0, count);
+            if (copy != null) {
+                copy.write(buffer, 0, count);
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Deletes extracted files and temporary files for a resource, other than one file to keep
+     */
+    private static void deleteOtherVersions(File directory, String name, File keep) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final String prefix = name + "-";
+        for (File file : files) {
+            final String fileName = file.getName();
+            if (fileName.startsWith(prefix) && !file.equals(keep)
+                    && (fileName.endsWith(".resource") || fileName.endsWith(".resource.tmp"))) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the time the application was installed or last updated, or -1 if it is not known
+     */
+    private static long getInstallTime(Context ctx) {
+        try {
+            return ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
     }
 
     public static FileUris getMemoryCardUris(Context ctx, @Nullable Uri chosenUri) {
@@ -121,13 +247,18 @@ public class Storage {
         private static final String JSON_NAME = "colonies.json";
         private static final String FOCUS_NAME = "focus_colonies.txt";
         private static final String NEW_COLONIES_NAME = "new_colonies.csv";
+        private static final String JOURNAL_NAME = "colonies.journal";
 
         private static final String CSV_MIME = "text/csv";
         private static final String TEXT_MIME = "text/plain";
         private static final String JSON_MIME = "application/json";
+        /**
+         * The journal uses a generic type so that the document provider does not add an extension
+         */
+        private static final String JOURNAL_MIME = "application/octet-stream";
 
         /**
-         * The directory containing the four files
+         * The directory containing the files
          */
         private final DocumentFile mFolder;
 
@@ -147,6 +278,14 @@ public class Storage {
             return mFolder.createFile(JSON_MIME, JSON_NAME);
         }
 
+        public DocumentFile getJournal() {
+            return mFolder.findFile(JOURNAL_NAME);
+        }
+
+        public DocumentFile createJournal() {
+            return mFolder.createFile(JOURNAL_MIME, JOURNAL_NAME);
+        }
+
         public DocumentFile getFocusColonies() {
             return mFolder.findFile(FOCUS_NAME);
         }
@@ -0,0 +1,159 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A typed key for a colony attribute
+ * <p/>
+ * Keys for the known census fields ({@link #VISITED}, {@link #ACTIVE}, and {@link #FOCUS}) are
+ * stored in bit sets in the {@link ColonyStore}, so reading them with
+ * {@link Colony#getFlag(AttributeKey)} does not do a map lookup or box a value. Keys for other
+ * attributes are stored in a map for each colony.
+ * <p/>
+ * There is only one key for each attribute name, so keys can be compared with ==.
+ *
+ * @param <T> the type of the attribute value
+ */
+public final class AttributeKey<T> {
+
+    /**
+     * All keys, by name
+     */
+    private static final Map<String, AttributeKey<?>> sKeys = new HashMap<>();
+
+    /**
+     * If the colony has been visited in this census
+     */
+    public static final AttributeKey<Boolean> VISITED =
+            new AttributeKey<>("census.visited", Boolean.class, ColonyStore.FLAG_VISITED);
+    /**
+     * If the colony is active
+     */
+    public static final AttributeKey<Boolean> ACTIVE =
+            new AttributeKey<>("census.active", Boolean.class, ColonyStore.FLAG_ACTIVE);
+    /**
+     * If the colony is a focus colony
+     */
+    public static final AttributeKey<Boolean> FOCUS =
+            new AttributeKey<>("census.focus", Boolean.class, ColonyStore.FLAG_FOCUS);
+
+    private final String mName;
+    private final Class<T> mType;
+    /**
+     * The index of the store flag that holds this attribute, or -1 if this attribute is
+     * stored in the map
+     */
+    private final int mFlag;
+
+    private AttributeKey(String name, Class<T> type, int flag) {
+        mName = name;
+        mType = type;
+        mFlag = flag;
+        synchronized (sKeys) {
+            sKeys.put(name, this);
+        }
+    }
+
+    /**
+     * Returns the key for an attribute, creating it if it does not exist
+     *
+     * @param name the attribute name
+     * @param type the type of the attribute value
+     * @param <T>  the type of the attribute value
+     * @return the key
+     * @throws IllegalArgumentException if a key with the same name and a different type exists
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> of(String name, Class<T> type) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null");
+        }
+        synchronized (sKeys) {
+            final AttributeKey<?> existing = sKeys.get(name);
+            if (existing != null) {
+                if (existing.mType != type) {
+                    throw new IllegalArgumentException("Attribute " + name + " has type "
+                            + existing.mType.getSimpleName() + ", not " + type.getSimpleName());
+                }
+                return (AttributeKey<T>) existing;
+            }
+            return new AttributeKey<>(name, type, -1);
+        }
+    }
+
+    /**
+     * Finds the key for an attribute
+     *
+     * @param name the attribute name
+     * @return the key, or null if no key with the provided name exists
+     */
+    public static AttributeKey<?> forName(String name) {
+        synchronized (sKeys) {
+            return sKeys.get(name);
+        }
+    }
+
+    /**
+     * Returns the flag index for an attribute
+     *
+     * @param name the attribute name
+     * @return the index of the store flag that holds the attribute, or -1 if the attribute is
+     * not stored as a flag
+     */
+    static int flagForName(String name) {
+        // Check the built-in keys first without locking
+        if (VISITED.mName.equals(name)) {
+            return VISITED.mFlag;
+        } else if (ACTIVE.mName.equals(name)) {
+            return ACTIVE.mFlag;
+        } else if (FOCUS.mName.equals(name)) {
+            return FOCUS.mFlag;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the key for a flag
+     *
+     * @param flag the flag index
+     * @return the key
+     */
+    static AttributeKey<Boolean> forFlag(int flag) {
+        switch (flag) {
+            case ColonyStore.FLAG_VISITED:
+                return VISITED;
+            case ColonyStore.FLAG_ACTIVE:
+                return ACTIVE;
+            case ColonyStore.FLAG_FOCUS:
+                return FOCUS;
+            default:
+                throw new IllegalArgumentException("No flag " + flag);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Class<T> getType() {
+        return mType;
+    }
+
+    /**
+     * @return true if this attribute is stored in a store flag
+     */
+    boolean isFlag() {
+        return mFlag != -1;
+    }
+
+    int getFlag() {
+        return mFlag;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeKey{" + mName + ": " + mType.getSimpleName() + "}";
+    }
+}
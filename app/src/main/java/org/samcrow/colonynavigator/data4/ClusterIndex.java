@@ -0,0 +1,347 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.Arrays;
+
+/**
+ * Groups the colonies in a {@link ColonySet} into clusters, for drawing many colonies at low
+ * zoom levels
+ * <p/>
+ * Clusters are kept for several levels. At each level, the local coordinate plane is divided
+ * into square cells, and all colonies in one cell form a cluster. The cell size of level 0 is
+ * {@link #MIN_CELL_SIZE}, and each level has cells twice as large as the level before it, so
+ * each zoom level of the map has a matching level of clusters.
+ * <p/>
+ * Each cluster stores its number of colonies and the sums of their coordinates, so the
+ * clusters are updated incrementally when the set's {@link ColonyStore} changes, without
+ * visiting other colonies.
+ * <p/>
+ * The methods of this class are synchronized, so clusters can be found on a drawing thread
+ * while colonies are changed on the main thread.
+ */
+public class ClusterIndex implements ColonyStore.Listener {
+
+    /**
+     * The cell width/height of level 0, in meters
+     */
+    public static final double MIN_CELL_SIZE = 8;
+    /**
+     * The number of levels. The largest cells are 4096 meters wide.
+     */
+    public static final int LEVEL_COUNT = 10;
+
+    private final ColonyStore mStore;
+    private final Level[] mLevels = new Level[LEVEL_COUNT];
+
+    /**
+     * Creates an index of a set of colonies
+     *
+     * @param colonies the colonies to index
+     */
+    public ClusterIndex(ColonySet colonies) {
+        mStore = colonies.getStore();
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            mLevels[level] = new Level(getCellSize(level));
+        }
+        for (int row = 0; row < mStore.size(); row++) {
+            rowAdded(row);
+        }
+        mStore.addListener(this);
+    }
+
+    /**
+     * Stops updating this index when the colonies change
+     */
+    public synchronized void detach() {
+        mStore.removeListener(this);
+    }
+
+    /**
+     * @param level a level
+     * @return the width and height of the cells of the level, in meters
+     */
+    public static double getCellSize(int level) {
+        return MIN_CELL_SIZE * (1 << level);
+    }
+
+    /**
+     * Finds the level with cells closest in size to a requested size
+     *
+     * @param cellSize the requested width and height of cells, in meters
+     * @return the level
+     */
+    public static int levelForCellSize(double cellSize) {
+        final double level = Math.log(cellSize / MIN_CELL_SIZE) / Math.log(2);
+        return (int) Math.max(0, Math.min(LEVEL_COUNT - 1, Math.round(level)));
+    }
+
+    /**
+     * Finds the clusters in the cells that overlap a rectangle
+     *
+     * @param level  the level of clusters to find
+     * @param minX   the minimum X coordinate
+     * @param minY   the minimum Y coordinate
+     * @param maxX   the maximum X coordinate
+     * @param maxY   the maximum Y coordinate
+     * @param result the clusters that will be replaced with the clusters found
+     */
+    public synchronized void findClusters(int level, double minX, double minY, double maxX,
+                                          double maxY, Clusters result) {
+        mLevels[level].find(minX, minY, maxX, maxY, result);
+    }
+
+    @Override
+    public synchronized void rowAdded(int row) {
+        final double x = mStore.getX(row);
+        final double y = mStore.getY(row);
+        for (Level level : mLevels) {
+            level.add(x, y);
+        }
+    }
+
+    @Override
+    public synchronized void rowMoved(int row, double oldX, double oldY) {
+        final double x = mStore.getX(row);
+        final double y = mStore.getY(row);
+        for (Level level : mLevels) {
+            level.move(oldX, oldY, x, y);
+        }
+    }
+
+    @Override
+    public synchronized void cleared() {
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            mLevels[level] = new Level(getCellSize(level));
+        }
+    }
+
+    /**
+     * A list of clusters, stored in arrays that are reused when the list is filled again
+     */
+    public static class Clusters {
+        private double[] mX = new double[64];
+        private double[] mY = new double[64];
+        private int[] mCounts = new int[64];
+        private int mSize;
+
+        /**
+         * @return the number of clusters
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return the X coordinate of the center of a cluster, the mean of the X coordinates of
+         * its colonies
+         */
+        public double getX(int index) {
+            return mX[index];
+        }
+
+        /**
+         * @return the Y coordinate of the center of a cluster
+         */
+        public double getY(int index) {
+            return mY[index];
+        }
+
+        /**
+         * @return the number of colonies in a cluster
+         */
+        public int getCount(int index) {
+            return mCounts[index];
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        void add(double x, double y, int count) {
+            if (mSize == mCounts.length) {
+                mX = Arrays.copyOf(mX, mSize * 2);
+                mY = Arrays.copyOf(mY, mSize * 2);
+                mCounts = Arrays.copyOf(mCounts, mSize * 2);
+            }
+            mX[mSize] = x;
+            mY[mSize] = y;
+            mCounts[mSize] = count;
+            mSize++;
+        }
+    }
+
+    /**
+     * The clusters of one level
+     * <p/>
+     * Each occupied cell has a slot in the count and coordinate sum arrays. Slots are not
+     * removed when cells become empty, because colonies are rarely moved far.
+     */
+    private static class Level {
+        private final double mCellSize;
+        /**
+         * Slots by cell coordinates
+         */
+        private final SlotMap mSlots = new SlotMap();
+        private int[] mCounts = new int[16];
+        private double[] mSumX = new double[16];
+        private double[] mSumY = new double[16];
+        private int mSlotCount = 0;
+        /**
+         * The range of cell coordinates that have ever contained a colony
+         */
+        private int mMinCellX = Integer.MAX_VALUE;
+        private int mMinCellY = Integer.MAX_VALUE;
+        private int mMaxCellX = Integer.MIN_VALUE;
+        private int mMaxCellY = Integer.MIN_VALUE;
+
+        Level(double cellSize) {
+            mCellSize = cellSize;
+        }
+
+        void add(double x, double y) {
+            final int slot = slot(cellCoordinate(x), cellCoordinate(y));
+            mCounts[slot]++;
+            mSumX[slot] += x;
+            mSumY[slot] += y;
+        }
+
+        void move(double oldX, double oldY, double x, double y) {
+            final int oldCellX = cellCoordinate(oldX);
+            final int oldCellY = cellCoordinate(oldY);
+            final int cellX = cellCoordinate(x);
+            final int cellY = cellCoordinate(y);
+            if (oldCellX == cellX && oldCellY == cellY) {
+                final int slot = mSlots.get(cellX, cellY);
+                mSumX[slot] += x - oldX;
+                mSumY[slot] += y - oldY;
+                return;
+            }
+            final int oldSlot = mSlots.get(oldCellX, oldCellY);
+            if (oldSlot != -1) {
+                mCounts[oldSlot]--;
+                if (mCounts[oldSlot] == 0) {
+                    // Avoid leaving rounding errors in the sums
+                    mSumX[oldSlot] = 0;
+                    mSumY[oldSlot] = 0;
+                } else {
+                    mSumX[oldSlot] -= oldX;
+                    mSumY[oldSlot] -= oldY;
+                }
+            }
+            add(x, y);
+        }
+
+        void find(double minX, double minY, double maxX, double maxY, Clusters result) {
+            result.clear();
+            final int minCellX = Math.max(cellCoordinate(minX), mMinCellX);
+            final int maxCellX = Math.min(cellCoordinate(maxX), mMaxCellX);
+            final int minCellY = Math.max(cellCoordinate(minY), mMinCellY);
+            final int maxCellY = Math.min(cellCoordinate(maxY), mMaxCellY);
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                    final int slot = mSlots.get(cellX, cellY);
+                    if (slot == -1) {
+                        continue;
+                    }
+                    final int count = mCounts[slot];
+                    if (count != 0) {
+                        result.add(mSumX[slot] / count, mSumY[slot] / count, count);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the slot of a cell, creating it if necessary
+         */
+        private int slot(int cellX, int cellY) {
+            int slot = mSlots.get(cellX, cellY);
+            if (slot == -1) {
+                if (mSlotCount == mCounts.length) {
+                    mCounts = Arrays.copyOf(mCounts, mSlotCount * 2);
+                    mSumX = Arrays.copyOf(mSumX, mSlotCount * 2);
+                    mSumY = Arrays.copyOf(mSumY, mSlotCount * 2);
+                }
+                slot = mSlotCount++;
+                mSlots.put(cellX, cellY, slot);
+                mMinCellX = Math.min(mMinCellX, cellX);
+                mMinCellY = Math.min(mMinCellY, cellY);
+                mMaxCellX = Math.max(mMaxCellX, cellX);
+                mMaxCellY = Math.max(mMaxCellY, cellY);
+            }
+            return slot;
+        }
+
+        private int cellCoordinate(double value) {
+            return (int) Math.floor(value / mCellSize);
+        }
+    }
+
+    /**
+     * An open-addressing hash map from cell coordinates to non-negative slot numbers
+     */
+    private static class SlotMap {
+        private long[] mKeys = new long[32];
+        /**
+         * Slot numbers, or -1 for empty entries
+         */
+        private int[] mValues = newValues(32);
+        private int mCount;
+
+        int get(int cellX, int cellY) {
+            final long key = key(cellX, cellY);
+            final int mask = mKeys.length - 1;
+            for (int index = mix(key) & mask; ; index = (index + 1) & mask) {
+                final int value = mValues[index];
+                if (value == -1 || mKeys[index] == key) {
+                    return value;
+                }
+            }
+        }
+
+        void put(int cellX, int cellY, int value) {
+            if ((mCount + 1) * 2 > mKeys.length) {
+                final long[] oldKeys = mKeys;
+                final int[] oldValues = mValues;
+                mKeys = new long[oldKeys.length * 2];
+                mValues = newValues(oldValues.length * 2);
+                mCount = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] != -1) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key(cellX, cellY), value);
+        }
+
+        private void insert(long key, int value) {
+            final int mask = mKeys.length - 1;
+            for (int index = mix(key) & mask; ; index = (index + 1) & mask) {
+                if (mValues[index] == -1) {
+                    mKeys[index] = key;
+                    mValues[index] = value;
+                    mCount++;
+                    return;
+                } else if (mKeys[index] == key) {
+                    mValues[index] = value;
+                    return;
+                }
+            }
+        }
+
+        private static int[] newValues(int length) {
+            final int[] values = new int[length];
+            Arrays.fill(values, -1);
+            return values;
+        }
+
+        private static long key(int cellX, int cellY) {
+            return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+        }
+
+        private static int mix(long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -9,22 +9,25 @@ import java.util.Set;
 
 /**
  * Represents a colony
+ * <p/>
+ * A colony is a view of a row in a {@link ColonyStore}. A colony that is not part of any
+ * {@link ColonySet} has its own single-row store. When a colony is added to a set, its data is
+ * moved into the set's store.
+ * <p/>
+ * The setters change the store while holding its lock ({@link ColonySet#getLock()}), so a
+ * colony in a set can be changed while the set is read on another thread. The change listener
+ * is called after the lock has been released.
  */
 public class Colony extends Positioned {
 
-
-    /**
-     * The colony's identifier
-     */
-    private final String id;
     /**
-     * The time this colony was updated
+     * The store that contains this colony's data
      */
-    private DateTime updateTime;
+    private ColonyStore store;
     /**
-     * The attributes of this colony
+     * The row of the store that contains this colony's data
      */
-    private Map<String, Object> attributes;
+    private int row;
     /**
      * The change listener
      */
@@ -35,33 +38,66 @@ public class Colony extends Positioned {
     }
 
     public Colony(String id, double x, double y, boolean active) {
-        super(x, y);
-        this.id = id;
-        updateTime = DateTime.now();
-        attributes = new HashMap<>();
-        this.setAttribute("census.active", active);
+        if (id == null) {
+            throw new NullPointerException("id must not be null");
+        }
+        store = new ColonyStore(1);
+        row = store.add(id, x, y);
+        store.setFlag(row, AttributeKey.ACTIVE.getFlag(), active);
+    }
+
+    /**
+     * Creates a colony that is a view of an existing row
+     *
+     * @param store the store
+     * @param row   the row of the store
+     */
+    Colony(ColonyStore store, int row) {
+        this.store = store;
+        this.row = row;
     }
 
     public String getID() {
-        return id;
+        return store.getId(row);
+    }
+
+    @Override
+    public double getX() {
+        return store.getX(row);
     }
 
     @Override
     public void setX(double x) {
-        super.setX(x);
-        markUpdated();
+        synchronized (store) {
+            store.setX(row, x);
+            markUpdated();
+        }
         notifyChanged();
     }
 
+    @Override
+    public double getY() {
+        return store.getY(row);
+    }
+
     @Override
     public void setY(double y) {
-        super.setY(y);
-        markUpdated();
+        synchronized (store) {
+            store.setY(row, y);
+            markUpdated();
+        }
         notifyChanged();
     }
 
     public DateTime getUpdateTime() {
-        return updateTime;
+        return new DateTime(store.getUpdateTime(row));
+    }
+
+    /**
+     * @return the update time of this colony, in milliseconds since the epoch
+     */
+    public long getUpdateTimeMillis() {
+        return store.getUpdateTime(row);
     }
 
     /**
@@ -70,15 +106,17 @@ public class Colony extends Positioned {
      * @param newTime the update time
      */
     public void setUpdateTime(DateTime newTime) {
+        synchronized (store) {
+            store.setUpdateTime(row, newTime.getMillis());
+        }
         notifyChanged();
-        updateTime = newTime;
     }
 
     /**
      * Updates this colony's update time by setting it to the current time
      */
     protected void markUpdated() {
-        updateTime = DateTime.now();
+        store.setUpdateTime(row, System.currentTimeMillis());
     }
 
     /**
@@ -89,7 +127,12 @@ public class Colony extends Positioned {
      * does not have the specified attribute
      */
     public Object getAttribute(String attributeName) {
-        return attributes.get(attributeName);
+        final int flag = AttributeKey.flagForName(attributeName);
+        if (flag != -1 && store.hasFlag(row, flag)) {
+            return store.getFlag(row, flag);
+        }
+        final Map<String, Object> extras = store.getExtras(row);
+        return extras != null ? extras.get(attributeName) : null;
     }
 
     /**
@@ -104,7 +147,7 @@ public class Colony extends Positioned {
      */
     @SuppressWarnings("unchecked")
     public <T> T getAttribute(String attributeName, T defaultValue) {
-        final Object mapValue = attributes.get(attributeName);
+        final Object mapValue = getAttribute(attributeName);
         if (mapValue != null) {
             try {
                 return (T) mapValue;
@@ -123,31 +166,202 @@ public class Colony extends Positioned {
         if (value == null) {
             throw new NullPointerException("value must not be null");
         }
-        markUpdated();
+        synchronized (store) {
+            markUpdated();
+            putAttribute(name, value);
+        }
         notifyChanged();
-        attributes.put(name, value);
+    }
+
+    /**
+     * Stores an attribute value without updating the update time or notifying the listener
+     */
+    private void putAttribute(String name, Object value) {
+        final int flag = AttributeKey.flagForName(name);
+        if (flag != -1 && value instanceof Boolean) {
+            store.setFlag(row, flag, (Boolean) value);
+            store.removeExtra(row, name);
+        } else {
+            if (flag != -1) {
+                store.clearFlag(row, flag);
+            }
+            store.putExtra(row, name, value);
+        }
+    }
+
+    /**
+     * Gets a boolean attribute of this colony
+     * <p/>
+     * For the census flags, this reads a bit from the colony store and does not box a value.
+     *
+     * @param key the attribute key
+     * @return the value of the attribute, or false if this colony does not have the attribute
+     */
+    public boolean getFlag(AttributeKey<Boolean> key) {
+        if (key.isFlag()) {
+            return store.getFlag(row, key.getFlag());
+        }
+        final Map<String, Object> extras = store.getExtras(row);
+        if (extras != null) {
+            final Object value = extras.get(key.getName());
+            return value instanceof Boolean && (Boolean) value;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sets a boolean attribute of this colony
+     *
+     * @param key   the attribute key
+     * @param value the new value
+     */
+    public void setFlag(AttributeKey<Boolean> key, boolean value) {
+        synchronized (store) {
+            markUpdated();
+            if (key.isFlag()) {
+                store.setFlag(row, key.getFlag(), value);
+                store.removeExtra(row, key.getName());
+            } else {
+                store.putExtra(row, key.getName(), value);
+            }
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Gets an attribute of this colony
+     *
+     * @param key          the attribute key
+     * @param defaultValue the value to return if this colony does not have the attribute
+     * @param <T>          the type of the attribute
+     * @return the value of the attribute, or defaultValue if this colony does not have the
+     * attribute or its value is not of the key's type
+     */
+    public <T> T getAttribute(AttributeKey<T> key, T defaultValue) {
+        final Object value = getAttribute(key.getName());
+        if (key.getType().isInstance(value)) {
+            return key.getType().cast(value);
+        } else {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sets an attribute of this colony
+     *
+     * @param key   the attribute key
+     * @param value the new value. Must not be null.
+     * @param <T>   the type of the attribute
+     */
+    public <T> void setAttribute(AttributeKey<T> key, T value) {
+        setAttribute(key.getName(), value);
+    }
+
+    public boolean hasAttribute(AttributeKey<?> key) {
+        return hasAttribute(key.getName());
     }
 
     public boolean hasAttribute(String name) {
-        return attributes.containsKey(name);
+        final int flag = AttributeKey.flagForName(name);
+        if (flag != -1 && store.hasFlag(row, flag)) {
+            return true;
+        }
+        final Map<String, Object> extras = store.getExtras(row);
+        return extras != null && extras.containsKey(name);
     }
 
     public Set<String> attributeNames() {
-        return Collections.unmodifiableSet(attributes.keySet());
+        return Collections.unmodifiableSet(getAttributes().keySet());
     }
 
     public Map<String, Object> getAttributes() {
-        return new HashMap<>(attributes);
+        final Map<String, Object> attributes = new HashMap<>();
+        for (int flag = 0; flag < ColonyStore.FLAG_COUNT; flag++) {
+            if (store.hasFlag(row, flag)) {
+                attributes.put(AttributeKey.forFlag(flag).getName(), store.getFlag(row, flag));
+            }
+        }
+        final Map<String, Object> extras = store.getExtras(row);
+        if (extras != null) {
+            attributes.putAll(extras);
+        }
+        return attributes;
     }
 
     public void setAttributes(Map<String, Object> attrs) {
-        markUpdated();
+        synchronized (store) {
+            markUpdated();
+            store.clearAttributes(row);
+            for (Map.Entry<String, Object> entry : attrs.entrySet()) {
+                putAttribute(entry.getKey(), entry.getValue());
+            }
+        }
         notifyChanged();
-        attributes = new HashMap<>(attrs);
     }
 
     /**
-     * Notifies the listener that something has changed
+     * @return true if this colony's data is in the provided store
+     */
+    boolean isStoredIn(ColonyStore other) {
+        return store == other;
+    }
+
+    /**
+     * Moves this colony's data into a row of another store. The data is copied into the row,
+     * and this colony becomes a view of the row.
+     *
+     * @param newStore the store to move to
+     * @param newRow   the row of the store, which must have the same ID as this colony
+     */
+    void moveTo(ColonyStore newStore, int newRow) {
+        if (newStore != store) {
+            newStore.copyRow(store, row, newRow);
+            store = newStore;
+            row = newRow;
+        }
+    }
+
+    /**
+     * Copies this colony's data into a row of another store without changing where this colony
+     * is stored
+     *
+     * @param destination the store to copy to
+     * @param destinationRow the row of the store, which must have the same ID as this colony
+     */
+    void copyTo(ColonyStore destination, int destinationRow) {
+        destination.copyRow(store, row, destinationRow);
+    }
+
+    /**
+     * @return the row that contains this colony's data in the provided store, or -1 if this
+     * colony's data is in a different store
+     */
+    int rowIn(ColonyStore other) {
+        return store == other ? row : -1;
+    }
+
+    /**
+     * Adds this colony's data to a digest
+     */
+    void updateDigest(Digest digest) {
+        digest.update(store, row);
+    }
+
+    /**
+     * Moves this colony's data out of its current store into a new single-row store
+     */
+    void detach() {
+        final ColonyStore newStore = new ColonyStore(1);
+        final int newRow = newStore.add(store.getId(row));
+        newStore.copyRow(store, row, newRow);
+        store = newStore;
+        row = newRow;
+    }
+
+    /**
+     * Notifies the listener that something has changed. This must be called after the change
+     * has been made, so that the listener sees the new values.
      */
     protected void notifyChanged() {
         if (listener != null) {
@@ -171,8 +385,8 @@ public class Colony extends Positioned {
 
     public static Colony fromNewColony(NewColony newColony) {
         final Colony colony = new Colony(newColony.getName(), newColony.getX(), newColony.getY(), false);
-        colony.setAttribute("census.visited", true);
-        colony.setAttribute("census.active", true);
+        colony.setFlag(AttributeKey.VISITED, true);
+        colony.setFlag(AttributeKey.ACTIVE, true);
         return colony;
     }
 }
@@ -0,0 +1,295 @@
+package org.samcrow.colonynavigator.data4;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.samcrow.data.provider.LoadStage;
+import org.samcrow.data.provider.MemoryCardDataProvider;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Loads colonies in the background and adds them to a set on the main thread
+ * <p/>
+ * Loading is divided into {@link LoadStage}s. Colonies are added to the set as soon as each
+ * stage makes them available, so they can be shown before loading finishes. Colonies from early
+ * stages are replaced by the final colonies with the same IDs when loading finishes.
+ * <p/>
+ * Colonies are added {@link #BATCH_SIZE} at a time, in separate messages on the main thread, so
+ * the user interface stays responsive while a large set is added.
+ * <p/>
+ * The time taken by each stage is logged.
+ */
+public class ColonyLoadTask extends AsyncTask<Void, ColonyLoadTask.Progress, ColonySet> {
+
+    private static final String TAG = ColonyLoadTask.class.getSimpleName();
+
+    /**
+     * The maximum number of colonies to add in one message on the main thread
+     */
+    public static final int BATCH_SIZE = 2000;
+
+    /**
+     * Receives progress information. All methods are called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when a stage of loading starts
+         *
+         * @param stage the stage
+         */
+        void stageStarted(LoadStage stage);
+
+        /**
+         * Called after a batch of colonies has been added to the set
+         */
+        void coloniesAdded();
+
+        /**
+         * Called when a colony in the set is replaced with a colony from a later stage
+         *
+         * @param oldColony the colony that was replaced, which is no longer part of the set
+         * @param newColony the colony that replaced it
+         */
+        void colonyReplaced(Colony oldColony, Colony newColony);
+
+        /**
+         * Called when loading has finished and all colonies have been added to the set
+         *
+         * @param error the exception that caused loading to fail, or null if loading succeeded
+         */
+        void loadFinished(Exception error);
+    }
+
+    /**
+     * A progress update, containing a new stage or colonies to add
+     */
+    static class Progress {
+        final LoadStage stage;
+        final ColonySet colonies;
+
+        Progress(LoadStage stage, ColonySet colonies) {
+            this.stage = stage;
+            this.colonies = colonies;
+        }
+    }
+
+    private final NewColonyDatabase mDatabase;
+    private final MemoryCardDataProvider mMemoryCard;
+    /**
+     * The set to add colonies to
+     */
+    private final ColonySet mDestination;
+    private final Listener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Sets of colonies waiting to be added
+     */
+    private final Queue<ColonySet> mPending = new ArrayDeque<>();
+    /**
+     * An iterator over the colonies currently being added, or null
+     */
+    private Iterator<Colony> mAdding;
+    /**
+     * Pairs of replaced and replacing colonies found while adding a batch, reused for each batch
+     */
+    private final List<Colony> mReplaced = new ArrayList<>();
+    /**
+     * The error that caused loading to fail. Set on the background thread.
+     */
+    private Exception mError;
+    /**
+     * True when the background work has finished
+     */
+    private boolean mBackgroundFinished = false;
+
+    /**
+     * The stage that is in progress on the background thread, or null
+     */
+    private LoadStage mStage;
+    /**
+     * The time, from {@link SystemClock#elapsedRealtime()}, when the current stage started
+     */
+    private long mStageStart;
+    private long mLoadStart;
+    /**
+     * The time taken by each stage, in milliseconds, indexed by ordinal, or -1 for stages that
+     * did not run
+     */
+    private final long[] mStageTimes = new long[LoadStage.values().length];
+
+    private final Runnable mAddBatch = new Runnable() {
+        @Override
+        public void run() {
+            addBatch();
+        }
+    };
+
+    /**
+     * Creates a load task
+     *
+     * @param database    the database to read new colonies from
+     * @param memoryCard  the provider to load memory card colonies from. When loading succeeds,
+     *                    its {@link MemoryCardDataProvider#loadFinished(ColonySet)} method is
+     *                    called.
+     * @param destination the set to add colonies to
+     * @param listener    a listener to notify of progress
+     */
+    public ColonyLoadTask(NewColonyDatabase database, MemoryCardDataProvider memoryCard,
+                          ColonySet destination, Listener listener) {
+        mDatabase = database;
+        mMemoryCard = memoryCard;
+        mDestination = destination;
+        mListener = listener;
+        Arrays.fill(mStageTimes, -1);
+    }
+
+    @Override
+    protected ColonySet doInBackground(Void... params) {
+        mLoadStart = SystemClock.elapsedRealtime();
+        try {
+            startStage(LoadStage.NEW_COLONIES);
+            final List<NewColony> newColonies = mDatabase.getNewColonies();
+            final ColonySet newColonySet = new ColonySet();
+            for (NewColony newColony : newColonies) {
+                newColonySet.put(Colony.fromNewColony(newColony));
+            }
+            publishProgress(new Progress(null, newColonySet));
+
+            final ColonySet loaded = mMemoryCard.load(new MemoryCardDataProvider.LoadListener() {
+                @Override
+                public void stageStarted(LoadStage stage) {
+                    startStage(stage);
+                }
+
+                @Override
+                public void coloniesAvailable(ColonySet preview) {
+                    publishProgress(new Progress(null, preview));
+                }
+            });
+            startStage(null);
+            return loaded;
+        } catch (Exception e) {
+            startStage(null);
+            mError = e;
+            return null;
+        }
+    }
+
+    /**
+     * Records the end of the current stage and the start of another. Called on the background
+     * thread.
+     *
+     * @param stage the stage that is starting, or null if loading has finished
+     */
+    private void startStage(LoadStage stage) {
+        final long now = SystemClock.elapsedRealtime();
+        if (mStage != null) {
+            final int index = mStage.ordinal();
+            mStageTimes[index] = Math.max(mStageTimes[index], 0) + now - mStageStart;
+        }
+        mStage = stage;
+        mStageStart = now;
+        if (stage != null) {
+            publishProgress(new Progress(stage, null));
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Progress... values) {
+        for (Progress progress : values) {
+            if (progress.stage != null) {
+                mListener.stageStarted(progress.stage);
+            }
+            if (progress.colonies != null) {
+                enqueue(progress.colonies);
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(ColonySet loaded) {
+        logStageTimes();
+        mBackgroundFinished = true;
+        if (loaded != null) {
+            mMemoryCard.loadFinished(loaded);
+            // Adding these colonies moves their data into the destination set. The memory card
+            // provider keeps the same colony objects.
+            enqueue(loaded);
+        } else {
+            Log.e(TAG, "Failed to load colonies", mError);
+            if (mAdding == null) {
+                mListener.loadFinished(mError);
+            }
+        }
+    }
+
+    /**
+     * Queues colonies to be added to the destination set
+     */
+    private void enqueue(ColonySet colonies) {
+        mPending.add(colonies);
+        if (mAdding == null) {
+            mAdding = mPending.remove().iterator();
+            mHandler.post(mAddBatch);
+        }
+    }
+
+    /**
+     * Adds up to {@link #BATCH_SIZE} colonies to the destination set
+     * <p/>
+     * The whole batch is added while holding the lock of the destination set, so the map
+     * cannot be drawn in the middle of a batch. The listener is notified of replaced colonies
+     * after the lock has been released.
+     */
+    private void addBatch() {
+        synchronized (mDestination.getLock()) {
+            for (int i = 0; i < BATCH_SIZE && mAdding.hasNext(); i++) {
+                final Colony colony = mAdding.next();
+                final Colony replaced = mDestination.put(colony);
+                if (replaced != null && replaced != colony) {
+                    mReplaced.add(replaced);
+                    mReplaced.add(colony);
+                }
+            }
+        }
+        for (int i = 0; i < mReplaced.size(); i += 2) {
+            mListener.colonyReplaced(mReplaced.get(i), mReplaced.get(i + 1));
+        }
+        mReplaced.clear();
+        mListener.coloniesAdded();
+
+        if (!mAdding.hasNext()) {
+            final ColonySet next = mPending.poll();
+            mAdding = next != null ? next.iterator() : null;
+        }
+        if (mAdding != null) {
+            mHandler.post(mAddBatch);
+        } else if (mBackgroundFinished) {
+            Log.i(TAG, "Added " + mDestination.size() + " colonies "
+                    + (SystemClock.elapsedRealtime() - mLoadStart) + " ms after loading started");
+            mListener.loadFinished(mError);
+        }
+    }
+
+    private void logStageTimes() {
+        final StringBuilder message = new StringBuilder("Colony loading stages:");
+        for (LoadStage stage : LoadStage.values()) {
+            final long time = mStageTimes[stage.ordinal()];
+            if (time != -1) {
+                message.append(' ').append(stage.name()).append(' ').append(time).append(" ms,");
+            }
+        }
+        message.append(" total ").append(SystemClock.elapsedRealtime() - mLoadStart).append(" ms");
+        Log.i(TAG, message.toString());
+    }
+}
@@ -0,0 +1,193 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Merges colonies from colonies.csv into the colonies from colonies.json
+ * <p/>
+ * colonies.csv is edited outside this application and contains colony IDs and positions.
+ * colonies.json contains the colonies as they were last saved by this application, with census
+ * flags and update times. The merge is a three-way merge: the current CSV colonies are compared
+ * with the CSV colonies as of the last merge (the ancestor), so a position that changed in the
+ * CSV can be told apart from a position that changed in the application.
+ * <p/>
+ * For each colony in the CSV:
+ * <ul>
+ * <li>If it is not in the JSON colonies, it is added</li>
+ * <li>If its CSV position has not changed since the ancestor, nothing is done</li>
+ * <li>If its CSV position changed and its JSON position is still the ancestor position, the
+ * JSON colony is moved to the new position</li>
+ * <li>If both positions changed, or there is no ancestor, the positions conflict. The newer
+ * position wins: the CSV position is used if the CSV file was modified after the JSON colony
+ * was last updated.</li>
+ * </ul>
+ * Colonies that are only in the JSON colonies are kept. Census flags and other attributes are
+ * never taken from the CSV.
+ * <p/>
+ * The JSON colonies are modified in place, so the work done apart from looking up each ID is
+ * proportional to the number of colonies that changed.
+ */
+public class ColonyMerge {
+
+    /**
+     * A colony whose position was changed in both sources
+     */
+    public static class Conflict {
+        private final String mId;
+        private final boolean mCsvChosen;
+
+        Conflict(String id, boolean csvChosen) {
+            mId = id;
+            mCsvChosen = csvChosen;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * @return true if the position from the CSV was used, false if the position from the
+         * JSON colonies was kept
+         */
+        public boolean isCsvChosen() {
+            return mCsvChosen;
+        }
+
+        @Override
+        public String toString() {
+            return mId + (mCsvChosen ? " (CSV position used)" : " (saved position kept)");
+        }
+    }
+
+    /**
+     * The changes made by a merge
+     */
+    public static class Result {
+        private final List<String> mAdded = new ArrayList<>();
+        private final List<String> mChanged = new ArrayList<>();
+        private final List<Conflict> mConflicts = new ArrayList<>();
+
+        /**
+         * @return the IDs of colonies that were added from the CSV
+         */
+        public List<String> getAdded() {
+            return Collections.unmodifiableList(mAdded);
+        }
+
+        /**
+         * @return the IDs of colonies that were moved to a new position from the CSV
+         */
+        public List<String> getChanged() {
+            return Collections.unmodifiableList(mChanged);
+        }
+
+        /**
+         * @return the colonies whose positions conflicted
+         */
+        public List<Conflict> getConflicts() {
+            return Collections.unmodifiableList(mConflicts);
+        }
+
+        /**
+         * @return true if the merge modified any colonies
+         */
+        public boolean hasChanges() {
+            if (!mAdded.isEmpty() || !mChanged.isEmpty()) {
+                return true;
+            }
+            for (Conflict conflict : mConflicts) {
+                if (conflict.isCsvChosen()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return mAdded.size() + " added, " + mChanged.size() + " changed, "
+                    + mConflicts.size() + " conflicts";
+        }
+    }
+
+    private ColonyMerge() {
+    }
+
+    /**
+     * Merges CSV colonies into a set of colonies
+     *
+     * @param colonies the colonies from colonies.json, which are modified. No colonies in this
+     *                 set may have been moved into another set.
+     * @param ancestor the CSV colonies as of the last merge, or null if they are not known. If
+     *                 the CSV has not changed since the last merge, this may be the same object
+     *                 as csv.
+     * @param csv      the current CSV colonies. These are not modified.
+     * @param csvTime  the modification time of the CSV file, in milliseconds since the epoch
+     * @return the changes that were made
+     */
+    public static Result merge(ColonySet colonies, ColonySet ancestor, ColonySet csv, long csvTime) {
+        final Result result = new Result();
+        final ColonyStore ours = colonies.getStore();
+        final ColonyStore theirs = csv.getStore();
+        final ColonyStore base = ancestor != null ? ancestor.getStore() : null;
+        // If the CSV has not changed, only missing colonies need to be added
+        final boolean csvUnchanged = ancestor == csv;
+
+        final int count = theirs.size();
+        colonies.ensureCapacity(ours.size() + count);
+        for (int theirRow = 0; theirRow < count; theirRow++) {
+            final String id = theirs.getId(theirRow);
+            final double theirX = theirs.getX(theirRow);
+            final double theirY = theirs.getY(theirRow);
+
+            final int ourRow = ours.indexOf(id);
+            if (ourRow == -1) {
+                // Colonies are not active until they are visited in this census
+                colonies.put(id, theirX, theirY, false);
+                result.mAdded.add(id);
+                continue;
+            }
+            if (csvUnchanged) {
+                continue;
+            }
+            final double ourX = ours.getX(ourRow);
+            final double ourY = ours.getY(ourRow);
+            if (ourX == theirX && ourY == theirY) {
+                continue;
+            }
+
+            final int baseRow = base != null ? base.indexOf(id) : -1;
+            final boolean csvChanged = baseRow == -1
+                    || base.getX(baseRow) != theirX || base.getY(baseRow) != theirY;
+            if (!csvChanged) {
+                // Only the saved position changed
+                continue;
+            }
+            final boolean ourChanged = baseRow == -1
+                    || base.getX(baseRow) != ourX || base.getY(baseRow) != ourY;
+            if (!ourChanged) {
+                move(ours, ourRow, theirX, theirY, csvTime);
+                result.mChanged.add(id);
+            } else {
+                final boolean csvNewer = csvTime > ours.getUpdateTime(ourRow);
+                if (csvNewer) {
+                    move(ours, ourRow, theirX, theirY, csvTime);
+                }
+                result.mConflicts.add(new Conflict(id, csvNewer));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves a row to a position from the CSV, and updates its update time to at least the CSV
+     * modification time
+     */
+    private static void move(ColonyStore store, int row, double x, double y, long csvTime) {
+        store.setX(row, x);
+        store.setY(row, y);
+        store.setUpdateTime(row, Math.max(store.getUpdateTime(row), csvTime));
+    }
+}
@@ -0,0 +1,360 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An index of the IDs of the colonies in a {@link ColonySet}, used to suggest colonies while
+ * the user types an ID
+ * <p/>
+ * The IDs are kept in a sorted array, so the IDs that start with a query are a contiguous
+ * range that is found with a binary search. IDs that are within a small edit distance of the
+ * query are found by walking the sorted array like a trie: IDs that share a prefix share the
+ * rows of the edit distance table for that prefix, and every ID with a prefix that is already
+ * too far from the query is skipped with one binary search.
+ * <p/>
+ * The index listens for colonies added to the set's {@link ColonyStore}. New IDs are merged into
+ * the sorted array when the next search is done.
+ * <p/>
+ * This class is not thread-safe.
+ */
+public class ColonySearchIndex implements ColonyStore.Listener {
+
+    /**
+     * Queries shorter than this do not get suggestions that are not prefix matches
+     */
+    private static final int MIN_FUZZY_LENGTH = 3;
+    /**
+     * The maximum edit distance between a query and a suggestion that does not start with it.
+     * With a larger distance, numeric IDs of typical length match a large part of the colonies.
+     */
+    private static final int MAX_DISTANCE = 1;
+
+    private final ColonyStore mStore;
+
+    /**
+     * The normalized IDs, in sorted order
+     */
+    private String[] mKeys = new String[0];
+    /**
+     * The store row of each key
+     */
+    private int[] mRows = new int[0];
+    private int mCount = 0;
+    /**
+     * Rows that have been added since the keys were last sorted
+     */
+    private int[] mPending = new int[16];
+    private int mPendingCount = 0;
+
+    /**
+     * The best matches found so far in a search, as scores in increasing order. See
+     * {@link #score(int, int, int)}.
+     */
+    private long[] mBest = new long[0];
+    private int mBestCount = 0;
+    /**
+     * The edit distance table. Row i contains the distances between the first i characters of
+     * a key and each prefix of the query.
+     */
+    private int[][] mDistances = new int[0][];
+
+    /**
+     * Creates an index of a set of colonies
+     *
+     * @param colonies the colonies to index
+     */
+    public ColonySearchIndex(ColonySet colonies) {
+        mStore = colonies.getStore();
+        for (int row = 0; row < mStore.size(); row++) {
+            rowAdded(row);
+        }
+        mStore.addListener(this);
+    }
+
+    /**
+     * Stops updating this index when the colonies change
+     */
+    public void detach() {
+        mStore.removeListener(this);
+    }
+
+    /**
+     * Finds colony IDs that match a query
+     * <p/>
+     * An ID that is equal to the query comes first, followed by IDs that start with the query,
+     * shortest first. If there are fewer than limit of those, IDs that differ from the query by
+     * one edit follow. An edit is an insertion, deletion, or substitution of one character, or
+     * a transposition of two adjacent characters.
+     * Matching ignores case and leading and trailing spaces.
+     *
+     * @param query  the text to search for
+     * @param limit  the maximum number of IDs to find
+     * @param result a list that the matching IDs will be added to
+     */
+    public void search(String query, int limit, List<? super String> result) {
+        final String key = normalize(query);
+        if (key.isEmpty() || limit <= 0) {
+            return;
+        }
+        mergePending();
+        if (mBest.length < limit) {
+            mBest = new long[limit];
+        }
+        mBestCount = 0;
+
+        // The prefix matches are in alphabetical order, so a later one can have any length.
+        // The shortest possible is one character longer than the query, and it comes after
+        // every match found so far with that length. Once all the best matches are at most
+        // that long, no later match can replace one of them.
+        final long twoLongerScore = score(1, key.length() + 2, 0);
+        int index = lowerBound(key, key.length());
+        for (; index < mCount && mKeys[index].startsWith(key); index++) {
+            final int tier = mKeys[index].length() == key.length() ? 0 : 1;
+            offer(score(tier, mKeys[index].length(), index), limit);
+            if (mBestCount == limit && mBest[limit - 1] < twoLongerScore) {
+                break;
+            }
+        }
+        if (mBestCount < limit && key.length() >= MIN_FUZZY_LENGTH) {
+            searchFuzzy(key, MAX_DISTANCE, limit);
+        }
+
+        for (int i = 0; i < mBestCount; i++) {
+            result.add(mStore.getId(mRows[(int) (mBest[i] & 0xFFFFFFFFL)]));
+        }
+    }
+
+    /**
+     * Adds keys within an edit distance of the query, other than keys that start with the query,
+     * to the best matches
+     */
+    private void searchFuzzy(String query, int maxDistance, int limit) {
+        final int queryLength = query.length();
+        // Keys longer than this are too far from the query, so the table never needs more rows
+        final int maxDepth = queryLength + maxDistance;
+        if (mDistances.length < maxDepth + 1 || mDistances[0].length < queryLength + 1) {
+            mDistances = new int[maxDepth + 1][queryLength + 1];
+        }
+        final int[][] d = mDistances;
+        for (int j = 0; j <= queryLength; j++) {
+            d[0][j] = j;
+        }
+
+        // The number of rows of the table, after row 0, that are valid for the previous key
+        int validDepth = 0;
+        String previous = "";
+        int index = 0;
+        while (index < mCount) {
+            final String key = mKeys[index];
+            final int keyLength = key.length();
+            int depth = Math.min(commonPrefixLength(previous, key, validDepth), keyLength);
+            int prunedDepth = -1;
+            while (depth < keyLength && depth < maxDepth) {
+                depth++;
+                final int[] row = d[depth];
+                final char c = key.charAt(depth - 1);
+                row[0] = depth;
+                int rowMin = depth;
+                for (int j = 1; j <= queryLength; j++) {
+                    final char q = query.charAt(j - 1);
+                    int value = d[depth - 1][j - 1] + (c == q ? 0 : 1);
+                    value = Math.min(value, d[depth - 1][j] + 1);
+                    value = Math.min(value, row[j - 1] + 1);
+                    if (depth > 1 && j > 1 && c == query.charAt(j - 2)
+                            && key.charAt(depth - 2) == q) {
+                        value = Math.min(value, d[depth - 2][j - 2] + 1);
+                    }
+                    row[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (rowMin > maxDistance) {
+                    prunedDepth = depth;
+                    break;
+                }
+            }
+            if (prunedDepth == -1 && depth < keyLength) {
+                // Too long. The keys after this one with the same first maxDepth characters
+                // are also longer than maxDepth.
+                prunedDepth = depth;
+            }
+            previous = key;
+            if (prunedDepth != -1) {
+                // No key with this prefix can match, so skip all of them
+                validDepth = prunedDepth - 1;
+                index = upperBound(key, prunedDepth, index + 1);
+                continue;
+            }
+            validDepth = depth;
+            final int distance = d[depth][queryLength];
+            if (distance <= maxDistance && !key.startsWith(query)) {
+                offer(score(1 + distance, keyLength, index), limit);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Calculates the score of a match. Lower scores are better.
+     *
+     * @param tier   0 for an exact match, 1 for a prefix match, or 1 + the edit distance
+     * @param length the length of the key
+     * @param index  the index of the key in the sorted keys, used to order keys alphabetically
+     */
+    private static long score(int tier, int length, int index) {
+        return ((long) tier << 56) | ((long) Math.min(length, 0xFFFFFF) << 32) | index;
+    }
+
+    /**
+     * Adds a score to the best matches if it is better than the worst of them
+     */
+    private void offer(long score, int limit) {
+        if (mBestCount == limit) {
+            if (score >= mBest[limit - 1]) {
+                return;
+            }
+            mBestCount--;
+        }
+        int i = mBestCount;
+        while (i > 0 && mBest[i - 1] > score) {
+            mBest[i] = mBest[i - 1];
+            i--;
+        }
+        mBest[i] = score;
+        mBestCount++;
+    }
+
+    /**
+     * Returns the index of the first key whose first length characters are not less than those
+     * of the provided key
+     */
+    private int lowerBound(String key, int length) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (comparePrefix(mKeys[mid], key, length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first key, at or after start, whose first length characters are
+     * greater than those of the provided key
+     */
+    private int upperBound(String key, int length, int start) {
+        int low = start;
+        int high = mCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (comparePrefix(mKeys[mid], key, length) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the first length characters of two strings, in the same order as
+     * {@link String#compareTo(String)}
+     */
+    private static int comparePrefix(String a, String b, int length) {
+        final int aLength = Math.min(a.length(), length);
+        final int bLength = Math.min(b.length(), length);
+        final int common = Math.min(aLength, bLength);
+        for (int i = 0; i < common; i++) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static int commonPrefixLength(String a, String b, int max) {
+        final int length = Math.min(max, Math.min(a.length(), b.length()));
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String normalize(String id) {
+        return id.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Sorts the pending rows and merges them into the sorted keys
+     */
+    private void mergePending() {
+        if (mPendingCount == 0) {
+            return;
+        }
+        final Integer[] order = new Integer[mPendingCount];
+        final String[] pendingKeys = new String[mPendingCount];
+        for (int i = 0; i < mPendingCount; i++) {
+            order[i] = i;
+            pendingKeys[i] = normalize(mStore.getId(mPending[i]));
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return pendingKeys[a].compareTo(pendingKeys[b]);
+            }
+        });
+
+        final int total = mCount + mPendingCount;
+        final String[] keys = new String[total];
+        final int[] rows = new int[total];
+        int existing = 0;
+        int pending = 0;
+        for (int i = 0; i < total; i++) {
+            final boolean takePending = existing == mCount || (pending < mPendingCount
+                    && pendingKeys[order[pending]].compareTo(mKeys[existing]) < 0);
+            if (takePending) {
+                final int p = order[pending++];
+                keys[i] = pendingKeys[p];
+                rows[i] = mPending[p];
+            } else {
+                keys[i] = mKeys[existing];
+                rows[i] = mRows[existing];
+                existing++;
+            }
+        }
+        mKeys = keys;
+        mRows = rows;
+        mCount = total;
+        mPendingCount = 0;
+    }
+
+    @Override
+    public void rowAdded(int row) {
+        if (mPendingCount == mPending.length) {
+            mPending = Arrays.copyOf(mPending, mPending.length * 2);
+        }
+        mPending[mPendingCount++] = row;
+    }
+
+    @Override
+    public void rowMoved(int row, double oldX, double oldY) {
+        // IDs do not change
+    }
+
+    @Override
+    public void cleared() {
+        mKeys = new String[0];
+        mRows = new int[0];
+        mCount = 0;
+        mPendingCount = 0;
+    }
+}
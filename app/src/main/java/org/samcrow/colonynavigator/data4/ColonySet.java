@@ -1,21 +1,38 @@
 package org.samcrow.colonynavigator.data4;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 
 /**
  * A set of colonies
+ * <p/>
+ * The colony data is kept in a {@link ColonyStore}. {@link Colony} objects are created as views
+ * of the store rows when they are first requested, and the same object is returned for a colony
+ * every time after that.
+ * <p/>
+ * Colonies are iterated in the order that they were first added.
+ * <p/>
+ * Colonies are added and changed on one thread, but the set may be read on other threads (for
+ * example, while drawing the map). Methods of this class, and the setters of the colonies in it,
+ * change the store while holding the lock returned by {@link #getLock()}, and views are created
+ * while holding the same lock. Code that reads the set on another thread must hold the lock.
  */
 public class ColonySet implements Iterable<Colony> {
 
-    private final LinkedHashMap<String, Colony> map;
+    private final ColonyStore store;
+    /**
+     * The colony view for each row of the store, or null for rows that do not have a view yet
+     */
+    private Colony[] views;
 
     /**
      * Creates a new empty set of colonies
      */
     public ColonySet() {
-        map = new LinkedHashMap<>();
+        store = new ColonyStore();
+        views = new Colony[0];
     }
 
     /**
@@ -26,14 +43,24 @@ public class ColonySet implements Iterable<Colony> {
      */
     public ColonySet(Collection<? extends Colony> collection) {
         this();
+        store.ensureCapacity(collection.size());
         for (Colony colony : collection) {
             if (colony == null) {
                 throw new NullPointerException("No colony may be null");
             }
-            map.put(colony.getID(), colony);
+            put(colony);
         }
     }
 
+    /**
+     * Creates a set of colonies that are views of the rows of a store. The store must not
+     * contain two rows with the same ID.
+     */
+    ColonySet(ColonyStore store) {
+        this.store = store;
+        views = new Colony[0];
+    }
+
     /**
      * Returns an iterator over the colonies in this set
      *
@@ -41,7 +68,27 @@ public class ColonySet implements Iterable<Colony> {
      */
     @Override
     public Iterator<Colony> iterator() {
-        return map.values().iterator();
+        return new Iterator<Colony>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < store.size();
+            }
+
+            @Override
+            public Colony next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return view(row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Colonies cannot be removed");
+            }
+        };
     }
 
     /**
@@ -51,13 +98,22 @@ public class ColonySet implements Iterable<Colony> {
      * @return the matching colony, or null if no colony with that ID is available
      */
     public Colony get(String id) {
-        return map.get(id);
+        if (id == null) {
+            return null;
+        }
+        synchronized (store) {
+            final int row = store.indexOf(id);
+            return row != -1 ? view(row) : null;
+        }
     }
 
     /**
      * Adds a colony to this set
      * <p/>
      * If a colony with the same ID is already in this set, it is replaced with the provided colony
+     * <p/>
+     * The data of the provided colony is moved into this set's store. If the colony is also part
+     * of another set, that set will still contain the same colony object.
      *
      * @param colony the colony to store. Must not be null.
      * @return the colony that the provided colony replaced, or null if no colony was replaced
@@ -66,7 +122,64 @@ public class ColonySet implements Iterable<Colony> {
         if (colony == null) {
             throw new NullPointerException("Colony must not be null");
         }
-        return map.put(colony.getID(), colony);
+        synchronized (store) {
+            int row = store.indexOf(colony.getID());
+            final Colony replaced;
+            if (row != -1) {
+                replaced = view(row);
+                if (replaced == colony) {
+                    return replaced;
+                }
+                // The replaced colony may still be referenced elsewhere, so give it its own data
+                if (replaced.isStoredIn(store)) {
+                    replaced.detach();
+                }
+            } else {
+                replaced = null;
+                row = store.add(colony.getID(), colony.getX(), colony.getY());
+                ensureViewCapacity(row + 1);
+            }
+            colony.moveTo(store, row);
+            views[row] = colony;
+            return replaced;
+        }
+    }
+
+    /**
+     * Adds a colony with the provided data to this set, without creating a colony object
+     * <p/>
+     * This has the same effect as {@code put(new Colony(id, x, y, active))}. If a colony with
+     * the same ID is already in this set, it is replaced.
+     *
+     * @param id     the colony ID. Must not be null.
+     * @param x      the X coordinate
+     * @param y      the Y coordinate
+     * @param active if the colony is active
+     */
+    public void put(String id, double x, double y, boolean active) {
+        if (id == null) {
+            throw new NullPointerException("id must not be null");
+        }
+        synchronized (store) {
+            int row = store.indexOf(id);
+            if (row != -1) {
+                // The replaced colony may still be referenced elsewhere, so give it its own data
+                final Colony replaced = row < views.length ? views[row] : null;
+                if (replaced != null) {
+                    if (replaced.isStoredIn(store)) {
+                        replaced.detach();
+                    }
+                    views[row] = null;
+                }
+                store.clearAttributes(row);
+                store.setUpdateTime(row, System.currentTimeMillis());
+                store.setX(row, x);
+                store.setY(row, y);
+            } else {
+                row = store.add(id, x, y);
+            }
+            store.setFlag(row, ColonyStore.FLAG_ACTIVE, active);
+        }
     }
 
     /**
@@ -87,15 +200,154 @@ public class ColonySet implements Iterable<Colony> {
      * @param other the collection of colonies to add
      */
     public void putAll(ColonySet other) {
+        ensureCapacity(store.size() + other.size());
         for (Colony colony : other) {
             put(colony);
         }
     }
 
+    /**
+     * Ensures that this set has space for at least the provided number of colonies
+     */
+    public void ensureCapacity(int capacity) {
+        synchronized (store) {
+            store.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Returns a copy of this set
+     * <p/>
+     * The colonies in the copy are separate objects with the same data as the colonies in this
+     * set, and later changes to either set do not affect the other. The data is copied in bulk
+     * without creating any colony objects, so this is fast enough to call on the UI thread
+     * before passing the copy to another thread.
+     *
+     * @return a copy of this set
+     */
+    public ColonySet snapshot() {
+        final ColonyStore copy = new ColonyStore(store);
+        // Colonies that were moved into another set keep their current data there
+        final int viewCount = Math.min(store.size(), views.length);
+        for (int row = 0; row < viewCount; row++) {
+            final Colony colony = views[row];
+            if (colony != null && !colony.isStoredIn(store)) {
+                colony.copyTo(copy, row);
+            }
+        }
+        return new ColonySet(copy);
+    }
+
+    /**
+     * Copies the local coordinates of all colonies in this set into arrays, in iteration order
+     *
+     * @param x an array with at least {@link #size()} elements to store the X coordinates in
+     * @param y an array with at least {@link #size()} elements to store the Y coordinates in
+     */
+    public void getCoordinates(double[] x, double[] y) {
+        final int size = store.size();
+        System.arraycopy(store.getXColumn(), 0, x, 0, size);
+        System.arraycopy(store.getYColumn(), 0, y, 0, size);
+        // Colonies that were moved into another set keep their current data there
+        final int viewCount = Math.min(size, views.length);
+        for (int row = 0; row < viewCount; row++) {
+            final Colony colony = views[row];
+            if (colony != null && !colony.isStoredIn(store)) {
+                x[row] = colony.getX();
+                y[row] = colony.getY();
+            }
+        }
+    }
+
+    /**
+     * Calculates a fingerprint of the contents of this set
+     * <p/>
+     * The fingerprint is a digest of the ID, coordinates, update time, and attributes of every
+     * colony, in order. Two sets with the same colonies in the same order have the same
+     * fingerprint.
+     *
+     * @return the fingerprint
+     */
+    public byte[] fingerprint() {
+        final Digest digest = new Digest();
+        final int size = store.size();
+        digest.update(size);
+        for (int row = 0; row < size; row++) {
+            final Colony colony = row < views.length ? views[row] : null;
+            if (colony != null && !colony.isStoredIn(store)) {
+                // Moved into another set
+                colony.updateDigest(digest);
+            } else {
+                digest.update(store, row);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return the number of colonies in this set
+     */
+    public int size() {
+        return store.size();
+    }
+
     /**
      * Removes all colonies from this set
+     * <p/>
+     * Colony objects that were part of this set keep their data.
      */
     public void clear() {
-        map.clear();
+        synchronized (store) {
+            final int viewCount = Math.min(store.size(), views.length);
+            for (int row = 0; row < viewCount; row++) {
+                final Colony colony = views[row];
+                if (colony != null && colony.isStoredIn(store)) {
+                    colony.detach();
+                }
+            }
+            Arrays.fill(views, null);
+            store.clear();
+        }
+    }
+
+    /**
+     * Returns the lock that is held while this set or its colonies are changed
+     * <p/>
+     * Code that reads this set or its colonies on a thread other than the one that changes them
+     * must hold this lock. Locks of indexes of this set, such as {@link GpsPositionCache}, must
+     * not be held while acquiring it.
+     *
+     * @return the lock
+     */
+    public Object getLock() {
+        return store;
+    }
+
+    /**
+     * @return the store that contains the data for this set
+     */
+    ColonyStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the view of a row, creating it if necessary
+     */
+    Colony view(int row) {
+        synchronized (store) {
+            ensureViewCapacity(row + 1);
+            Colony colony = views[row];
+            if (colony == null) {
+                colony = new Colony(store, row);
+                views[row] = colony;
+            }
+            return colony;
+        }
+    }
+
+    private void ensureViewCapacity(int capacity) {
+        if (views.length < capacity) {
+            views = Arrays.copyOf(views, Math.max(capacity, views.length * 2));
+        }
     }
 }
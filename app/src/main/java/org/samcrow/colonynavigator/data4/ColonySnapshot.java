@@ -0,0 +1,204 @@
+package org.samcrow.colonynavigator.data4;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Stores colonies in a compact binary file
+ * <p/>
+ * A snapshot is tagged with a key, which identifies the source data that the colonies were
+ * read from. {@link #read(File, byte[])} only returns colonies if the key matches, so a snapshot
+ * can be used as a cache of the result of parsing and merging the colony files.
+ * <p/>
+ * The file is laid out in columns: a header, then the X coordinates, Y coordinates, update times,
+ * flags, and IDs of all colonies. It is read by memory-mapping it, and the numeric columns are
+ * copied in bulk.
+ * <p/>
+ * Attributes that are not census flags are not stored.
+ */
+public class ColonySnapshot {
+
+    private static final String TAG = ColonySnapshot.class.getSimpleName();
+
+    /**
+     * The first four bytes of a snapshot file ("CNS1")
+     */
+    private static final int MAGIC = 0x434E5331;
+    /**
+     * The version of the file format. This must be changed when the format changes, or when
+     * the way colonies are read from the source files changes.
+     */
+    private static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ColonySnapshot() {
+    }
+
+    /**
+     * Writes a snapshot
+     * <p/>
+     * The snapshot is written to a temporary file and then renamed, so an existing snapshot is
+     * never left partly written.
+     *
+     * @param colonies the colonies to write. These must not be modified during this method.
+     * @param key      the key that identifies the source of the colonies
+     * @param file     the file to write
+     * @throws IOException if the file could not be written
+     */
+    public static void write(ColonySet colonies, byte[] key, File file) throws IOException {
+        final ColonyStore store = colonies.snapshot().getStore();
+        final int count = store.size();
+
+        final byte[][] ids = new byte[count][];
+        int idLength = 0;
+        for (int row = 0; row < count; row++) {
+            ids[row] = store.getId(row).getBytes(UTF_8);
+            idLength += ids[row].length;
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(count);
+            out.writeInt(idLength);
+
+            for (int row = 0; row < count; row++) {
+                out.writeDouble(store.getX(row));
+            }
+            for (int row = 0; row < count; row++) {
+                out.writeDouble(store.getY(row));
+            }
+            for (int row = 0; row < count; row++) {
+                out.writeLong(store.getUpdateTime(row));
+            }
+            for (int row = 0; row < count; row++) {
+                out.writeByte(encodeFlags(store, row));
+            }
+            // ID end offsets, followed by the IDs
+            int idEnd = 0;
+            for (int row = 0; row < count; row++) {
+                idEnd += ids[row].length;
+                out.writeInt(idEnd);
+            }
+            for (int row = 0; row < count; row++) {
+                out.write(ids[row]);
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename snapshot to " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @param file the file to read
+     * @param key  the key that identifies the expected source of the colonies, or null to
+     *             accept a snapshot with any key
+     * @return the colonies, or null if the file does not exist, is not a valid snapshot, or
+     * has a different key
+     */
+    public static ColonySet read(File file, byte[] key) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, key);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            Log.w(TAG, "Can't read colony snapshot", e);
+            return null;
+        }
+    }
+
+    private static ColonySet read(ByteBuffer buffer, byte[] key) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        final byte[] fileKey = new byte[buffer.getInt()];
+        buffer.get(fileKey);
+        if (key != null && !Arrays.equals(fileKey, key)) {
+            return null;
+        }
+        final int count = buffer.getInt();
+        final int idLength = buffer.getInt();
+
+        final double[] x = new double[count];
+        final double[] y = new double[count];
+        final long[] updateTimes = new long[count];
+        final byte[] flags = new byte[count];
+        final int[] idEnds = new int[count];
+        final byte[] ids = new byte[idLength];
+
+        final DoubleBuffer xBuffer = buffer.asDoubleBuffer();
+        xBuffer.get(x);
+        buffer.position(buffer.position() + count * 8);
+        final DoubleBuffer yBuffer = buffer.asDoubleBuffer();
+        yBuffer.get(y);
+        buffer.position(buffer.position() + count * 8);
+        final LongBuffer timeBuffer = buffer.asLongBuffer();
+        timeBuffer.get(updateTimes);
+        buffer.position(buffer.position() + count * 8);
+        buffer.get(flags);
+        buffer.asIntBuffer().get(idEnds);
+        buffer.position(buffer.position() + count * 4);
+        buffer.get(ids);
+
+        final ColonyStore store = new ColonyStore(count);
+        int idStart = 0;
+        for (int row = 0; row < count; row++) {
+            final String id = new String(ids, idStart, idEnds[row] - idStart, UTF_8);
+            idStart = idEnds[row];
+            store.add(id, x[row], y[row]);
+            store.setUpdateTime(row, updateTimes[row]);
+            decodeFlags(store, row, flags[row]);
+        }
+        return new ColonySet(store);
+    }
+
+    /**
+     * Encodes the flags of a row into a byte. The low bits indicate which flags are present,
+     * and the high bits contain their values.
+     */
+    private static byte encodeFlags(ColonyStore store, int row) {
+        int encoded = 0;
+        for (int flag = 0; flag < ColonyStore.FLAG_COUNT; flag++) {
+            if (store.hasFlag(row, flag)) {
+                encoded |= 1 << flag;
+                if (store.getFlag(row, flag)) {
+                    encoded |= 1 << (flag + 4);
+                }
+            }
+        }
+        return (byte) encoded;
+    }
+
+    private static void decodeFlags(ColonyStore store, int row, byte encoded) {
+        for (int flag = 0; flag < ColonyStore.FLAG_COUNT; flag++) {
+            if ((encoded & (1 << flag)) != 0) {
+                store.setFlag(row, flag, (encoded & (1 << (flag + 4))) != 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented storage for colony data
+ * <p/>
+ * Each colony occupies one row. Coordinates and update times are kept in primitive arrays, and
+ * the census flags are kept in bit sets, so that a large number of colonies does not require
+ * a large number of objects. Attributes that are not census flags are kept in a map for each row,
+ * which is only allocated when needed.
+ * <p/>
+ * {@link Colony} and {@link ColonySet} provide views of the rows in a store.
+ * <p/>
+ * This class is not thread-safe. A store that belongs to a {@link ColonySet} is guarded by its
+ * own monitor, which the set returns from {@link ColonySet#getLock()}.
+ */
+public class ColonyStore {
+
+    /**
+     * Flag index for census.visited. {@link AttributeKey} maps attribute names to flags.
+     */
+    public static final int FLAG_VISITED = 0;
+    /**
+     * Flag index for census.active
+     */
+    public static final int FLAG_ACTIVE = 1;
+    /**
+     * Flag index for census.focus
+     */
+    public static final int FLAG_FOCUS = 2;
+    /**
+     * The number of flags
+     */
+    static final int FLAG_COUNT = 3;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The number of rows
+     */
+    private int mSize;
+    /**
+     * The identifier of each colony
+     */
+    private String[] mIds;
+    private double[] mX;
+    private double[] mY;
+    /**
+     * Update times, in milliseconds since the epoch
+     */
+    private long[] mUpdateTimes;
+    /**
+     * For each flag, a bit set of the flag values
+     */
+    private final long[][] mFlagValues = new long[FLAG_COUNT][];
+    /**
+     * For each flag, a bit set indicating which rows have a value for the flag
+     */
+    private final long[][] mFlagPresent = new long[FLAG_COUNT][];
+    /**
+     * For each row, a {@code Map<String, Object>} of other attributes, or null if the row has
+     * no other attributes
+     */
+    private Object[] mExtras;
+
+    /**
+     * Maps numeric colony IDs to rows
+     */
+    private IntIndex mNumericIndex;
+    /**
+     * Maps other colony IDs to rows
+     */
+    private Map<String, Integer> mTextIndex;
+    /**
+     * The number of rows that have been added to the indexes
+     */
+    private int mIndexedRows;
+    /**
+     * Listeners that are notified when rows are added or moved, or null if there are none
+     */
+    private List<Listener> mListeners;
+
+    /**
+     * Creates an empty store
+     */
+    public ColonyStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty store
+     *
+     * @param capacity the number of rows to allocate space for
+     */
+    public ColonyStore(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        mIds = new String[capacity];
+        mX = new double[capacity];
+        mY = new double[capacity];
+        mUpdateTimes = new long[capacity];
+        final int words = wordsFor(capacity);
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            mFlagValues[flag] = new long[words];
+            mFlagPresent[flag] = new long[words];
+        }
+        mExtras = new Object[capacity];
+    }
+
+    /**
+     * Creates a store with a copy of all rows of another store
+     * <p/>
+     * The copy does not share any mutable state with the original, so it can be read on another
+     * thread while the original changes. Listeners are not copied.
+     *
+     * @param other the store to copy
+     */
+    public ColonyStore(ColonyStore other) {
+        final int capacity = Math.max(other.mSize, 1);
+        mSize = other.mSize;
+        mIds = Arrays.copyOf(other.mIds, capacity);
+        mX = Arrays.copyOf(other.mX, capacity);
+        mY = Arrays.copyOf(other.mY, capacity);
+        mUpdateTimes = Arrays.copyOf(other.mUpdateTimes, capacity);
+        final int words = wordsFor(capacity);
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            mFlagValues[flag] = Arrays.copyOf(other.mFlagValues[flag], words);
+            mFlagPresent[flag] = Arrays.copyOf(other.mFlagPresent[flag], words);
+        }
+        mExtras = new Object[capacity];
+        for (int row = 0; row < mSize; row++) {
+            final Map<String, Object> extras = other.getExtras(row);
+            if (extras != null) {
+                mExtras[row] = new HashMap<>(extras);
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows in this store
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds a row for a colony. The new row has coordinates (0, 0), no attributes, and an update
+     * time of now.
+     * <p/>
+     * This method does not check if a row with the same ID already exists.
+     *
+     * @param id the colony ID
+     * @return the index of the new row
+     */
+    public int add(String id) {
+        return add(id, 0, 0);
+    }
+
+    /**
+     * Adds a row for a colony at a position. The new row has no attributes and an update time
+     * of now.
+     * <p/>
+     * Listeners are notified after the coordinates are set, so they see the row only at its
+     * real position.
+     * <p/>
+     * This method does not check if a row with the same ID already exists.
+     *
+     * @param id the colony ID
+     * @param x  the X coordinate
+     * @param y  the Y coordinate
+     * @return the index of the new row
+     */
+    public int add(String id, double x, double y) {
+        if (id == null) {
+            throw new NullPointerException("id must not be null");
+        }
+        ensureCapacity(mSize + 1);
+        final int row = mSize++;
+        mIds[row] = id;
+        mX[row] = x;
+        mY[row] = y;
+        mUpdateTimes[row] = System.currentTimeMillis();
+        if (mListeners != null) {
+            for (Listener listener : mListeners) {
+                listener.rowAdded(row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Finds the row for a colony
+     *
+     * @param id the colony ID
+     * @return the index of the row with the provided ID, or -1 if no row has that ID
+     */
+    public int indexOf(String id) {
+        updateIndexes();
+        final int numericId = parseNumericId(id);
+        if (numericId >= 0) {
+            return mNumericIndex.get(numericId);
+        } else {
+            final Integer row = mTextIndex.get(id);
+            return row != null ? row : -1;
+        }
+    }
+
+    public String getId(int row) {
+        return mIds[row];
+    }
+
+    public double getX(int row) {
+        return mX[row];
+    }
+
+    public void setX(int row, double x) {
+        final double oldX = mX[row];
+        mX[row] = x;
+        if (oldX != x) {
+            notifyMoved(row, oldX, mY[row]);
+        }
+    }
+
+    public double getY(int row) {
+        return mY[row];
+    }
+
+    public void setY(int row, double y) {
+        final double oldY = mY[row];
+        mY[row] = y;
+        if (oldY != y) {
+            notifyMoved(row, mX[row], oldY);
+        }
+    }
+
+    /**
+     * @return the array of X coordinates. Elements after the last row are undefined. The array
+     * is replaced when the capacity of this store increases.
+     */
+    double[] getXColumn() {
+        return mX;
+    }
+
+    /**
+     * @return the array of Y coordinates. Elements after the last row are undefined. The array
+     * is replaced when the capacity of this store increases.
+     */
+    double[] getYColumn() {
+        return mY;
+    }
+
+    /**
+     * @param row the row
+     * @return the update time of the row, in milliseconds since the epoch
+     */
+    public long getUpdateTime(int row) {
+        return mUpdateTimes[row];
+    }
+
+    public void setUpdateTime(int row, long millis) {
+        mUpdateTimes[row] = millis;
+    }
+
+    /**
+     * @return true if the row has a value for the specified flag
+     */
+    public boolean hasFlag(int row, int flag) {
+        return getBit(mFlagPresent[flag], row);
+    }
+
+    /**
+     * @return the value of the specified flag, or false if the row does not have a value
+     * for the flag
+     */
+    public boolean getFlag(int row, int flag) {
+        return getBit(mFlagValues[flag], row);
+    }
+
+    public void setFlag(int row, int flag, boolean value) {
+        setBit(mFlagPresent[flag], row, true);
+        setBit(mFlagValues[flag], row, value);
+    }
+
+    /**
+     * Removes the value of a flag from a row
+     */
+    public void clearFlag(int row, int flag) {
+        setBit(mFlagPresent[flag], row, false);
+        setBit(mFlagValues[flag], row, false);
+    }
+
+    /**
+     * Returns the attributes of a row that are not stored as flags
+     *
+     * @param row the row
+     * @return the attributes, or null if the row has no other attributes
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getExtras(int row) {
+        return (Map<String, Object>) mExtras[row];
+    }
+
+    /**
+     * Sets an attribute that is not stored as a flag
+     */
+    public void putExtra(int row, String name, Object value) {
+        Map<String, Object> extras = getExtras(row);
+        if (extras == null) {
+            extras = new HashMap<>(4);
+            mExtras[row] = extras;
+        }
+        extras.put(name, value);
+    }
+
+    /**
+     * Removes an attribute that is not stored as a flag
+     */
+    public void removeExtra(int row, String name) {
+        final Map<String, Object> extras = getExtras(row);
+        if (extras != null) {
+            extras.remove(name);
+            if (extras.isEmpty()) {
+                mExtras[row] = null;
+            }
+        }
+    }
+
+    /**
+     * Removes all attributes, both flags and others, from a row
+     */
+    public void clearAttributes(int row) {
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            clearFlag(row, flag);
+        }
+        mExtras[row] = null;
+    }
+
+    /**
+     * Copies the coordinates, update time, and attributes of a row from another store into
+     * a row of this store. The ID of the destination row is not changed.
+     *
+     * @param source    the store to copy from
+     * @param sourceRow the row to copy from
+     * @param row       the row of this store to copy to
+     */
+    public void copyRow(ColonyStore source, int sourceRow, int row) {
+        final double oldX = mX[row];
+        final double oldY = mY[row];
+        mX[row] = source.mX[sourceRow];
+        mY[row] = source.mY[sourceRow];
+        mUpdateTimes[row] = source.mUpdateTimes[sourceRow];
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            setBit(mFlagPresent[flag], row, getBit(source.mFlagPresent[flag], sourceRow));
+            setBit(mFlagValues[flag], row, getBit(source.mFlagValues[flag], sourceRow));
+        }
+        final Map<String, Object> sourceExtras = source.getExtras(sourceRow);
+        mExtras[row] = sourceExtras != null ? new HashMap<>(sourceExtras) : null;
+        if (oldX != mX[row] || oldY != mY[row]) {
+            notifyMoved(row, oldX, oldY);
+        }
+    }
+
+    /**
+     * Removes all rows from this store
+     */
+    public void clear() {
+        Arrays.fill(mIds, 0, mSize, null);
+        Arrays.fill(mX, 0, mSize, 0);
+        Arrays.fill(mY, 0, mSize, 0);
+        Arrays.fill(mUpdateTimes, 0, mSize, 0);
+        Arrays.fill(mExtras, 0, mSize, null);
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            Arrays.fill(mFlagValues[flag], 0);
+            Arrays.fill(mFlagPresent[flag], 0);
+        }
+        mSize = 0;
+        mNumericIndex = null;
+        mTextIndex = null;
+        mIndexedRows = 0;
+        if (mListeners != null) {
+            for (Listener listener : mListeners) {
+                listener.cleared();
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        if (mListeners == null) {
+            mListeners = new ArrayList<>(2);
+        }
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        if (mListeners != null) {
+            mListeners.remove(listener);
+        }
+    }
+
+    private void notifyMoved(int row, double oldX, double oldY) {
+        if (mListeners != null) {
+            for (Listener listener : mListeners) {
+                listener.rowMoved(row, oldX, oldY);
+            }
+        }
+    }
+
+    /**
+     * Ensures that this store has space for at least the provided number of rows
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mX = Arrays.copyOf(mX, newCapacity);
+        mY = Arrays.copyOf(mY, newCapacity);
+        mUpdateTimes = Arrays.copyOf(mUpdateTimes, newCapacity);
+        mExtras = Arrays.copyOf(mExtras, newCapacity);
+        final int words = wordsFor(newCapacity);
+        for (int flag = 0; flag < FLAG_COUNT; flag++) {
+            mFlagValues[flag] = Arrays.copyOf(mFlagValues[flag], words);
+            mFlagPresent[flag] = Arrays.copyOf(mFlagPresent[flag], words);
+        }
+    }
+
+    /**
+     * Adds any rows that have been added since the last call to the ID indexes. The indexes
+     * are only created when a lookup is done, so stores that hold a single detached colony
+     * never allocate them.
+     */
+    private void updateIndexes() {
+        if (mNumericIndex == null) {
+            mNumericIndex = new IntIndex(mSize);
+            mTextIndex = new HashMap<>();
+        }
+        for (; mIndexedRows < mSize; mIndexedRows++) {
+            final String id = mIds[mIndexedRows];
+            final int numericId = parseNumericId(id);
+            if (numericId >= 0) {
+                mNumericIndex.put(numericId, mIndexedRows);
+            } else {
+                mTextIndex.put(id, mIndexedRows);
+            }
+        }
+    }
+
+    /**
+     * Parses a colony ID that is a non-negative decimal integer in canonical form (no sign,
+     * no leading zeros, no surrounding spaces)
+     *
+     * @param id the ID to parse
+     * @return the numeric value of the ID, or -1 if the ID is not in canonical numeric form
+     */
+    static int parseNumericId(String id) {
+        final int length = id.length();
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+        if (length > 1 && id.charAt(0) == '0') {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int wordsFor(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean getBit(long[] words, int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] words, int index, boolean value) {
+        if (value) {
+            words[index >>> 6] |= 1L << index;
+        } else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * An interface for something that can be notified when rows of a store are added or moved
+     */
+    public interface Listener {
+        /**
+         * Called when a row has been added. When this method is called, the store already
+         * contains the coordinates of the new row.
+         *
+         * @param row the index of the new row
+         */
+        void rowAdded(int row);
+
+        /**
+         * Called when the coordinates of a row have changed. When this method is called,
+         * the store already contains the new coordinates.
+         *
+         * @param row  the row that moved
+         * @param oldX the previous X coordinate
+         * @param oldY the previous Y coordinate
+         */
+        void rowMoved(int row, double oldX, double oldY);
+
+        /**
+         * Called when all rows have been removed
+         */
+        void cleared();
+    }
+
+    /**
+     * An open-addressing hash map from non-negative int keys to non-negative int values
+     */
+    private static class IntIndex {
+        private static final int EMPTY = -1;
+
+        private int[] mKeys;
+        private int[] mValues;
+        private int mCount;
+
+        IntIndex(int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            mKeys = new int[capacity];
+            mValues = new int[capacity];
+            Arrays.fill(mKeys, EMPTY);
+        }
+
+        int get(int key) {
+            final int mask = mKeys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                final int slotKey = mKeys[slot];
+                if (slotKey == key) {
+                    return mValues[slot];
+                } else if (slotKey == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(int key, int value) {
+            if ((mCount + 1) * 2 > mKeys.length) {
+                final int[] oldKeys = mKeys;
+                final int[] oldValues = mValues;
+                allocate(mKeys.length * 2);
+                mCount = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != EMPTY) {
+                        put(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            final int mask = mKeys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                final int slotKey = mKeys[slot];
+                if (slotKey == key) {
+                    mValues[slot] = value;
+                    return;
+                } else if (slotKey == EMPTY) {
+                    mKeys[slot] = key;
+                    mValues[slot] = value;
+                    mCount++;
+                    return;
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            final int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -1,18 +1,38 @@
 package org.samcrow.colonynavigator.data4;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
 
 /**
- * Calculates a message digest of Objects and other values, converting objects into bytes using an
- * {@link ObjectOutputStream}.
+ * Calculates a SHA-256 message digest of a sequence of values
+ * <p/>
+ * Values are encoded into a reusable buffer in big-endian order, and the buffer is passed to the
+ * message digest when it is full. Adding primitive values, strings, and colonies does not
+ * allocate any objects, except for colonies with attributes that are not census flags.
+ * <p/>
+ * Each value is encoded in a fixed way, so equal sequences of values always produce equal
+ * digests. Strings are prefixed with their lengths, so the boundaries between strings are part
+ * of the digest.
  */
 public class Digest {
 
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * Type tags for attribute values
+     */
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_FLOATING = 3;
+    private static final byte TYPE_STRING = 4;
+    private static final byte TYPE_OTHER = 5;
+
     private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 
     public Digest() {
         try {
@@ -22,82 +42,156 @@ public class Digest {
         }
     }
 
-    public void update(Object digestObject) {
-        try {
-            // Convert the object to bytes
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeObject(digestObject);
-            objectStream.flush();
-
-            digest.update(stream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void update(byte value) {
+        reserve(1);
+        buffer.put(value);
     }
 
-    public void update(byte value) {
-        try {
-            // Convert the object to bytes
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeByte(value);
-            objectStream.flush();
-
-            digest.update(stream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void update(boolean value) {
+        update(value ? (byte) 1 : (byte) 0);
     }
 
     public void update(short value) {
-        try {
-            // Convert the object to bytes
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeShort(value);
-            objectStream.flush();
-
-            digest.update(stream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        reserve(2);
+        buffer.putShort(value);
     }
 
     public void update(int value) {
-        try {
-            // Convert the object to bytes
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeInt(value);
-            objectStream.flush();
-
-            digest.update(stream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        reserve(4);
+        buffer.putInt(value);
     }
 
     public void update(long value) {
-        try {
-            // Convert the object to bytes
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeLong(value);
-            objectStream.flush();
-
-            digest.update(stream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
+        reserve(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Adds a double. All NaN values produce the same bytes.
+     */
+    public void update(double value) {
+        update(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Adds the length of a string followed by its UTF-16 characters
+     *
+     * @param value the string to add, or null
+     */
+    public void update(String value) {
+        if (value == null) {
+            update(-1);
+            return;
+        }
+        final int length = value.length();
+        update(length);
+        for (int i = 0; i < length; i++) {
+            reserve(2);
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    /**
+     * Adds bytes to the digest directly
+     */
+    public void update(byte[] bytes) {
+        flush();
+        digest.update(bytes);
+    }
+
+    /**
+     * Adds the ID, coordinates, update time, and attributes of a colony
+     */
+    public void update(Colony colony) {
+        colony.updateDigest(this);
+    }
+
+    /**
+     * Adds the ID, coordinates, update time, and attributes of a row of a store
+     */
+    void update(ColonyStore store, int row) {
+        update(store.getId(row));
+        update(store.getX(row));
+        update(store.getY(row));
+        update(store.getUpdateTime(row));
+        int flags = 0;
+        for (int flag = 0; flag < ColonyStore.FLAG_COUNT; flag++) {
+            if (store.hasFlag(row, flag)) {
+                flags |= 1 << flag;
+                if (store.getFlag(row, flag)) {
+                    flags |= 1 << (flag + 4);
+                }
+            }
+        }
+        update((byte) flags);
+
+        final Map<String, Object> extras = store.getExtras(row);
+        if (extras == null) {
+            update(0);
+            return;
+        }
+        // Map iteration order is not defined, so the attributes are added in order of name
+        final String[] names = extras.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        update(names.length);
+        for (String name : names) {
+            update(name);
+            updateValue(extras.get(name));
+        }
+    }
+
+    /**
+     * Adds an attribute value with a tag for its type
+     */
+    private void updateValue(Object value) {
+        if (value == null) {
+            update(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            update(TYPE_BOOLEAN);
+            update((boolean) (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            update(TYPE_INTEGER);
+            update(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            update(TYPE_FLOATING);
+            update(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            update(TYPE_STRING);
+            update((String) value);
+        } else {
+            update(TYPE_OTHER);
+            update(value.toString());
         }
     }
 
     /**
-     * Returns the bytes of the message digest of all the provided objects
+     * Returns the bytes of the message digest of all the provided values, and resets this
+     * digest so that it can be used again
      *
-     * @return
+     * @return the digest
      */
     public byte[] digest() {
+        flush();
         return digest.digest();
     }
+
+    /**
+     * Ensures that the buffer has space for a number of bytes
+     */
+    private void reserve(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes the contents of the buffer to the message digest
+     */
+    private void flush() {
+        if (buffer.position() != 0) {
+            digest.update(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
 }
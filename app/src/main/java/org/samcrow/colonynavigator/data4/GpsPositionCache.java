@@ -0,0 +1,113 @@
+package org.samcrow.colonynavigator.data4;
+
+import org.samcrow.colonynavigator.CoordinateTransformer;
+
+import java.util.Arrays;
+
+/**
+ * Caches the GPS positions of the colonies in a {@link ColonySet}
+ * <p/>
+ * Positions are calculated in batches when they are first requested. The cache listens for
+ * changes to the set's {@link ColonyStore}, and recalculates the position of a colony when
+ * it moves.
+ * <p/>
+ * The methods of this class are synchronized, so positions can be requested on a drawing thread
+ * while colonies are changed on the main thread.
+ */
+public class GpsPositionCache implements ColonyStore.Listener {
+
+    private final ColonyStore mStore;
+    private final CoordinateTransformer mTransformer;
+
+    private double[] mLatitudes = new double[0];
+    private double[] mLongitudes = new double[0];
+    /**
+     * The number of rows, starting at row 0, whose positions have been calculated
+     */
+    private int mCalculatedRows = 0;
+    /**
+     * Temporary storage for one position
+     */
+    private final double[] mPoint = new double[2];
+
+    /**
+     * Creates a cache
+     *
+     * @param colonies    the colonies to cache the positions of
+     * @param transformer the transformer used to calculate positions
+     */
+    public GpsPositionCache(ColonySet colonies, CoordinateTransformer transformer) {
+        mStore = colonies.getStore();
+        mTransformer = transformer;
+        mStore.addListener(this);
+    }
+
+    /**
+     * Stops updating this cache when the colonies change
+     */
+    public synchronized void detach() {
+        mStore.removeListener(this);
+    }
+
+    /**
+     * Gets the GPS position of a colony
+     *
+     * @param colony the colony
+     * @param out    an array of at least two elements. The latitude is stored in out[0] and the
+     *               longitude is stored in out[1].
+     */
+    public synchronized void getPosition(Colony colony, double[] out) {
+        final int row = colony.rowIn(mStore);
+        if (row == -1) {
+            // Not in the set
+            mTransformer.toGps(colony.getX(), colony.getY(), out);
+            return;
+        }
+        if (row >= mCalculatedRows) {
+            calculateNewRows();
+            if (row >= mCalculatedRows) {
+                // Added while the rows were being calculated
+                mTransformer.toGps(colony.getX(), colony.getY(), out);
+                return;
+            }
+        }
+        out[0] = mLatitudes[row];
+        out[1] = mLongitudes[row];
+    }
+
+    /**
+     * Calculates the positions of all rows that have been added since the last calculation
+     */
+    private void calculateNewRows() {
+        // The store may be growing on another thread, so the columns are read before the size
+        final double[] x = mStore.getXColumn();
+        final double[] y = mStore.getYColumn();
+        final int size = Math.min(mStore.size(), Math.min(x.length, y.length));
+        if (mLatitudes.length < size) {
+            final int capacity = Math.max(size, mLatitudes.length * 2);
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        }
+        mTransformer.toGps(x, y, mLatitudes, mLongitudes, mCalculatedRows, size);
+        mCalculatedRows = size;
+    }
+
+    @Override
+    public void rowAdded(int row) {
+        // Calculated when requested
+    }
+
+    @Override
+    public synchronized void rowMoved(int row, double oldX, double oldY) {
+        if (row < mCalculatedRows) {
+            mTransformer.toGps(mStore.getX(row), mStore.getY(row), mPoint);
+            mLatitudes[row] = mPoint[0];
+            mLongitudes[row] = mPoint[1];
+        }
+    }
+
+    @Override
+    public synchronized void cleared() {
+        mCalculatedRows = 0;
+    }
+}
@@ -13,6 +13,14 @@ public class NewColony extends Positioned implements Parcelable {
     public static final Parcelable.Creator CREATOR = new Creator();
 
 
+    /**
+     * The X-coordinate in meters east of the southwest corner
+     */
+    private double x;
+    /**
+     * The Y-coordinate in meters north of the southwest corner
+     */
+    private double y;
     private final String name;
     private final String notes;
     private final DateTime timeCreated;
@@ -26,7 +34,12 @@ public class NewColony extends Positioned implements Parcelable {
     }
 
     public NewColony(int id, double x, double y, String name, String notes) {
-        super(x, y);
+        this(id, x, y, name, notes, DateTime.now());
+    }
+
+    public NewColony(int id, double x, double y, String name, String notes, DateTime timeCreated) {
+        this.x = x;
+        this.y = y;
         this.id = id;
         if (name == null) {
             throw new NullPointerException("name must not be null");
@@ -36,7 +49,30 @@ public class NewColony extends Positioned implements Parcelable {
         }
         this.name = name;
         this.notes = notes;
-        timeCreated = DateTime.now();
+        if (timeCreated == null) {
+            throw new NullPointerException("timeCreated must not be null");
+        }
+        this.timeCreated = timeCreated;
+    }
+
+    @Override
+    public double getX() {
+        return x;
+    }
+
+    @Override
+    public void setX(double x) {
+        this.x = x;
+    }
+
+    @Override
+    public double getY() {
+        return y;
+    }
+
+    @Override
+    public void setY(double y) {
+        this.y = y;
     }
 
     public String getName() {
@@ -72,6 +108,7 @@ public class NewColony extends Positioned implements Parcelable {
         dest.writeDouble(getY());
         dest.writeString(name);
         dest.writeString(notes);
+        dest.writeLong(timeCreated.getMillis());
     }
 
     private static class Creator implements Parcelable.Creator<NewColony> {
@@ -83,7 +120,8 @@ public class NewColony extends Positioned implements Parcelable {
             final double y = source.readDouble();
             final String name = source.readString();
             final String notes = source.readString();
-            return new NewColony(id, x, y, name, notes);
+            final DateTime timeCreated = new DateTime(source.readLong());
+            return new NewColony(id, x, y, name, notes, timeCreated);
         }
 
         @Override
@@ -0,0 +1,189 @@
+package org.samcrow.colonynavigator.data4;
+
+import android.content.ContentResolver;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.documentfile.provider.DocumentFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes new colonies from a {@link NewColonyDatabase} to a CSV file
+ * <p/>
+ * Rows are read from a database cursor and written through a buffered writer, so the colonies
+ * are never all in memory at once.
+ * <p/>
+ * New colonies are never changed after they are inserted, so the ID of the last colony
+ * exported is enough to tell which colonies the file already contains. That ID and the length
+ * and modification time of the file are stored in preferences after each export. If the file
+ * has not changed since then, only colonies with greater IDs are appended to it. Otherwise the
+ * whole file is written again.
+ */
+public class NewColonyCsvExporter {
+
+    /**
+     * Preference key for the ID of the last colony written
+     */
+    private static final String LAST_ID_KEY = "new_colonies_last_exported_id";
+    /**
+     * Preference key for the length and modification time of the file after it was last written
+     */
+    private static final String FILE_VERSION_KEY = "new_colonies_file_version";
+
+    private static final String HEADER = "Name,X,Y,Notes";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The result of an export
+     */
+    public static class Result {
+        private final int mRowsWritten;
+        private final boolean mAppended;
+
+        Result(int rowsWritten, boolean appended) {
+            mRowsWritten = rowsWritten;
+            mAppended = appended;
+        }
+
+        /**
+         * @return the number of colonies written
+         */
+        public int getRowsWritten() {
+            return mRowsWritten;
+        }
+
+        /**
+         * @return true if colonies were appended to the existing file, or false if the whole file
+         * was written
+         */
+        public boolean isAppended() {
+            return mAppended;
+        }
+
+        /**
+         * @return true if the file already contained all colonies and was not modified
+         */
+        public boolean isUnchanged() {
+            return mAppended && mRowsWritten == 0;
+        }
+    }
+
+    private final NewColonyDatabase mDatabase;
+    private final ContentResolver mResolver;
+    private final SharedPreferences mPreferences;
+
+    /**
+     * Creates an exporter
+     *
+     * @param database    the database to read colonies from
+     * @param resolver    the resolver used to open the file
+     * @param preferences the preferences where the export state is stored
+     */
+    public NewColonyCsvExporter(NewColonyDatabase database, ContentResolver resolver,
+                                SharedPreferences preferences) {
+        mDatabase = database;
+        mResolver = resolver;
+        mPreferences = preferences;
+    }
+
+    /**
+     * Writes colonies to a file, appending if possible
+     *
+     * @param destination the file to write
+     * @return the result
+     * @throws IOException if the file could not be written
+     */
+    public Result export(DocumentFile destination) throws IOException {
+        final long lastId = mPreferences.getLong(LAST_ID_KEY, -1);
+        final boolean append = lastId != -1 && destination.exists()
+                && fileVersion(destination).equals(mPreferences.getString(FILE_VERSION_KEY, null));
+
+        try (Cursor cursor = mDatabase.queryNewColoniesAfter(append ? lastId : 0)) {
+            if (append && cursor.getCount() == 0) {
+                return new Result(0, true);
+            }
+            long id = append ? lastId : 0;
+            int rows = 0;
+            try (Writer writer = openWriter(destination.getUri(), append)) {
+                if (!append) {
+                    writer.write(HEADER);
+                    writer.write('\n');
+                }
+                while (cursor.moveToNext()) {
+                    id = cursor.getLong(0);
+                    writeRow(writer, cursor);
+                    rows++;
+                }
+            } catch (IOException | RuntimeException e) {
+                // The file may be partly written, so write it all next time
+                mPreferences.edit().remove(LAST_ID_KEY).remove(FILE_VERSION_KEY).apply();
+                throw e;
+            }
+            mPreferences.edit()
+                    .putLong(LAST_ID_KEY, id)
+                    .putString(FILE_VERSION_KEY, fileVersion(destination))
+                    .apply();
+            return new Result(rows, append);
+        }
+    }
+
+    private Writer openWriter(Uri uri, boolean append) throws IOException {
+        final OutputStream stream = mResolver.openOutputStream(uri, append ? "wa" : "wt");
+        if (stream == null) {
+            throw new IOException("Can't open " + uri);
+        }
+        return new BufferedWriter(new OutputStreamWriter(stream, UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the colony at the current position of a cursor from
+     * {@link NewColonyDatabase#queryNewColoniesAfter(long)}
+     */
+    private static void writeRow(Writer writer, Cursor cursor) throws IOException {
+        writeQuoted(writer, cursor.getString(3));
+        writer.write(',');
+        writer.write(Double.toString(cursor.getDouble(1)));
+        writer.write(',');
+        writer.write(Double.toString(cursor.getDouble(2)));
+        writer.write(',');
+        writeQuoted(writer, cursor.getString(4));
+        writer.write('\n');
+    }
+
+    /**
+     * Writes a quoted field. Quotation marks are doubled. Line breaks are replaced with spaces,
+     * so that each colony is on one line.
+     */
+    private static void writeQuoted(Writer writer, String value) throws IOException {
+        writer.write('"');
+        if (value != null) {
+            final int length = value.length();
+            // Write runs of ordinary characters at once
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\n' || c == '\r') {
+                    writer.write(value, start, i - start);
+                    writer.write(c == '"' ? "\"\"" : " ");
+                    start = i + 1;
+                }
+            }
+            writer.write(value, start, length - start);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Returns a string that changes when the file is modified
+     */
+    private static String fileVersion(DocumentFile file) {
+        return file.length() + ":" + file.lastModified();
+    }
+}
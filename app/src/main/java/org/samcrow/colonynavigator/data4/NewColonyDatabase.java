@@ -1,85 +1,238 @@
 package org.samcrow.colonynavigator.data4;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import org.joda.time.DateTime;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Provides database access for new colonies
+ * <p/>
+ * One instance is shared by the whole application. The database is opened, and created or
+ * upgraded if necessary, by the first query or insert, and is then kept open with a compiled
+ * insert statement. Getting the instance does not open the database, so it can be done on the
+ * main thread, and the first use should be on a background thread. {@link SQLiteDatabase} is
+ * thread-safe, so the methods of this class can be called on any thread.
+ * <p/>
+ * New colonies are ordered by ID, which is also the order in which they were inserted. The
+ * cursor queries let callers read a range of colonies, or the colonies after an ID, without
+ * reading the whole table at once.
  */
 public class NewColonyDatabase extends SQLiteOpenHelper {
 
     private static final String TABLE_NAME = "new_colonies";
-    private static final int VERSION = 1;
+    /**
+     * Version 2 added the creation time column and its index
+     */
+    private static final int VERSION = 2;
     private static final String TAG = NewColonyDatabase.class.getSimpleName();
 
-    public NewColonyDatabase(Context ctx) {
+    /**
+     * The columns of the table, in the order used by {@link #readColony(Cursor)}. The ID is
+     * named _id, as required by {@link android.widget.CursorAdapter}.
+     */
+    private static final String[] COLUMNS = {"\"id\" AS _id", "x", "y", "name", "notes", "created"};
+    private static final String ORDER = "\"id\" ASC";
+
+    private static NewColonyDatabase instance;
+
+    /**
+     * The open database, or null if it has not been opened. Access must be synchronized on this.
+     */
+    private SQLiteDatabase mDatabase;
+    /**
+     * The compiled insert statement, or null if the database has not been opened. Access to the
+     * field must be synchronized on this, and use of the statement must be synchronized on the
+     * statement.
+     */
+    private SQLiteStatement mInsert;
+
+    /**
+     * Returns the shared database. This does not open the database.
+     *
+     * @param ctx a context
+     * @return the database
+     */
+    public static synchronized NewColonyDatabase getInstance(Context ctx) {
+        if (instance == null) {
+            instance = new NewColonyDatabase(ctx.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private NewColonyDatabase(Context ctx) {
         super(ctx, TABLE_NAME, null, VERSION);
     }
 
+    /**
+     * Returns the open database, opening it and compiling the insert statement if necessary.
+     * Opening may create or upgrade the database, so the first call should not be on the main
+     * thread.
+     *
+     * @throws SQLException if the database could not be opened
+     */
+    private synchronized SQLiteDatabase database() throws SQLException {
+        if (mDatabase == null) {
+            final SQLiteDatabase database = getWritableDatabase();
+            mInsert = database.compileStatement("INSERT INTO \"" + TABLE_NAME
+                    + "\" (\"x\", \"y\", \"name\", \"notes\", \"created\") VALUES (?, ?, ?, ?, ?)");
+            mDatabase = database;
+        }
+        return mDatabase;
+    }
+
+    /**
+     * Returns the compiled insert statement, opening the database if necessary
+     */
+    private synchronized SQLiteStatement insertStatement() throws SQLException {
+        database();
+        return mInsert;
+    }
+
+    /**
+     * @return all new colonies, in order of ID
+     */
     public List<NewColony> getNewColonies() throws SQLException {
-        SQLiteDatabase db = null;
-        Cursor result = null;
-        try {
-            db = getWritableDatabase();
-            result = db.query(TABLE_NAME, null, null, null, null, null, null);
+        try (Cursor result = queryNewColonies(NewColonyQuery.ALL)) {
             final List<NewColony> colonies = new ArrayList<>(result.getCount());
             while (result.moveToNext()) {
-                final double x = result.getDouble(result.getColumnIndex("x"));
-                final double y = result.getDouble(result.getColumnIndex("y"));
-                final String name = result.getString(result.getColumnIndex("name"));
-                final String notes = result.getString(result.getColumnIndex("notes"));
-                final NewColony colony = new NewColony(x, y, name, notes);
-                colonies.add(colony);
+                colonies.add(readColony(result));
             }
             return colonies;
-        } finally {
-            if (db != null) {
-                db.close();
-            }
-            if (result != null) {
-                result.close();
-            }
         }
     }
 
-    public void insertNewColony(NewColony colony) throws SQLException {
+    /**
+     * Queries new colonies and returns a cursor over the results
+     * <p/>
+     * The cursor reads rows from the database in blocks as it moves, so it can be used to show
+     * a large number of colonies without reading all of them at once. Use
+     * {@link #readColony(Cursor)} to read the colony at the current position. The caller must
+     * close the cursor.
+     *
+     * @param query the colonies to select
+     * @return a cursor over the colonies, in order of ID
+     */
+    public Cursor queryNewColonies(NewColonyQuery query) throws SQLException {
+        final List<String> conditions = new ArrayList<>(2);
+        final List<String> args = new ArrayList<>(2);
+        if (query.getCreatedStart() != null) {
+            conditions.add("\"created\" >= ?");
+            args.add(Long.toString(query.getCreatedStart().getMillis()));
+        }
+        if (query.getCreatedEnd() != null) {
+            conditions.add("\"created\" < ?");
+            args.add(Long.toString(query.getCreatedEnd().getMillis()));
+        }
+        final String selection = conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions);
+        return database().query(TABLE_NAME, COLUMNS, selection, args.toArray(new String[0]),
+                null, null, ORDER);
+    }
+
+    /**
+     * Queries new colonies with IDs greater than a provided ID and returns a cursor over the
+     * results. The cursor has the same columns as {@link #queryNewColonies(NewColonyQuery)}.
+     * The caller must close the cursor.
+     *
+     * @param afterId the ID to start after, or 0 to start at the first colony
+     * @return a cursor over the colonies, in order of ID
+     */
+    public Cursor queryNewColoniesAfter(long afterId) throws SQLException {
+        return database().query(TABLE_NAME, COLUMNS, "\"id\" > ?",
+                new String[]{Long.toString(afterId)}, null, null, ORDER);
+    }
+
+    /**
+     * Reads a new colony from the current row of a cursor returned by
+     * {@link #queryNewColonies(NewColonyQuery)}
+     *
+     * @param cursor the cursor
+     * @return the colony
+     */
+    public static NewColony readColony(Cursor cursor) {
+        return new NewColony(cursor.getInt(0), cursor.getDouble(1), cursor.getDouble(2),
+                cursor.getString(3), cursor.getString(4), new DateTime(cursor.getLong(5)));
+    }
+
+    /**
+     * Inserts a new colony
+     *
+     * @param colony the colony to insert
+     * @return the ID of the inserted colony
+     */
+    public long insertNewColony(NewColony colony) throws SQLException {
         if (colony == null) {
             throw new NullPointerException("colony must not be null");
         }
-        SQLiteDatabase db = null;
-        try {
-            db = getWritableDatabase();
-            final ContentValues values = new ContentValues();
-            values.put("x", colony.getX());
-            values.put("y", colony.getY());
-            values.put("name", colony.getName());
-            values.put("notes", colony.getNotes());
-            db.insert(TABLE_NAME, null, values);
-        } finally {
-            if (db != null) {
-                db.close();
+        final SQLiteStatement insert = insertStatement();
+        synchronized (insert) {
+            bindInsert(insert, colony);
+            return insert.executeInsert();
+        }
+    }
+
+    /**
+     * Inserts new colonies in one transaction. If any colony cannot be inserted, none are
+     * inserted.
+     *
+     * @param colonies the colonies to insert
+     */
+    public void insertNewColonies(Collection<NewColony> colonies) throws SQLException {
+        final SQLiteDatabase database = database();
+        final SQLiteStatement insert = insertStatement();
+        synchronized (insert) {
+            database.beginTransaction();
+            try {
+                for (NewColony colony : colonies) {
+                    bindInsert(insert, colony);
+                    if (insert.executeInsert() == -1) {
+                        throw new SQLException("Failed to insert " + colony);
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
             }
         }
     }
 
+    private static void bindInsert(SQLiteStatement insert, NewColony colony) {
+        insert.bindDouble(1, colony.getX());
+        insert.bindDouble(2, colony.getY());
+        insert.bindString(3, colony.getName());
+        insert.bindString(4, colony.getNotes());
+        insert.bindLong(5, colony.getTimeCreated().getMillis());
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(
                 "CREATE TABLE \"" + TABLE_NAME + "\" ( \"id\" INTEGER PRIMARY KEY, \"x\" REAL NOT NULL DEFAULT 0," +
                         " \"y\" REAL NOT NULL DEFAULT 0, \"name\" TEXT NOT NULL DEFAULT \"\"," +
-                        " \"notes\" TEXT NOT NULL DEFAULT \"\" )", new Object[0]);
+                        " \"notes\" TEXT NOT NULL DEFAULT \"\", \"created\" INTEGER NOT NULL DEFAULT 0 )", new Object[0]);
+        createCreatedIndex(db);
     }
 
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Implement later when other versions are available
+        if (oldVersion < 2) {
+            // Colonies from version 1 have unknown creation times, which are stored as 0
+            db.execSQL("ALTER TABLE \"" + TABLE_NAME + "\" ADD COLUMN \"created\" INTEGER NOT NULL DEFAULT 0");
+            createCreatedIndex(db);
+        }
+    }
+
+    private static void createCreatedIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX \"" + TABLE_NAME + "_created\" ON \"" + TABLE_NAME + "\" (\"created\")");
     }
 }
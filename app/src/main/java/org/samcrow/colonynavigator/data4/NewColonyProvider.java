@@ -1,13 +1,13 @@
 package org.samcrow.colonynavigator.data4;
 
 import android.content.Context;
+import android.os.AsyncTask;
 
 import org.samcrow.colonynavigator.Storage;
 import org.samcrow.data.provider.ColonyProvider;
+import org.samcrow.data.provider.LoadStage;
 import org.samcrow.data.provider.MemoryCardDataProvider;
-
-import java.io.IOException;
-import java.util.List;
+import org.samcrow.data.provider.SaveScheduler;
 
 /**
  * A colony provider that uses a new colony database and a memory card provider
@@ -24,24 +24,78 @@ public class NewColonyProvider implements ColonyProvider {
      */
     private final MemoryCardDataProvider mMemoryCard;
 
-    public NewColonyProvider(Context context, Storage.FileUris uris) throws IOException {
-        mDatabase = new NewColonyDatabase(context);
+    /**
+     * All colonies, which are added when they are loaded
+     */
+    private final ColonySet mColonies = new ColonySet();
+
+    /**
+     * True when loading has finished successfully
+     */
+    private boolean mLoaded = false;
+
+    public NewColonyProvider(Context context, Storage.FileUris uris) {
+        mDatabase = NewColonyDatabase.getInstance(context);
         mMemoryCard = new MemoryCardDataProvider(context, uris);
     }
 
-    @Override
-    public ColonySet getColonies() {
-        final ColonySet colonies = new ColonySet();
+    /**
+     * Starts loading colonies in the background
+     * <p/>
+     * The colonies are added to the set returned by {@link #getColonies()} as they become
+     * available.
+     *
+     * @param listener a listener to notify of progress on the main thread
+     */
+    public void load(final ColonyLoadTask.Listener listener) {
+        new ColonyLoadTask(mDatabase, mMemoryCard, mColonies, new ColonyLoadTask.Listener() {
+            @Override
+            public void stageStarted(LoadStage stage) {
+                listener.stageStarted(stage);
+            }
+
+            @Override
+            public void coloniesAdded() {
+                listener.coloniesAdded();
+            }
+
+            @Override
+            public void colonyReplaced(Colony oldColony, Colony newColony) {
+                listener.colonyReplaced(oldColony, newColony);
+            }
 
-        final List<NewColony> newColonies = mDatabase.getNewColonies();
-        for (NewColony newColony : newColonies) {
-            colonies.put(Colony.fromNewColony(newColony));
-        }
+            @Override
+            public void loadFinished(Exception error) {
+                mLoaded = error == null;
+                listener.loadFinished(error);
+            }
+        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-        final ColonySet memoryCardColonies = mMemoryCard.getColonies();
-        colonies.putAll(memoryCardColonies);
+    /**
+     * @return true if loading has finished successfully. Until then, changes to colonies may not
+     * be saved.
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
 
-        return colonies;
+    /**
+     * Returns the set of all colonies. The set is empty until {@link #load(ColonyLoadTask.Listener)}
+     * is called, and colonies are added to it while they are loaded.
+     *
+     * @return the colonies
+     */
+    @Override
+    public ColonySet getColonies() {
+        return mColonies;
+    }
+
+    /**
+     * @return the scheduler that saves changes to the memory card colonies
+     */
+    public SaveScheduler getSaveScheduler() {
+        return mMemoryCard.getSaveScheduler();
     }
 
     @Override
@@ -51,6 +105,6 @@ public class NewColonyProvider implements ColonyProvider {
 
     @Override
     public void updateColony(Colony colony) throws UnsupportedOperationException {
-        mMemoryCard.updateColonies();
+        mMemoryCard.updateColony(colony);
     }
 }
@@ -0,0 +1,86 @@
+package org.samcrow.colonynavigator.data4;
+
+import android.os.Bundle;
+
+import org.joda.time.DateTime;
+
+/**
+ * Describes which new colonies to read from a {@link NewColonyDatabase}
+ * <p/>
+ * A query can be stored in a {@link Bundle}, so a screen that shows new colonies can be
+ * recreated without storing the colonies themselves.
+ */
+public class NewColonyQuery {
+
+    private static final String KEY_CREATED_START = "new_colony_query_created_start";
+    private static final String KEY_CREATED_END = "new_colony_query_created_end";
+
+    /**
+     * A query that matches all new colonies
+     */
+    public static final NewColonyQuery ALL = new NewColonyQuery(null, null);
+
+    /**
+     * The start of the creation time range, inclusive, or null for no start
+     */
+    private final DateTime mCreatedStart;
+    /**
+     * The end of the creation time range, exclusive, or null for no end
+     */
+    private final DateTime mCreatedEnd;
+
+    private NewColonyQuery(DateTime createdStart, DateTime createdEnd) {
+        mCreatedStart = createdStart;
+        mCreatedEnd = createdEnd;
+    }
+
+    /**
+     * Creates a query for new colonies created within a time range
+     *
+     * @param start the start of the range, inclusive, or null for no start
+     * @param end   the end of the range, exclusive, or null for no end
+     * @return a query
+     */
+    public static NewColonyQuery createdBetween(DateTime start, DateTime end) {
+        return new NewColonyQuery(start, end);
+    }
+
+    public DateTime getCreatedStart() {
+        return mCreatedStart;
+    }
+
+    public DateTime getCreatedEnd() {
+        return mCreatedEnd;
+    }
+
+    /**
+     * Stores this query in a bundle
+     *
+     * @param bundle the bundle to store in
+     */
+    public void writeTo(Bundle bundle) {
+        if (mCreatedStart != null) {
+            bundle.putLong(KEY_CREATED_START, mCreatedStart.getMillis());
+        }
+        if (mCreatedEnd != null) {
+            bundle.putLong(KEY_CREATED_END, mCreatedEnd.getMillis());
+        }
+    }
+
+    /**
+     * Reads a query from a bundle
+     *
+     * @param bundle a bundle that a query was written to, or null
+     * @return the query, or {@link #ALL} if the bundle is null or does not contain a query
+     */
+    public static NewColonyQuery readFrom(Bundle bundle) {
+        if (bundle == null) {
+            return ALL;
+        }
+        final DateTime start = bundle.containsKey(KEY_CREATED_START)
+                ? new DateTime(bundle.getLong(KEY_CREATED_START)) : null;
+        final DateTime end = bundle.containsKey(KEY_CREATED_END)
+                ? new DateTime(bundle.getLong(KEY_CREATED_END)) : null;
+        return new NewColonyQuery(start, end);
+    }
+}
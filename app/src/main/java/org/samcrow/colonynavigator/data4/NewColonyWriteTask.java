@@ -3,6 +3,8 @@ package org.samcrow.colonynavigator.data4;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
 import androidx.documentfile.provider.DocumentFile;
 import android.widget.Toast;
 
@@ -10,16 +12,23 @@ import org.samcrow.colonynavigator.Storage;
 import org.samcrow.colonynavigator.data4.NewColonyWriteTask.Params;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
 /**
- * Writes {@link NewColony} instances to a file
+ * Writes all {@link NewColony} instances from the {@link NewColonyDatabase} to a file
+ * <p/>
+ * If the file has not changed since the last export, only colonies created since then are
+ * appended to it. See {@link NewColonyCsvExporter}.
  */
 public class NewColonyWriteTask extends AsyncTask<Params, Void, Void> {
 
+    private static final String TAG = NewColonyWriteTask.class.getSimpleName();
+
     private final Context context;
+    /**
+     * True if the file was not written because it already contained the colonies
+     */
+    private boolean unchanged = false;
 
     public NewColonyWriteTask(Context context) {
         this.context = context;
@@ -36,24 +45,14 @@ public class NewColonyWriteTask extends AsyncTask<Params, Void, Void> {
             throw new IllegalStateException("Can't write to " + destination.getUri());
         }
 
-        final NewColony[] colonies = params[0].getColonies();
-        try (PrintStream stream = new PrintStream(Objects.requireNonNull(context.getContentResolver().openOutputStream(destination.getUri())))) {
-            stream.println("Name,X,Y,Notes");
-            for (NewColony colony : colonies) {
-                // Replace line breaks with spaces
-                final String notesWithoutLineBreaks = colony.getNotes().replaceAll("\\n", " ");
-
-                stream.print('"');
-                stream.print(colony.getName());
-                stream.print("\",");
-                stream.print(colony.getX());
-                stream.print(',');
-                stream.print(colony.getY());
-                stream.print(",\"");
-                stream.print(notesWithoutLineBreaks);
-                stream.println('"');
-
-            }
+        final NewColonyCsvExporter exporter = new NewColonyCsvExporter(
+                NewColonyDatabase.getInstance(context), context.getContentResolver(),
+                PreferenceManager.getDefaultSharedPreferences(context));
+        try {
+            final NewColonyCsvExporter.Result result = exporter.export(destination);
+            Log.d(TAG, (result.isAppended() ? "Appended " : "Wrote ") + result.getRowsWritten()
+                    + " new colonies");
+            unchanged = result.isUnchanged();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -64,7 +63,11 @@ public class NewColonyWriteTask extends AsyncTask<Params, Void, Void> {
     protected void onPostExecute(Void aVoid) {
         try {
             get();
-            Toast.makeText(context, "New colonies saved", Toast.LENGTH_SHORT).show();
+            if (unchanged) {
+                Toast.makeText(context, "New colonies already saved", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(context, "New colonies saved", Toast.LENGTH_SHORT).show();
+            }
         } catch (InterruptedException ignored) {
 
         } catch (ExecutionException e) {
@@ -85,18 +88,12 @@ public class NewColonyWriteTask extends AsyncTask<Params, Void, Void> {
     }
 
     public static class Params {
-        private final NewColony[] colonies;
         private final Storage.FileUris uris;
 
-        public Params(NewColony[] colonies, Storage.FileUris uris) {
-            this.colonies = colonies;
+        public Params(Storage.FileUris uris) {
             this.uris = uris;
         }
 
-        public NewColony[] getColonies() {
-            return colonies;
-        }
-
         public Storage.FileUris getUris() {
             return uris;
         }
@@ -2,35 +2,17 @@ package org.samcrow.colonynavigator.data4;
 
 /**
  * A base class for something with a position on the site
+ * <p/>
+ * Positions are measured in meters: X east of the southwest corner and Y north of the
+ * southwest corner.
  */
-public class Positioned {
-    /**
-     * The X-coordinate in meters east of the southwest corner
-     */
-    private double x;
-    /**
-     * The Y-coordinate in meters north of the southwest corner
-     */
-    private double y;
+public abstract class Positioned {
 
-    public Positioned(double x, double y) {
-        this.x = x;
-        this.y = y;
-    }
+    public abstract double getX();
 
-    public double getX() {
-        return x;
-    }
+    public abstract void setX(double x);
 
-    public void setX(double x) {
-        this.x = x;
-    }
+    public abstract double getY();
 
-    public double getY() {
-        return y;
-    }
-
-    public void setY(double y) {
-        this.y = y;
-    }
+    public abstract void setY(double y);
 }
@@ -0,0 +1,360 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid index of the local coordinates of the colonies in a {@link ColonySet}
+ * <p/>
+ * The index listens for changes to the set's {@link ColonyStore}, so it stays up to date when
+ * colonies are added or when {@link Colony#setX(double)} or {@link Colony#setY(double)} is
+ * called.
+ * <p/>
+ * Queries do not allocate memory, except for growing the provided result lists.
+ * <p/>
+ * Queries and updates hold the lock of the colony set ({@link ColonySet#getLock()}), which is
+ * also held while the set changes, so the index can be queried on another thread.
+ */
+public class SpatialIndex implements ColonyStore.Listener {
+
+    /**
+     * The default cell width/height, in meters
+     */
+    public static final double DEFAULT_CELL_SIZE = 10;
+
+    private final ColonySet mColonies;
+    private final ColonyStore mStore;
+    private final double mCellSize;
+    private final CellMap mCells = new CellMap();
+
+    /**
+     * The range of cell coordinates that have ever contained a colony. Queries are clipped
+     * to this range.
+     */
+    private int mMinCellX = Integer.MAX_VALUE;
+    private int mMinCellY = Integer.MAX_VALUE;
+    private int mMaxCellX = Integer.MIN_VALUE;
+    private int mMaxCellY = Integer.MIN_VALUE;
+
+    /**
+     * Creates an index of a set of colonies, using the default cell size
+     *
+     * @param colonies the colonies to index
+     */
+    public SpatialIndex(ColonySet colonies) {
+        this(colonies, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates an index of a set of colonies
+     *
+     * @param colonies the colonies to index
+     * @param cellSize the width and height of each grid cell, in meters. For best performance,
+     *                 this should be about the same as the typical query radius.
+     */
+    public SpatialIndex(ColonySet colonies, double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        mColonies = colonies;
+        mStore = colonies.getStore();
+        mCellSize = cellSize;
+        synchronized (mStore) {
+            for (int row = 0; row < mStore.size(); row++) {
+                insert(row, mStore.getX(row), mStore.getY(row));
+            }
+            mStore.addListener(this);
+        }
+    }
+
+    /**
+     * Stops updating this index when the colonies change
+     */
+    public void detach() {
+        synchronized (mStore) {
+            mStore.removeListener(this);
+        }
+    }
+
+    /**
+     * Finds the colony closest to a point
+     *
+     * @param x           the X coordinate of the point
+     * @param y           the Y coordinate of the point
+     * @param maxDistance the maximum distance from the point to the colony
+     * @return the closest colony within maxDistance of the point, or null if no colony is
+     * that close
+     */
+    public Colony findNearest(double x, double y, double maxDistance) {
+        synchronized (mStore) {
+            final int centerX = cellCoordinate(x);
+            final int centerY = cellCoordinate(y);
+            final int maxRing = (int) Math.ceil(maxDistance / mCellSize);
+
+            int bestRow = -1;
+            double bestDistanceSquared = maxDistance * maxDistance;
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // Every point in this ring is at least this far from the query point
+                final double ringDistance = (ring - 1) * mCellSize;
+                if (ring > 0 && ringDistance * ringDistance > bestDistanceSquared) {
+                    break;
+                }
+                if (!ringOverlapsBounds(centerX, centerY, ring)) {
+                    if (centerX - ring <= mMinCellX && centerX + ring >= mMaxCellX
+                            && centerY - ring <= mMinCellY && centerY + ring >= mMaxCellY) {
+                        // Ring surrounds all occupied cells, so no later ring can contain anything
+                        break;
+                    }
+                    continue;
+                }
+                for (int cellY = centerY - ring; cellY <= centerY + ring; cellY++) {
+                    final boolean edgeRow = cellY == centerY - ring || cellY == centerY + ring;
+                    final int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                    for (int cellX = centerX - ring; cellX <= centerX + ring; cellX += step) {
+                        final Cell cell = mCells.get(cellX, cellY);
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.count; i++) {
+                            final int row = cell.rows[i];
+                            final double dx = mStore.getX(row) - x;
+                            final double dy = mStore.getY(row) - y;
+                            final double distanceSquared = dx * dx + dy * dy;
+                            if (distanceSquared <= bestDistanceSquared) {
+                                bestDistanceSquared = distanceSquared;
+                                bestRow = row;
+                            }
+                        }
+                    }
+                }
+            }
+            return bestRow != -1 ? mColonies.view(bestRow) : null;
+        }
+    }
+
+    /**
+     * Finds all colonies within a distance of a point
+     *
+     * @param x      the X coordinate of the point
+     * @param y      the Y coordinate of the point
+     * @param radius the maximum distance from the point
+     * @param result a list that the colonies will be added to
+     */
+    public void findWithinRadius(double x, double y, double radius, List<? super Colony> result) {
+        synchronized (mStore) {
+            final double radiusSquared = radius * radius;
+            final int minCellX = Math.max(cellCoordinate(x - radius), mMinCellX);
+            final int maxCellX = Math.min(cellCoordinate(x + radius), mMaxCellX);
+            final int minCellY = Math.max(cellCoordinate(y - radius), mMinCellY);
+            final int maxCellY = Math.min(cellCoordinate(y + radius), mMaxCellY);
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                    final Cell cell = mCells.get(cellX, cellY);
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.count; i++) {
+                        final int row = cell.rows[i];
+                        final double dx = mStore.getX(row) - x;
+                        final double dy = mStore.getY(row) - y;
+                        if (dx * dx + dy * dy <= radiusSquared) {
+                            result.add(mColonies.view(row));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds all colonies within a rectangle
+     *
+     * @param minX   the minimum X coordinate
+     * @param minY   the minimum Y coordinate
+     * @param maxX   the maximum X coordinate
+     * @param maxY   the maximum Y coordinate
+     * @param result a list that the colonies will be added to
+     */
+    public void findWithinBounds(double minX, double minY, double maxX, double maxY,
+                                 List<? super Colony> result) {
+        synchronized (mStore) {
+            final int minCellX = Math.max(cellCoordinate(minX), mMinCellX);
+            final int maxCellX = Math.min(cellCoordinate(maxX), mMaxCellX);
+            final int minCellY = Math.max(cellCoordinate(minY), mMinCellY);
+            final int maxCellY = Math.min(cellCoordinate(maxY), mMaxCellY);
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                    final Cell cell = mCells.get(cellX, cellY);
+                    if (cell == null) {
+                        continue;
+                    }
+                    final boolean inside = cellX > minCellX && cellX < maxCellX
+                            && cellY > minCellY && cellY < maxCellY;
+                    for (int i = 0; i < cell.count; i++) {
+                        final int row = cell.rows[i];
+                        if (inside) {
+                            result.add(mColonies.view(row));
+                        } else {
+                            final double x = mStore.getX(row);
+                            final double y = mStore.getY(row);
+                            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                                result.add(mColonies.view(row));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void rowAdded(int row) {
+        synchronized (mStore) {
+            insert(row, mStore.getX(row), mStore.getY(row));
+        }
+    }
+
+    @Override
+    public void rowMoved(int row, double oldX, double oldY) {
+        synchronized (mStore) {
+            final int oldCellX = cellCoordinate(oldX);
+            final int oldCellY = cellCoordinate(oldY);
+            final double x = mStore.getX(row);
+            final double y = mStore.getY(row);
+            if (oldCellX == cellCoordinate(x) && oldCellY == cellCoordinate(y)) {
+                return;
+            }
+            final Cell oldCell = mCells.get(oldCellX, oldCellY);
+            if (oldCell != null) {
+                oldCell.remove(row);
+            }
+            insert(row, x, y);
+        }
+    }
+
+    @Override
+    public void cleared() {
+        synchronized (mStore) {
+            mCells.clear();
+            mMinCellX = Integer.MAX_VALUE;
+            mMinCellY = Integer.MAX_VALUE;
+            mMaxCellX = Integer.MIN_VALUE;
+            mMaxCellY = Integer.MIN_VALUE;
+        }
+    }
+
+    private void insert(int row, double x, double y) {
+        final int cellX = cellCoordinate(x);
+        final int cellY = cellCoordinate(y);
+        Cell cell = mCells.get(cellX, cellY);
+        if (cell == null) {
+            cell = new Cell();
+            mCells.put(cellX, cellY, cell);
+        }
+        cell.add(row);
+        mMinCellX = Math.min(mMinCellX, cellX);
+        mMinCellY = Math.min(mMinCellY, cellY);
+        mMaxCellX = Math.max(mMaxCellX, cellX);
+        mMaxCellY = Math.max(mMaxCellY, cellY);
+    }
+
+    private boolean ringOverlapsBounds(int centerX, int centerY, int ring) {
+        return centerX + ring >= mMinCellX && centerX - ring <= mMaxCellX
+                && centerY + ring >= mMinCellY && centerY - ring <= mMaxCellY;
+    }
+
+    private int cellCoordinate(double value) {
+        return (int) Math.floor(value / mCellSize);
+    }
+
+    /**
+     * The rows in one grid cell
+     */
+    private static class Cell {
+        int[] rows = new int[4];
+        int count;
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+
+        void remove(int row) {
+            for (int i = 0; i < count; i++) {
+                if (rows[i] == row) {
+                    rows[i] = rows[--count];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * An open-addressing hash map from cell coordinates to cells
+     */
+    private static class CellMap {
+        private long[] mKeys = new long[64];
+        private Cell[] mCells = new Cell[64];
+        private int mCount;
+
+        Cell get(int cellX, int cellY) {
+            final long key = key(cellX, cellY);
+            final int mask = mKeys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                final Cell cell = mCells[slot];
+                if (cell == null) {
+                    return null;
+                } else if (mKeys[slot] == key) {
+                    return cell;
+                }
+            }
+        }
+
+        void put(int cellX, int cellY, Cell cell) {
+            if ((mCount + 1) * 2 > mKeys.length) {
+                final long[] oldKeys = mKeys;
+                final Cell[] oldCells = mCells;
+                mKeys = new long[oldKeys.length * 2];
+                mCells = new Cell[oldCells.length * 2];
+                mCount = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldCells[i] != null) {
+                        insert(oldKeys[i], oldCells[i]);
+                    }
+                }
+            }
+            insert(key(cellX, cellY), cell);
+        }
+
+        void clear() {
+            Arrays.fill(mCells, null);
+            mCount = 0;
+        }
+
+        private void insert(long key, Cell cell) {
+            final int mask = mKeys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (mCells[slot] == null) {
+                    mKeys[slot] = key;
+                    mCells[slot] = cell;
+                    mCount++;
+                    return;
+                } else if (mKeys[slot] == key) {
+                    mCells[slot] = cell;
+                    return;
+                }
+            }
+        }
+
+        private static long key(int cellX, int cellY) {
+            return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+        }
+
+        private static int mix(long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
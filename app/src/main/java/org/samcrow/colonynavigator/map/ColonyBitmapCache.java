@@ -0,0 +1,143 @@
+package org.samcrow.colonynavigator.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetrics;
+import android.util.LruCache;
+
+/**
+ * Caches rendered parts of colony markers
+ * <p/>
+ * Most markers differ only in their visited/focus/selected state and their label. The
+ * background for each state is rendered once and kept. Labels are rendered into alpha-only
+ * bitmaps and kept in a least-recently-used cache with a limit on the total size of the
+ * bitmaps.
+ * <p/>
+ * {@link #drawColony(Canvas, float, float, String, boolean, boolean, boolean)} draws a marker
+ * that looks the same as one drawn by {@link ColonyDrawable}.
+ */
+public class ColonyBitmapCache {
+
+    /**
+     * The default maximum total size of label bitmaps, in bytes
+     */
+    public static final int DEFAULT_LABEL_BUDGET = 2 * 1024 * 1024;
+
+    /**
+     * The drawable used to render backgrounds and labels
+     */
+    private final ColonyDrawable mRenderer = new ColonyDrawable();
+    /**
+     * Background bitmaps, indexed by {@link #stateIndex(boolean, boolean, boolean)}
+     */
+    private final Bitmap[] mBackgrounds = new Bitmap[8];
+    private final LruCache<String, Bitmap> mLabels;
+    /**
+     * The paint used to draw label bitmaps, which sets their color
+     */
+    private final Paint mLabelPaint;
+    /**
+     * The distance from the label baseline to the top of a label bitmap
+     */
+    private final float mLabelAscent;
+    private final int mLabelHeight;
+    private final float mLabelBaselineOffset;
+
+    public ColonyBitmapCache() {
+        this(DEFAULT_LABEL_BUDGET);
+    }
+
+    /**
+     * @param labelBudget the maximum total size of label bitmaps, in bytes
+     */
+    public ColonyBitmapCache(int labelBudget) {
+        mLabels = new LruCache<String, Bitmap>(labelBudget) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mLabelPaint = new Paint();
+        mLabelPaint.setColor(ColonyDrawable.LABEL_COLOR);
+
+        final FontMetrics metrics = mRenderer.getLabelMetrics();
+        mLabelAscent = -metrics.ascent;
+        mLabelHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+        mLabelBaselineOffset = metrics.descent;
+    }
+
+    /**
+     * Draws a colony marker
+     *
+     * @param canvas   the canvas to draw on
+     * @param centerX  the X coordinate of the colony point
+     * @param centerY  the Y coordinate of the colony point
+     * @param id       the colony ID
+     * @param visited  if the colony has been visited
+     * @param focus    if the colony is a focus colony
+     * @param selected if the colony is selected
+     */
+    public void drawColony(Canvas canvas, float centerX, float centerY, String id,
+                           boolean visited, boolean focus, boolean selected) {
+        final Bitmap background = getBackground(visited, focus, selected);
+        canvas.drawBitmap(background, centerX - ColonyDrawable.BG_RADIUS,
+                centerY - ColonyDrawable.BG_RADIUS, null);
+
+        final Bitmap label = getLabel(id);
+        if (label != null) {
+            // Match the text position used by ColonyDrawable
+            final float baseline = centerY + mLabelBaselineOffset;
+            canvas.drawBitmap(label, centerX + ColonyDrawable.TEXT_X_OFFSET,
+                    baseline - mLabelAscent, mLabelPaint);
+        }
+    }
+
+    /**
+     * Removes all cached labels
+     */
+    public void clearLabels() {
+        mLabels.evictAll();
+    }
+
+    private Bitmap getBackground(boolean visited, boolean focus, boolean selected) {
+        final int index = stateIndex(visited, focus, selected);
+        Bitmap background = mBackgrounds[index];
+        if (background == null) {
+            final int size = 2 * ColonyDrawable.BG_RADIUS;
+            background = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(background);
+            mRenderer.drawBackground(canvas, ColonyDrawable.BG_RADIUS, ColonyDrawable.BG_RADIUS,
+                    visited, focus, selected);
+            mBackgrounds[index] = background;
+        }
+        return background;
+    }
+
+    /**
+     * Returns a label bitmap, rendering it if it is not cached
+     *
+     * @return the label, or null if the ID is empty
+     */
+    private Bitmap getLabel(String id) {
+        Bitmap label = mLabels.get(id);
+        if (label == null) {
+            final int width = mRenderer.measureLabel(id);
+            if (width == 0) {
+                return null;
+            }
+            label = Bitmap.createBitmap(width, mLabelHeight, Bitmap.Config.ALPHA_8);
+            final Canvas canvas = new Canvas(label);
+            // drawLabel puts the baseline at centerY + descent and the left edge at
+            // centerX + TEXT_X_OFFSET
+            mRenderer.drawLabel(canvas, -ColonyDrawable.TEXT_X_OFFSET,
+                    mLabelAscent - mLabelBaselineOffset, id);
+            mLabels.put(id, label);
+        }
+        return label;
+    }
+
+    private static int stateIndex(boolean visited, boolean focus, boolean selected) {
+        return (visited ? 4 : 0) | (focus ? 2 : 0) | (selected ? 1 : 0);
+    }
+}
@@ -12,6 +12,7 @@ import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import androidx.annotation.NonNull;
 
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
 
 public class ColonyDrawable extends Drawable {
@@ -23,20 +24,20 @@ public class ColonyDrawable extends Drawable {
     /**
      * Background color for non-focus, non-visited colonies
      */
-    private static final int BG_NORMAL_COLOR = Color.argb(BG_ALPHA / 2, 100, 100, 100); // gray
+    static final int BG_NORMAL_COLOR = Color.argb(BG_ALPHA / 2, 100, 100, 100); // gray
     /**
      * Background color for focus colonies
      */
-    private static final int BG_FOCUS_COLOR = Color.argb(BG_ALPHA, 115, 140, 255); // blue
+    static final int BG_FOCUS_COLOR = Color.argb(BG_ALPHA, 115, 140, 255); // blue
     /**
      * Background color for visited colonies, both focus and non-focus
      */
-    private static final int BG_VISITED_COLOR = Color.argb(BG_ALPHA, 77, 240, 101); // green
+    static final int BG_VISITED_COLOR = Color.argb(BG_ALPHA, 77, 240, 101); // green
 
     /**
      * Background circle radius
      */
-    private static final int BG_RADIUS = 40;
+    static final int BG_RADIUS = 40;
 
     /**
      * Text size (height?) in pixels
@@ -50,7 +51,7 @@ public class ColonyDrawable extends Drawable {
     /**
      * Colony number label color
      */
-    private static final int LABEL_COLOR = Color.BLACK;
+    static final int LABEL_COLOR = Color.BLACK;
     /**
      * Colony location circle radius
      */
@@ -69,33 +70,52 @@ public class ColonyDrawable extends Drawable {
     /**
      * The horizontal distance from the center that the colony number text is offset
      */
-    private static final int TEXT_X_OFFSET = 10;
+    static final int TEXT_X_OFFSET = 10;
 
     private final Paint paint;
-    private final Colony colony;
-    private final int idStringWidth;
     private final FontMetrics metrics;
+    private final RectF arcRect = new RectF();
+    private Colony colony;
+    private int idStringWidth;
     private boolean colonySelected;
 
     public ColonyDrawable(Colony colony) {
+        this();
+        setColony(colony);
+    }
+
+    /**
+     * Creates a drawable with no colony. {@link #setColony(Colony)} must be called before
+     * the drawable is drawn.
+     */
+    public ColonyDrawable() {
         this.paint = new Paint();
         // Make text larger
         this.paint.setTextSize(LABEL_TEXT_SIZE);
 
+        paint.setAntiAlias(true);
+        metrics = paint.getFontMetrics();
+    }
+
+    /**
+     * Changes the colony that this drawable draws. This allows one drawable to be used
+     * to draw many colonies.
+     * <p/>
+     * This resets the bounds so that the colony point is at (0, 0).
+     *
+     * @param colony the colony to draw
+     */
+    public void setColony(Colony colony) {
         this.colony = colony;
         String colonyIdString = colony.getID();
         idStringWidth = (int) Math.ceil(paint.measureText(colonyIdString));
 
-        paint.setAntiAlias(true);
-        metrics = paint.getFontMetrics();
-
         //Create a bounding box
         int left = -BG_RADIUS;
         int right = BG_RADIUS + idStringWidth;
         int top = -BG_RADIUS;
         int bottom = BG_RADIUS;
         setBounds(left, top, right, bottom);
-
     }
 
     /**
@@ -136,23 +156,31 @@ public class ColonyDrawable extends Drawable {
         float centerX = bounds.left + BG_RADIUS;
         float centerY = bounds.top + BG_RADIUS;
 
-        //Big background circle
-        int backgroundColor;
-        if (colony.getAttribute("census.visited", false)) {
-            backgroundColor = BG_VISITED_COLOR;
-        } else {
-            if (colony.getAttribute("census.focus", false)) {
-                backgroundColor = BG_FOCUS_COLOR;
-            } else {
-                backgroundColor = BG_NORMAL_COLOR;
-            }
-        }
-        //Set paint to fill only, with the required color
-        paint.setColor(backgroundColor);
-        paint.setStyle(Style.FILL);
+        drawBackground(canvas, centerX, centerY,
+                colony.getFlag(AttributeKey.VISITED),
+                colony.getFlag(AttributeKey.FOCUS),
+                colonySelected);
 
-        if (colony.getAttribute("census.visited", false)) {
-            if (colony.getAttribute("census.focus", false)) {
+        //Draw colony number
+        drawLabel(canvas, centerX, centerY, colony.getID());
+    }
+
+    /**
+     * Draws everything except the label: the background circle, the selection circle if the
+     * colony is selected, and the location point
+     *
+     * @param canvas   the canvas to draw on
+     * @param centerX  the X coordinate of the colony point
+     * @param centerY  the Y coordinate of the colony point
+     * @param visited  if the colony has been visited
+     * @param focus    if the colony is a focus colony
+     * @param selected if the colony is selected
+     */
+    void drawBackground(Canvas canvas, float centerX, float centerY, boolean visited,
+                        boolean focus, boolean selected) {
+        //Big background circle
+        if (visited) {
+            if (focus) {
                 // Visited, focus colony
                 // Draw a two-part circle
                 drawTwoColorCircle(canvas, centerX, centerY, BG_VISITED_COLOR, BG_FOCUS_COLOR);
@@ -161,7 +189,7 @@ public class ColonyDrawable extends Drawable {
                 drawBackgroundCircle(canvas, centerX, centerY, BG_VISITED_COLOR);
             }
         } else {
-            if (colony.getAttribute("census.focus", false)) {
+            if (focus) {
                 // Not visited, focus colony
                 drawBackgroundCircle(canvas, centerX, centerY, BG_FOCUS_COLOR);
 
@@ -173,7 +201,7 @@ public class ColonyDrawable extends Drawable {
 
 
         // Draw the circle around the colony if it is selected
-        if (colonySelected) {
+        if (selected) {
             paint.setStyle(Style.STROKE);
             paint.setColor(SELECTED_CIRCLE_COLOR);
             paint.setStrokeWidth(SELECTED_CIRCLE_LINE_WIDTH);
@@ -186,11 +214,34 @@ public class ColonyDrawable extends Drawable {
         paint.setStyle(Style.FILL);
         paint.setColor(POINT_COLOR);
         canvas.drawCircle(centerX, centerY, POINT_RADIUS, paint);
+    }
 
-        //Draw colony number
+    /**
+     * Draws a colony ID label
+     *
+     * @param canvas  the canvas to draw on
+     * @param centerX the X coordinate of the colony point
+     * @param centerY the Y coordinate of the colony point
+     * @param id      the colony ID
+     */
+    void drawLabel(Canvas canvas, float centerX, float centerY, String id) {
+        paint.setStyle(Style.FILL);
         paint.setColor(LABEL_COLOR);
-        canvas.drawText(String.valueOf(colony.getID()), centerX + TEXT_X_OFFSET,
-                centerY + metrics.descent, paint);
+        canvas.drawText(id, centerX + TEXT_X_OFFSET, centerY + metrics.descent, paint);
+    }
+
+    /**
+     * @return the width in pixels of a label
+     */
+    int measureLabel(String id) {
+        return (int) Math.ceil(paint.measureText(id));
+    }
+
+    /**
+     * @return the font metrics used for labels
+     */
+    FontMetrics getLabelMetrics() {
+        return metrics;
     }
 
     /**
@@ -205,7 +256,8 @@ public class ColonyDrawable extends Drawable {
 
     private void drawTwoColorCircle(Canvas canvas, float centerX, float centerY, int leftColor,
                                     int rightColor) {
-        final RectF rect = new RectF(centerX - BG_RADIUS, centerY - BG_RADIUS, centerX + BG_RADIUS,
+        final RectF rect = arcRect;
+        rect.set(centerX - BG_RADIUS, centerY - BG_RADIUS, centerX + BG_RADIUS,
                 centerY + BG_RADIUS);
         paint.setStyle(Style.FILL);
         // Draw left arc
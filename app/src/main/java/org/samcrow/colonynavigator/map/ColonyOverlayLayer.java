@@ -0,0 +1,510 @@
+package org.samcrow.colonynavigator.map;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+
+import org.mapsforge.core.graphics.Canvas;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.LatLong;
+import org.mapsforge.core.model.MapPosition;
+import org.mapsforge.core.model.Point;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
+import org.mapsforge.map.layer.Layer;
+import org.mapsforge.map.model.IMapViewPosition;
+import org.samcrow.colonynavigator.CoordinateTransformer;
+import org.samcrow.colonynavigator.data4.AttributeKey;
+import org.samcrow.colonynavigator.data4.ClusterIndex;
+import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySelection;
+import org.samcrow.colonynavigator.data4.ColonySet;
+import org.samcrow.colonynavigator.data4.GpsPositionCache;
+import org.samcrow.colonynavigator.data4.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A layer that draws all the colonies in a set
+ * <p/>
+ * Each time the layer is drawn, it uses a {@link SpatialIndex} to find the colonies that are
+ * visible and draws only those colonies, using cached marker bitmaps and cached GPS positions.
+ * Tapping on a colony selects it.
+ * <p/>
+ * The detail of the drawing depends on the zoom level. Full markers are drawn at
+ * {@link #MIN_MARKER_ZOOM} and above. Below that, each colony is drawn as a small dot in its
+ * marker color, down to {@link #MIN_DOT_ZOOM}. At lower zoom levels, nearby colonies are drawn
+ * as clusters from a {@link ClusterIndex}, with the number of colonies in each cluster. A
+ * cluster of one colony is drawn as that colony's dot. The selected colony is always drawn as a
+ * full marker.
+ * <p/>
+ * At cluster zoom levels, tapping a cluster zooms in on it, and tapping a cluster of one colony
+ * selects that colony.
+ * <p/>
+ * Only the selected colony can be edited, so the layer listens for changes to it. When it
+ * changes, the layer is drawn again only if the marker's appearance changed and the marker was
+ * or will be within the last drawn frame.
+ */
+public class ColonyOverlayLayer extends Layer {
+
+    /**
+     * The distance, in pixels, that a colony may be outside the visible area and still be drawn.
+     * This allows the parts of colony markers that are inside the visible area to be drawn.
+     */
+    private static final int CULL_MARGIN_PIXELS = 4 * ColonyDrawable.BG_RADIUS;
+    /**
+     * The lowest zoom level at which full colony markers are drawn
+     */
+    private static final byte MIN_MARKER_ZOOM = 17;
+    /**
+     * The lowest zoom level at which each colony is drawn as a dot. Clusters are drawn at lower
+     * zoom levels.
+     */
+    private static final byte MIN_DOT_ZOOM = 16;
+    private static final float DOT_RADIUS = 5;
+    /**
+     * The number of zoom levels to zoom in when a cluster is tapped
+     */
+    private static final int CLUSTER_TAP_ZOOM_STEP = 2;
+    /**
+     * The approximate width and height, in pixels, of the area that each cluster covers
+     */
+    private static final double CLUSTER_CELL_PIXELS = 96;
+    private static final float CLUSTER_MIN_RADIUS = 12;
+    private static final float CLUSTER_MAX_RADIUS = 36;
+    private static final int CLUSTER_COLOR = Color.argb(180, 100, 100, 100);
+    private static final int CLUSTER_OUTLINE_COLOR = Color.WHITE;
+    private static final float CLUSTER_OUTLINE_WIDTH = 3;
+    private static final int CLUSTER_LABEL_COLOR = Color.WHITE;
+    private static final float CLUSTER_LABEL_TEXT_SIZE = 22;
+    /**
+     * Cluster labels for counts less than this are formatted once and cached
+     */
+    private static final int CACHED_LABEL_COUNT = 1000;
+
+    private final CoordinateTransformer mTransformer;
+    private final IMapViewPosition mMapViewPosition;
+    private final ColonySelection mSelection;
+    private final FrameTimer mFrameTimer;
+    /**
+     * The lock of the colony set, held while reading colonies
+     */
+    private final Object mColonyLock;
+    private final SpatialIndex mIndex;
+    private final ClusterIndex mClusterIndex;
+    /**
+     * The GPS position of each colony
+     */
+    private final GpsPositionCache mGpsPositions;
+    /**
+     * Rendered marker backgrounds and labels
+     */
+    private final ColonyBitmapCache mBitmapCache;
+    /**
+     * The colonies found in the visible area, reused for each draw
+     */
+    private final List<Colony> mVisibleColonies = new ArrayList<>();
+    /**
+     * The clusters found in the visible area, reused for each draw
+     */
+    private final ClusterIndex.Clusters mVisibleClusters = new ClusterIndex.Clusters();
+    /**
+     * The clusters found near a tap
+     */
+    private final ClusterIndex.Clusters mTapClusters = new ClusterIndex.Clusters();
+    private final Paint mDotPaint;
+    private final Paint mClusterPaint;
+    private final Paint mClusterOutlinePaint;
+    private final Paint mClusterLabelPaint;
+    /**
+     * Cluster labels by count, or null for labels that have not been formatted
+     */
+    private final String[] mClusterLabels = new String[CACHED_LABEL_COUNT];
+    /**
+     * Temporary storage for one point, used while drawing
+     */
+    private final double[] mDrawPoint = new double[2];
+    /**
+     * Temporary storage for one point, used when handling taps
+     */
+    private final double[] mTapPoint = new double[2];
+
+    /**
+     * The zoom level, top left corner, and size of the last drawn frame, or -1 if no frame has
+     * been drawn
+     */
+    private byte mFrameZoom = -1;
+    private double mFrameLeft;
+    private double mFrameTop;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    /**
+     * The selected colony as it was last drawn, or null if it was not drawn
+     */
+    private Colony mDrawnSelected;
+    private double mDrawnSelectedX;
+    private double mDrawnSelectedY;
+    private boolean mDrawnSelectedVisited;
+    private boolean mDrawnSelectedFocus;
+    /**
+     * Temporary storage for one point, used when handling colony changes
+     */
+    private final double[] mChangePoint = new double[2];
+
+    private final Colony.ColonyChangeListener mSelectedChangeListener =
+            new Colony.ColonyChangeListener() {
+                @Override
+                public void onColonyChanged() {
+                    selectedColonyEdited();
+                }
+            };
+
+    public ColonyOverlayLayer(ColonySet colonies, ColonySelection selection,
+                              IMapViewPosition mapViewPosition,
+                              CoordinateTransformer transformer, FrameTimer frameTimer) {
+        mTransformer = transformer;
+        mFrameTimer = frameTimer;
+        mMapViewPosition = mapViewPosition;
+        mSelection = selection;
+        mColonyLock = colonies.getLock();
+        mIndex = new SpatialIndex(colonies);
+        mClusterIndex = new ClusterIndex(colonies);
+        mGpsPositions = new GpsPositionCache(colonies, transformer);
+        mBitmapCache = new ColonyBitmapCache();
+
+        mDotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mClusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mClusterPaint.setColor(CLUSTER_COLOR);
+        mClusterOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mClusterOutlinePaint.setColor(CLUSTER_OUTLINE_COLOR);
+        mClusterOutlinePaint.setStyle(Style.STROKE);
+        mClusterOutlinePaint.setStrokeWidth(CLUSTER_OUTLINE_WIDTH);
+        mClusterLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mClusterLabelPaint.setColor(CLUSTER_LABEL_COLOR);
+        mClusterLabelPaint.setTextSize(CLUSTER_LABEL_TEXT_SIZE);
+        mClusterLabelPaint.setTextAlign(Paint.Align.CENTER);
+
+        final Colony selected = selection.getSelectedColony();
+        if (selected != null) {
+            selected.setOnChange(mSelectedChangeListener);
+        }
+        // Redraw to move the selection circle
+        selection.addChangeListener(new ColonySelection.Listener() {
+            @Override
+            public void selectedColonyChanged(Colony oldColony, Colony newColony) {
+                if (oldColony != null) {
+                    oldColony.setOnChange(null);
+                }
+                if (newColony != null) {
+                    newColony.setOnChange(mSelectedChangeListener);
+                }
+                requestRedraw();
+            }
+        });
+    }
+
+    /**
+     * @return the spatial index of the colonies that this layer draws
+     */
+    public SpatialIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Called when the selected colony has been edited. Requests a redraw if it is needed.
+     */
+    private void selectedColonyEdited() {
+        final boolean redraw;
+        synchronized (this) {
+            synchronized (mColonyLock) {
+                final Colony colony = mSelection.getSelectedColony();
+                if (colony == null || mFrameZoom == -1) {
+                    redraw = false;
+                } else if (colony == mDrawnSelected) {
+                    // The old marker is in the frame, so the frame needs to change if the marker
+                    // looks different
+                    redraw = colony.getX() != mDrawnSelectedX || colony.getY() != mDrawnSelectedY
+                            || colony.getFlag(AttributeKey.VISITED) != mDrawnSelectedVisited
+                            || colony.getFlag(AttributeKey.FOCUS) != mDrawnSelectedFocus;
+                } else {
+                    // The old marker was not in the frame, so only the new marker matters
+                    redraw = isInFrame(colony);
+                }
+            }
+        }
+        if (redraw) {
+            mFrameTimer.recordEvent("colony edit redrawn");
+            requestRedraw();
+        } else {
+            mFrameTimer.recordEvent("colony edit skipped");
+        }
+    }
+
+    /**
+     * Determines if a colony marker would be at least partly within the last drawn frame
+     */
+    private boolean isInFrame(Colony colony) {
+        final long mapSize = MercatorProjection.getMapSize(mFrameZoom, displayModel.getTileSize());
+        mGpsPositions.getPosition(colony, mChangePoint);
+        final double pixelX = MercatorProjection.longitudeToPixelX(mChangePoint[1], mapSize)
+                - mFrameLeft;
+        final double pixelY = MercatorProjection.latitudeToPixelY(mChangePoint[0], mapSize)
+                - mFrameTop;
+        return pixelX >= -CULL_MARGIN_PIXELS && pixelX <= mFrameWidth + CULL_MARGIN_PIXELS
+                && pixelY >= -CULL_MARGIN_PIXELS && pixelY <= mFrameHeight + CULL_MARGIN_PIXELS;
+    }
+
+    @Override
+    public synchronized void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas,
+                                  Point topLeftPoint) {
+        final long mapSize = MercatorProjection.getMapSize(zoomLevel, displayModel.getTileSize());
+        final double metersPerPixel = MercatorProjection.calculateGroundResolution(
+                boundingBox.getCenterPoint().latitude, mapSize);
+        mFrameZoom = zoomLevel;
+        mFrameLeft = topLeftPoint.x;
+        mFrameTop = topLeftPoint.y;
+        mFrameWidth = canvas.getWidth();
+        mFrameHeight = canvas.getHeight();
+        final double margin = CULL_MARGIN_PIXELS * metersPerPixel;
+
+        // Find the local coordinates of the visible area. Local axes are not aligned with
+        // latitude and longitude, so all four corners are needed.
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 4; corner++) {
+            final double latitude = (corner & 1) == 0 ? boundingBox.minLatitude : boundingBox.maxLatitude;
+            final double longitude = (corner & 2) == 0 ? boundingBox.minLongitude : boundingBox.maxLongitude;
+            mTransformer.toLocal(longitude, latitude, mDrawPoint);
+            minX = Math.min(minX, mDrawPoint[0]);
+            minY = Math.min(minY, mDrawPoint[1]);
+            maxX = Math.max(maxX, mDrawPoint[0]);
+            maxY = Math.max(maxY, mDrawPoint[1]);
+        }
+
+        minX -= margin;
+        minY -= margin;
+        maxX += margin;
+        maxY += margin;
+
+        final android.graphics.Canvas androidCanvas = AndroidGraphicFactory.getCanvas(canvas);
+        // Colonies may be added or changed on the main thread while this runs
+        synchronized (mColonyLock) {
+            final Colony selected = mSelection.getSelectedColony();
+            if (zoomLevel < MIN_DOT_ZOOM) {
+                mClusterIndex.findClusters(clusterLevel(metersPerPixel), minX, minY, maxX, maxY,
+                        mVisibleClusters);
+                for (int i = 0; i < mVisibleClusters.size(); i++) {
+                    final int count = mVisibleClusters.getCount(i);
+                    if (count == 1) {
+                        // Draw the colony's own dot, so that its visited and focus colors show
+                        final Colony colony = findClusterColony(mVisibleClusters, i,
+                                metersPerPixel);
+                        if (colony != null) {
+                            if (colony != selected) {
+                                drawDot(colony, mapSize, topLeftPoint, androidCanvas);
+                            }
+                            continue;
+                        }
+                    }
+                    drawCluster(mVisibleClusters.getX(i), mVisibleClusters.getY(i), count,
+                            mapSize, topLeftPoint, androidCanvas);
+                }
+            } else {
+                mVisibleColonies.clear();
+                mIndex.findWithinBounds(minX, minY, maxX, maxY, mVisibleColonies);
+                final boolean markers = zoomLevel >= MIN_MARKER_ZOOM;
+                for (Colony colony : mVisibleColonies) {
+                    if (colony == selected) {
+                        continue;
+                    }
+                    if (markers) {
+                        drawColony(colony, false, mapSize, topLeftPoint, androidCanvas);
+                    } else {
+                        drawDot(colony, mapSize, topLeftPoint, androidCanvas);
+                    }
+                }
+            }
+            // Draw the selected colony last, so that it is on top
+            mDrawnSelected = null;
+            if (selected != null && selected.getX() >= minX && selected.getX() <= maxX
+                    && selected.getY() >= minY && selected.getY() <= maxY) {
+                drawColony(selected, true, mapSize, topLeftPoint, androidCanvas);
+                mDrawnSelected = selected;
+                mDrawnSelectedX = selected.getX();
+                mDrawnSelectedY = selected.getY();
+                mDrawnSelectedVisited = selected.getFlag(AttributeKey.VISITED);
+                mDrawnSelectedFocus = selected.getFlag(AttributeKey.FOCUS);
+            }
+        }
+    }
+
+    private void drawDot(Colony colony, long mapSize, Point topLeftPoint,
+                         android.graphics.Canvas canvas) {
+        mGpsPositions.getPosition(colony, mDrawPoint);
+        final float pixelX = (float) (MercatorProjection.longitudeToPixelX(mDrawPoint[1], mapSize)
+                - topLeftPoint.x);
+        final float pixelY = (float) (MercatorProjection.latitudeToPixelY(mDrawPoint[0], mapSize)
+                - topLeftPoint.y);
+
+        final int color;
+        if (colony.getFlag(AttributeKey.VISITED)) {
+            color = ColonyDrawable.BG_VISITED_COLOR;
+        } else if (colony.getFlag(AttributeKey.FOCUS)) {
+            color = ColonyDrawable.BG_FOCUS_COLOR;
+        } else {
+            color = ColonyDrawable.BG_NORMAL_COLOR;
+        }
+        // Marker backgrounds are translucent, but dots are too small for that to look right
+        mDotPaint.setColor(color | 0xFF000000);
+        canvas.drawCircle(pixelX, pixelY, DOT_RADIUS, mDotPaint);
+    }
+
+    private void drawCluster(double x, double y, int count, long mapSize, Point topLeftPoint,
+                             android.graphics.Canvas canvas) {
+        mTransformer.toGps(x, y, mDrawPoint);
+        final float pixelX = (float) (MercatorProjection.longitudeToPixelX(mDrawPoint[1], mapSize)
+                - topLeftPoint.x);
+        final float pixelY = (float) (MercatorProjection.latitudeToPixelY(mDrawPoint[0], mapSize)
+                - topLeftPoint.y);
+
+        final float radius = clusterRadius(count);
+        canvas.drawCircle(pixelX, pixelY, radius, mClusterPaint);
+        canvas.drawCircle(pixelX, pixelY, radius, mClusterOutlinePaint);
+        canvas.drawText(clusterLabel(count), pixelX,
+                pixelY - (mClusterLabelPaint.ascent() + mClusterLabelPaint.descent()) / 2,
+                mClusterLabelPaint);
+    }
+
+    /**
+     * @return the radius, in pixels, of a cluster with more than one colony
+     */
+    private static float clusterRadius(int count) {
+        // Grow with the number of digits, so that the label fits
+        return Math.min(CLUSTER_MAX_RADIUS, CLUSTER_MIN_RADIUS + 4 * (float) Math.log(count));
+    }
+
+    /**
+     * @return the cluster level to use at a map scale
+     */
+    private static int clusterLevel(double metersPerPixel) {
+        return ClusterIndex.levelForCellSize(CLUSTER_CELL_PIXELS * metersPerPixel);
+    }
+
+    /**
+     * Finds the colony in a cluster of one colony. The cluster position is the colony position,
+     * apart from rounding errors left by moving colonies.
+     *
+     * @return the colony, or null if it was not found
+     */
+    private Colony findClusterColony(ClusterIndex.Clusters clusters, int index,
+                                     double metersPerPixel) {
+        return mIndex.findNearest(clusters.getX(index), clusters.getY(index), metersPerPixel);
+    }
+
+    private String clusterLabel(int count) {
+        if (count >= CACHED_LABEL_COUNT) {
+            return String.format(Locale.getDefault(), "%d", count);
+        }
+        String label = mClusterLabels[count];
+        if (label == null) {
+            label = String.format(Locale.getDefault(), "%d", count);
+            mClusterLabels[count] = label;
+        }
+        return label;
+    }
+
+    private void drawColony(Colony colony, boolean selected, long mapSize, Point topLeftPoint,
+                            android.graphics.Canvas canvas) {
+        mGpsPositions.getPosition(colony, mDrawPoint);
+        final double pixelX = MercatorProjection.longitudeToPixelX(mDrawPoint[1], mapSize)
+                - topLeftPoint.x;
+        final double pixelY = MercatorProjection.latitudeToPixelY(mDrawPoint[0], mapSize)
+                - topLeftPoint.y;
+
+        mBitmapCache.drawColony(canvas, (float) Math.round(pixelX), (float) Math.round(pixelY),
+                colony.getID(),
+                colony.getFlag(AttributeKey.VISITED),
+                colony.getFlag(AttributeKey.FOCUS),
+                selected);
+    }
+
+    @Override
+    public boolean onTap(LatLong tapLatLong, Point layerXY, Point tapXY) {
+        final byte zoomLevel = mMapViewPosition.getZoomLevel();
+        final long mapSize = MercatorProjection.getMapSize(zoomLevel,
+                displayModel.getTileSize());
+        final double metersPerPixel = MercatorProjection.calculateGroundResolution(
+                tapLatLong.latitude, mapSize);
+
+        if (zoomLevel < MIN_DOT_ZOOM) {
+            return onClusterTap(tapLatLong, zoomLevel, metersPerPixel);
+        }
+        final Colony tapped;
+        synchronized (this) {
+            mTransformer.toLocal(tapLatLong.longitude, tapLatLong.latitude, mTapPoint);
+            tapped = mIndex.findNearest(mTapPoint[0], mTapPoint[1],
+                    ColonyDrawable.BG_RADIUS * metersPerPixel);
+        }
+        if (tapped != null) {
+            mSelection.setSelectedColony(tapped);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Handles a tap at a zoom level where clusters are drawn
+     * <p/>
+     * If the nearest cluster that the tap is within has one colony, the colony is selected.
+     * Otherwise the map zooms in on the cluster.
+     *
+     * @return true if a cluster was tapped
+     */
+    private boolean onClusterTap(LatLong tapLatLong, byte zoomLevel, double metersPerPixel) {
+        final Colony colony;
+        final LatLong center;
+        synchronized (this) {
+            mTransformer.toLocal(tapLatLong.longitude, tapLatLong.latitude, mTapPoint);
+            final double tapX = mTapPoint[0];
+            final double tapY = mTapPoint[1];
+            final double maxDistance = Math.max(CLUSTER_MAX_RADIUS, ColonyDrawable.BG_RADIUS)
+                    * metersPerPixel;
+            mClusterIndex.findClusters(clusterLevel(metersPerPixel), tapX - maxDistance,
+                    tapY - maxDistance, tapX + maxDistance, tapY + maxDistance, mTapClusters);
+
+            int nearest = -1;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < mTapClusters.size(); i++) {
+                final int count = mTapClusters.getCount(i);
+                // Dots are small, so they can be tapped as far away as a marker
+                final float radius = count == 1 ? ColonyDrawable.BG_RADIUS
+                        : Math.max(clusterRadius(count), ColonyDrawable.BG_RADIUS / 2f);
+                final double distance = Math.hypot(mTapClusters.getX(i) - tapX,
+                        mTapClusters.getY(i) - tapY);
+                if (distance <= radius * metersPerPixel && distance < nearestDistance) {
+                    nearest = i;
+                    nearestDistance = distance;
+                }
+            }
+            if (nearest == -1) {
+                return false;
+            }
+            colony = mTapClusters.getCount(nearest) == 1
+                    ? findClusterColony(mTapClusters, nearest, metersPerPixel) : null;
+            center = mTransformer.toGps(mTapClusters.getX(nearest), mTapClusters.getY(nearest));
+        }
+
+        if (colony != null) {
+            mSelection.setSelectedColony(colony);
+        } else {
+            final byte zoom = (byte) Math.min(zoomLevel + CLUSTER_TAP_ZOOM_STEP, MIN_DOT_ZOOM);
+            mMapViewPosition.setMapPosition(new MapPosition(center, zoom), true);
+        }
+        return true;
+    }
+}
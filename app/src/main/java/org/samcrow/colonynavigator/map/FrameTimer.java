@@ -0,0 +1,112 @@
+package org.samcrow.colonynavigator.map;
+
+import android.util.Log;
+
+import org.mapsforge.core.graphics.Canvas;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Point;
+import org.mapsforge.map.layer.Layer;
+
+import java.util.Locale;
+
+/**
+ * Measures how long the map takes to draw each frame
+ * <p/>
+ * The map draws its layers in order on its drawing thread, so a frame is timed by a layer added
+ * below all other layers ({@link #getStartLayer()}) and a layer added above all other layers
+ * ({@link #getEndLayer()}). Neither layer draws anything.
+ * <p/>
+ * Every {@link #FRAMES_PER_REPORT} frames, the number of frames and their mean and maximum
+ * drawing times are logged, along with any events recorded with {@link #recordEvent(String)}
+ * since the last report. Timing is only done when debug logging is enabled for {@link #TAG}:
+ * <pre>adb shell setprop log.tag.FrameTimer DEBUG</pre>
+ */
+public class FrameTimer {
+
+    public static final String TAG = FrameTimer.class.getSimpleName();
+
+    /**
+     * The number of frames to time before logging the results
+     */
+    private static final int FRAMES_PER_REPORT = 50;
+
+    private final Layer mStartLayer = new Layer() {
+        @Override
+        public void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas,
+                         Point topLeftPoint) {
+            frameStarted();
+        }
+    };
+    private final Layer mEndLayer = new Layer() {
+        @Override
+        public void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas,
+                         Point topLeftPoint) {
+            frameFinished();
+        }
+    };
+
+    /**
+     * The start time, from {@link System#nanoTime()}, of the frame being drawn, or -1
+     */
+    private long mFrameStart = -1;
+    private int mFrames = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+    /**
+     * Events recorded since the last report, each formatted as ", name"
+     */
+    private final StringBuilder mEvents = new StringBuilder();
+
+    /**
+     * @return a layer that must be added below all other layers
+     */
+    public Layer getStartLayer() {
+        return mStartLayer;
+    }
+
+    /**
+     * @return a layer that must be added above all other layers
+     */
+    public Layer getEndLayer() {
+        return mEndLayer;
+    }
+
+    /**
+     * Records that something happened, to be included in the next report. This may be called on
+     * any thread.
+     *
+     * @param name a short description of the event
+     */
+    public synchronized void recordEvent(String name) {
+        if (isEnabled()) {
+            mEvents.append(", ").append(name);
+        }
+    }
+
+    private static boolean isEnabled() {
+        return Log.isLoggable(TAG, Log.DEBUG);
+    }
+
+    private synchronized void frameStarted() {
+        mFrameStart = isEnabled() ? System.nanoTime() : -1;
+    }
+
+    private synchronized void frameFinished() {
+        if (mFrameStart == -1) {
+            return;
+        }
+        final long nanos = System.nanoTime() - mFrameStart;
+        mFrameStart = -1;
+        mFrames++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        if (mFrames == FRAMES_PER_REPORT) {
+            Log.d(TAG, String.format(Locale.US, "%d frames, mean %.2f ms, max %.2f ms%s",
+                    mFrames, mTotalNanos / 1e6 / mFrames, mMaxNanos / 1e6, mEvents));
+            mFrames = 0;
+            mTotalNanos = 0;
+            mMaxNanos = 0;
+            mEvents.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.samcrow.colonynavigator.map;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.samcrow.colonynavigator.CoordinateTransformer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Filters and smooths location fixes on a background thread, and delivers the results to a
+ * listener on the main thread
+ * <p/>
+ * Each fix goes through these stages on the pipeline thread:
+ * <ol>
+ * <li>Fixes that are older than, or duplicates of, the previous fix are dropped.</li>
+ * <li>Fixes less accurate than {@link #MAX_ACCURACY_METERS} are dropped, unless no fix has been
+ * accepted for {@link #ACCURACY_GATE_TIMEOUT_MS}.</li>
+ * <li>The fix is converted to local coordinates, and combined with the previous position using
+ * a Kalman filter that weights each fix by its accuracy. The uncertainty of the previous
+ * position grows with the time since it was measured, at {@link #PROCESS_NOISE_SPEED}.</li>
+ * <li>Smoothed positions that have barely changed are dropped.</li>
+ * </ol>
+ * Results are delivered at most once per minimum interval. If several results are produced
+ * within one interval, only the last is delivered.
+ * <p/>
+ * {@link #submit(Location)} may be called on any thread. When the pipeline is no longer needed,
+ * {@link #shutdown()} must be called to stop its thread.
+ */
+public class LocationPipeline {
+
+    /**
+     * The default minimum time between results, in milliseconds
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MS = 250;
+
+    /**
+     * Fixes with an accuracy radius larger than this, in meters, are dropped while more accurate
+     * fixes are being received
+     */
+    private static final float MAX_ACCURACY_METERS = 50;
+    /**
+     * The time without an accepted fix, in milliseconds, after which fixes of any accuracy are
+     * accepted
+     */
+    private static final long ACCURACY_GATE_TIMEOUT_MS = 10000;
+    /**
+     * The accuracy radius, in meters, assumed for fixes that do not have one
+     */
+    private static final float DEFAULT_ACCURACY_METERS = 10;
+    /**
+     * How fast the user is expected to move, in meters per second. Larger values follow fixes
+     * more closely and smooth less.
+     */
+    private static final double PROCESS_NOISE_SPEED = 2;
+    /**
+     * Smoothed positions that move less than this, in meters, without a change in accuracy of
+     * at least {@link #MIN_ACCURACY_CHANGE}, are not delivered
+     */
+    private static final double MIN_MOVE_METERS = 0.1;
+    private static final float MIN_ACCURACY_CHANGE = 1;
+
+    /**
+     * Receives results from a pipeline
+     */
+    public interface Listener {
+        /**
+         * Called on the main thread when a new smoothed location is available
+         *
+         * @param location the location
+         */
+        void locationChanged(SmoothedLocation location);
+    }
+
+    private final CoordinateTransformer mTransformer;
+    private final long mMinInterval;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // State used only on the pipeline thread
+
+    /**
+     * The time and position of the previous fix, used to find duplicates
+     */
+    private long mLastFixTime = Long.MIN_VALUE;
+    private double mLastFixLatitude;
+    private double mLastFixLongitude;
+    /**
+     * The time, from {@link SystemClock#elapsedRealtime()}, when the last fix was accepted
+     */
+    private long mLastAcceptedTime;
+    /**
+     * The smoothed position, its variance in square meters, and the time of the last fix
+     * combined into it
+     */
+    private boolean mHasEstimate = false;
+    private double mX;
+    private double mY;
+    private double mVariance;
+    private long mEstimateTime;
+    /**
+     * The last smoothed position and accuracy sent to be delivered
+     */
+    private double mSentX;
+    private double mSentY;
+    private float mSentAccuracy = Float.NaN;
+    /**
+     * Temporary storage for one point
+     */
+    private final double[] mPoint = new double[2];
+
+    // State shared with the main thread, guarded by this
+
+    /**
+     * The result waiting to be delivered, or null
+     */
+    private SmoothedLocation mPending;
+    private boolean mDeliveryScheduled = false;
+    /**
+     * The time, from {@link SystemClock#uptimeMillis()}, of the last delivery
+     */
+    private long mLastDeliveryTime = 0;
+    /**
+     * True after {@link #shutdown()}. A fix being processed when the pipeline is shut down may
+     * still schedule a delivery, which then delivers nothing.
+     */
+    private boolean mShutdown = false;
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final SmoothedLocation location;
+            synchronized (LocationPipeline.this) {
+                if (mShutdown) {
+                    return;
+                }
+                location = mPending;
+                mPending = null;
+                mDeliveryScheduled = false;
+                mLastDeliveryTime = SystemClock.uptimeMillis();
+            }
+            if (location != null) {
+                mListener.locationChanged(location);
+            }
+        }
+    };
+
+    /**
+     * @param transformer the transformer used to calculate local coordinates
+     * @param minInterval the minimum time between results, in milliseconds
+     * @param listener    the listener to deliver results to
+     */
+    public LocationPipeline(CoordinateTransformer transformer, long minInterval,
+                            Listener listener) {
+        mTransformer = transformer;
+        mMinInterval = minInterval;
+        mListener = listener;
+    }
+
+    /**
+     * Adds a raw fix to the pipeline
+     *
+     * @param location the fix. It must not be modified after this is called.
+     */
+    public void submit(final Location location) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(location);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pipeline has been shut down
+        }
+    }
+
+    /**
+     * Stops the pipeline thread and cancels any result waiting to be delivered. Fixes submitted
+     * after this are ignored. This must be called on the main thread.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        synchronized (this) {
+            mShutdown = true;
+            mPending = null;
+        }
+        mHandler.removeCallbacks(mDeliverRunnable);
+    }
+
+    /**
+     * Runs a fix through the pipeline stages. Called on the pipeline thread.
+     */
+    private void process(Location fix) {
+        final long time = fix.getTime();
+        final double latitude = fix.getLatitude();
+        final double longitude = fix.getLongitude();
+        if (time < mLastFixTime || (time == mLastFixTime && latitude == mLastFixLatitude
+                && longitude == mLastFixLongitude)) {
+            return;
+        }
+        mLastFixTime = time;
+        mLastFixLatitude = latitude;
+        mLastFixLongitude = longitude;
+
+        final float accuracy = fix.hasAccuracy() ? fix.getAccuracy() : DEFAULT_ACCURACY_METERS;
+        final long now = SystemClock.elapsedRealtime();
+        if (accuracy > MAX_ACCURACY_METERS && mHasEstimate
+                && now - mLastAcceptedTime < ACCURACY_GATE_TIMEOUT_MS) {
+            return;
+        }
+        mLastAcceptedTime = now;
+
+        mTransformer.toLocal(longitude, latitude, mPoint);
+        final double fixVariance = (double) accuracy * accuracy;
+        if (!mHasEstimate) {
+            mX = mPoint[0];
+            mY = mPoint[1];
+            mVariance = fixVariance;
+            mHasEstimate = true;
+        } else {
+            final double seconds = Math.max(0, time - mEstimateTime) / 1000.0;
+            mVariance += seconds * PROCESS_NOISE_SPEED * PROCESS_NOISE_SPEED;
+            final double gain = mVariance / (mVariance + fixVariance);
+            mX += gain * (mPoint[0] - mX);
+            mY += gain * (mPoint[1] - mY);
+            mVariance *= 1 - gain;
+        }
+        mEstimateTime = time;
+
+        final float smoothedAccuracy = (float) Math.sqrt(mVariance);
+        final double dx = mX - mSentX;
+        final double dy = mY - mSentY;
+        if (dx * dx + dy * dy < MIN_MOVE_METERS * MIN_MOVE_METERS
+                && Math.abs(smoothedAccuracy - mSentAccuracy) < MIN_ACCURACY_CHANGE) {
+            return;
+        }
+        mSentX = mX;
+        mSentY = mY;
+        mSentAccuracy = smoothedAccuracy;
+
+        mTransformer.toGps(mX, mY, mPoint);
+        final Location smoothed = new Location(fix);
+        smoothed.setLatitude(mPoint[0]);
+        smoothed.setLongitude(mPoint[1]);
+        smoothed.setAccuracy(smoothedAccuracy);
+        send(new SmoothedLocation(smoothed, mX, mY));
+    }
+
+    /**
+     * Schedules a result to be delivered, replacing any result that has not been delivered yet
+     */
+    private void send(SmoothedLocation location) {
+        final long delay;
+        synchronized (this) {
+            mPending = location;
+            if (mDeliveryScheduled) {
+                return;
+            }
+            mDeliveryScheduled = true;
+            delay = Math.max(0, mLastDeliveryTime + mMinInterval - SystemClock.uptimeMillis());
+        }
+        mHandler.postDelayed(mDeliverRunnable, delay);
+    }
+}
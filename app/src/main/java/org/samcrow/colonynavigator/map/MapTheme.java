@@ -0,0 +1,64 @@
+package org.samcrow.colonynavigator.map;
+
+import android.content.res.AssetManager;
+
+import org.mapsforge.map.android.rendertheme.AssetsRenderTheme;
+import org.mapsforge.map.rendertheme.InternalRenderTheme;
+import org.mapsforge.map.rendertheme.XmlRenderTheme;
+
+/**
+ * The render themes that the map can be drawn with
+ * <p/>
+ * The name of a theme is stored in the preferences and in pre-rendered tile archives, so themes
+ * must not be renamed.
+ */
+public enum MapTheme {
+    /**
+     * A theme with rules only for the tags used in the site map, created by
+     * map/generate_theme.sh. It has far fewer rules to match than {@link #OSMARENDER}, so tiles
+     * render faster.
+     */
+    SITE,
+    /**
+     * The general-purpose OpenStreetMap theme included with mapsforge
+     */
+    OSMARENDER;
+
+    /**
+     * The asset containing the site theme
+     */
+    private static final String SITE_THEME_ASSET = "site_theme.xml";
+
+    /**
+     * Creates the render theme
+     *
+     * @param assets the asset manager to load theme files from
+     * @return the theme
+     */
+    public XmlRenderTheme createRenderTheme(AssetManager assets) {
+        switch (this) {
+            case SITE:
+                return new AssetsRenderTheme(assets, "", SITE_THEME_ASSET);
+            case OSMARENDER:
+            default:
+                return InternalRenderTheme.OSMARENDER;
+        }
+    }
+
+    /**
+     * Finds a theme by name
+     *
+     * @param name the name of a theme, or null
+     * @return the theme with the name, or {@link #SITE} if no theme has the name
+     */
+    public static MapTheme fromName(String name) {
+        if (name != null) {
+            for (MapTheme theme : values()) {
+                if (theme.name().equals(name)) {
+                    return theme;
+                }
+            }
+        }
+        return SITE;
+    }
+}
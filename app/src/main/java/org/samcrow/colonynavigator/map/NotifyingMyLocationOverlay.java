@@ -2,13 +2,12 @@ package org.samcrow.colonynavigator.map;
 
 import android.content.Context;
 import android.location.Location;
-import android.location.LocationListener;
 
 import org.mapsforge.core.graphics.Bitmap;
 import org.mapsforge.core.graphics.Paint;
 import org.mapsforge.map.android.layer.MyLocationOverlay;
 import org.mapsforge.map.model.IMapViewPosition;
-import org.mapsforge.map.model.MapViewPosition;
+import org.samcrow.colonynavigator.CoordinateTransformer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -16,38 +15,87 @@ import java.util.List;
 /**
  * A type of MyLocationOverlay that can notify listeners when it receives
  * a location update
+ * <p/>
+ * Location updates go through a {@link LocationPipeline}, so the overlay and its listeners
+ * receive filtered and smoothed locations, on the main thread, at a limited rate.
  *
  * @author samcrow
  */
 public class NotifyingMyLocationOverlay extends MyLocationOverlay {
 
-    private List<LocationListener> listeners = new ArrayList<>();
+    private final List<LocationPipeline.Listener> listeners = new ArrayList<>();
+    private final LocationPipeline pipeline;
+    /**
+     * The last location from the pipeline, or null
+     */
+    private SmoothedLocation lastSmoothedLocation;
 
     public NotifyingMyLocationOverlay(Context context,
                                       IMapViewPosition mapViewPosition, Bitmap bitmap,
                                       Paint circleFill,
-                                      Paint circleStroke) {
+                                      Paint circleStroke,
+                                      CoordinateTransformer transformer) {
         super(context, mapViewPosition, bitmap, circleFill, circleStroke);
+        pipeline = createPipeline(transformer);
     }
 
     public NotifyingMyLocationOverlay(Context context,
-                                      IMapViewPosition mapViewPosition, Bitmap bitmap) {
+                                      IMapViewPosition mapViewPosition, Bitmap bitmap,
+                                      CoordinateTransformer transformer) {
         super(context, mapViewPosition, bitmap);
+        pipeline = createPipeline(transformer);
+    }
+
+    private LocationPipeline createPipeline(CoordinateTransformer transformer) {
+        return new LocationPipeline(transformer, LocationPipeline.DEFAULT_MIN_INTERVAL_MS,
+                new LocationPipeline.Listener() {
+                    @Override
+                    public void locationChanged(SmoothedLocation location) {
+                        smoothedLocationChanged(location);
+                    }
+                });
     }
 
-    public void addLocationListener(LocationListener newListener) {
+    /**
+     * Adds a listener that will be notified on the main thread of each smoothed location
+     *
+     * @param newListener the listener to add
+     */
+    public void addLocationListener(LocationPipeline.Listener newListener) {
         listeners.add(newListener);
     }
 
+    /**
+     * Returns the last smoothed location. This must be called on the main thread.
+     *
+     * @return the location, or null if no location is available
+     */
+    public SmoothedLocation getLastSmoothedLocation() {
+        return lastSmoothedLocation;
+    }
+
+    /**
+     * Receives a raw location from the location manager and sends it to the pipeline
+     */
     @Override
     public void onLocationChanged(Location newLocation) {
-        super.onLocationChanged(newLocation);
+        pipeline.submit(newLocation);
+    }
 
-        // Notify the listeners
-        for (LocationListener listener : listeners) {
-            listener.onLocationChanged(newLocation);
-        }
+    @Override
+    public void onDestroy() {
+        pipeline.shutdown();
+        super.onDestroy();
     }
 
+    private void smoothedLocationChanged(SmoothedLocation location) {
+        lastSmoothedLocation = location;
+        // Move the marker
+        super.onLocationChanged(location.getLocation());
 
+        // Notify the listeners
+        for (LocationPipeline.Listener listener : listeners) {
+            listener.locationChanged(location);
+        }
+    }
 }
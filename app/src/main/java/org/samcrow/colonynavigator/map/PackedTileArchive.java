@@ -0,0 +1,225 @@
+package org.samcrow.colonynavigator.map;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import org.mapsforge.core.model.Tile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only archive of pre-rendered map tiles, created by map/generate_tiles.sh
+ * <p/>
+ * The archive is memory-mapped, so opening it does not read the tiles, and reading a tile
+ * does not copy it. When the archive is an uncompressed asset, it is mapped directly from the
+ * APK.
+ * <p/>
+ * Format (all numbers big-endian):
+ * <pre>
+ * magic          4 bytes, "CNTA"
+ * version        int, 1
+ * tile size      int, in pixels
+ * text scale     float
+ * theme          unsigned short length, then that many bytes of UTF-8
+ * creation time  long, milliseconds since the epoch
+ * zoom count     byte
+ * for each zoom level, lowest first:
+ *     zoom level byte
+ *     min tile X int
+ *     min tile Y int
+ *     width      int, in tiles
+ *     height     int, in tiles
+ * for each zoom level, for each tile in row-major order:
+ *     offset     int, from the start of the tile data
+ *     length     int, 0 if the archive does not contain the tile
+ * tile data      PNG images. Identical images are stored once.
+ * </pre>
+ * <p/>
+ * Instances of this class are immutable and thread-safe.
+ */
+public class PackedTileArchive {
+
+    private static final int MAGIC = ('C' << 24) | ('N' << 16) | ('T' << 8) | 'A';
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mTileSize;
+    private final float mTextScale;
+    private final String mTheme;
+    private final long mCreationTime;
+
+    private final byte[] mZoomLevels;
+    private final int[] mMinX;
+    private final int[] mMinY;
+    private final int[] mWidth;
+    private final int[] mHeight;
+    /**
+     * The position in the buffer of the first index entry of each zoom level
+     */
+    private final int[] mIndexStart;
+    private final int mDataStart;
+
+    /**
+     * Opens an archive stored as an asset. The asset must not be compressed.
+     *
+     * @param assets the asset manager
+     * @param name   the name of the asset
+     * @return the archive
+     * @throws java.io.FileNotFoundException if the asset does not exist
+     * @throws IOException                   if the asset could not be mapped or is not a valid
+     *                                       archive
+     */
+    public static PackedTileArchive openAsset(AssetManager assets, String name) throws IOException {
+        try (AssetFileDescriptor descriptor = assets.openFd(name);
+             FileInputStream stream = descriptor.createInputStream();
+             FileChannel channel = stream.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            return new PackedTileArchive(buffer);
+        }
+    }
+
+    /**
+     * Reads an archive from a buffer
+     *
+     * @param buffer a buffer containing the archive, from position 0 to its limit
+     * @throws IOException if the buffer does not contain a valid archive
+     */
+    public PackedTileArchive(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.duplicate();
+        final ByteBuffer header = buffer.duplicate();
+        try {
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a tile archive");
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tile archive version " + version);
+            }
+            mTileSize = header.getInt();
+            mTextScale = header.getFloat();
+            final byte[] theme = new byte[header.getShort() & 0xFFFF];
+            header.get(theme);
+            mTheme = new String(theme, UTF_8);
+            mCreationTime = header.getLong();
+
+            final int zoomCount = header.get() & 0xFF;
+            mZoomLevels = new byte[zoomCount];
+            mMinX = new int[zoomCount];
+            mMinY = new int[zoomCount];
+            mWidth = new int[zoomCount];
+            mHeight = new int[zoomCount];
+            mIndexStart = new int[zoomCount];
+            for (int i = 0; i < zoomCount; i++) {
+                mZoomLevels[i] = header.get();
+                mMinX[i] = header.getInt();
+                mMinY[i] = header.getInt();
+                mWidth[i] = header.getInt();
+                mHeight[i] = header.getInt();
+            }
+            int position = header.position();
+            for (int i = 0; i < zoomCount; i++) {
+                mIndexStart[i] = position;
+                position += mWidth[i] * mHeight[i] * 8;
+            }
+            if (position > mBuffer.limit()) {
+                throw new IOException("Tile archive index is truncated");
+            }
+            mDataStart = position;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Tile archive header is truncated", e);
+        }
+    }
+
+    /**
+     * @return the width and height of the tiles, in pixels
+     */
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * @return the text scale that the tiles were rendered with
+     */
+    public float getTextScale() {
+        return mTextScale;
+    }
+
+    /**
+     * @return the name of the render theme that the tiles were rendered with
+     */
+    public String getTheme() {
+        return mTheme;
+    }
+
+    /**
+     * @return the time the archive was created, in milliseconds since the epoch
+     */
+    public long getCreationTime() {
+        return mCreationTime;
+    }
+
+    /**
+     * Determines if this archive contains a tile. The size of the tile is not checked.
+     *
+     * @param tile the tile
+     * @return true if this archive contains an image for the tile
+     */
+    public boolean contains(Tile tile) {
+        final int entry = indexEntry(tile);
+        return entry != -1 && mBuffer.getInt(entry + 4) != 0;
+    }
+
+    /**
+     * Gets the image of a tile
+     *
+     * @param tile the tile
+     * @return a buffer containing the PNG image of the tile from its position to its limit,
+     * or null if this archive does not contain the tile
+     */
+    public ByteBuffer getTile(Tile tile) {
+        final int entry = indexEntry(tile);
+        if (entry == -1) {
+            return null;
+        }
+        final int length = mBuffer.getInt(entry + 4);
+        if (length == 0) {
+            return null;
+        }
+        final int start = mDataStart + mBuffer.getInt(entry);
+        if (start < mDataStart || start + length > mBuffer.limit()) {
+            // Corrupt index entry
+            return null;
+        }
+        final ByteBuffer image = mBuffer.duplicate();
+        image.limit(start + length);
+        image.position(start);
+        return image;
+    }
+
+    /**
+     * Returns the buffer position of the index entry for a tile, or -1 if the tile is outside
+     * the area covered by this archive
+     */
+    private int indexEntry(Tile tile) {
+        for (int i = 0; i < mZoomLevels.length; i++) {
+            if (mZoomLevels[i] == tile.zoomLevel) {
+                final int column = tile.tileX - mMinX[i];
+                final int row = tile.tileY - mMinY[i];
+                if (column < 0 || row < 0 || column >= mWidth[i] || row >= mHeight[i]) {
+                    return -1;
+                }
+                return mIndexStart[i] + (row * mWidth[i] + column) * 8;
+            }
+        }
+        return -1;
+    }
+}
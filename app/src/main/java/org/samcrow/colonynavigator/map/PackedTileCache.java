@@ -0,0 +1,288 @@
+package org.samcrow.colonynavigator.map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import org.mapsforge.core.graphics.CorruptedInputStreamException;
+import org.mapsforge.core.graphics.TileBitmap;
+import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
+import org.mapsforge.map.layer.cache.InMemoryTileCache;
+import org.mapsforge.map.layer.cache.TileCache;
+import org.mapsforge.map.layer.queue.Job;
+import org.mapsforge.map.model.common.Observer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A tile cache that provides tiles from a {@link PackedTileArchive}, and uses another cache
+ * for all other tiles
+ * <p/>
+ * When this is the cache of a {@link org.mapsforge.map.layer.renderer.TileRendererLayer}, the
+ * layer draws tiles from the archive and only renders tiles that the archive does not contain.
+ * <p/>
+ * When the working set changes, archive tiles in the working set that have not been decoded are
+ * queued for decoding on a background thread, so the drawing thread never waits for a tile to
+ * be decoded. Until a tile is decoded, the layer draws its parent tile in its place. When a
+ * decoded tile is added, the observers of this cache are notified and the layer draws again.
+ * <p/>
+ * Archive tiles are always reported as present by {@link #containsKey(Job)}, even before they
+ * are decoded. The layer's renderer threads render a tile from the map file instead of calling
+ * {@link #get(Job)} when a tile is reported as absent, which would be much slower than decoding
+ * it.
+ * <p/>
+ * The number of tiles decoded and the time spent decoding are logged periodically, for
+ * comparison with the time taken to render tiles.
+ */
+public class PackedTileCache implements TileCache {
+
+    private static final String TAG = PackedTileCache.class.getSimpleName();
+    /**
+     * The number of decoded tiles between statistics log messages
+     */
+    private static final int LOG_INTERVAL = 50;
+
+    private final PackedTileArchive mArchive;
+    /**
+     * The cache for tiles that are not in the archive
+     */
+    private final TileCache mFallback;
+    /**
+     * Tiles decoded from the archive
+     */
+    private final InMemoryTileCache mDecoded;
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final ExecutorService mDecoder = Executors.newSingleThreadExecutor();
+    /**
+     * The archive tiles in the working set. Queued tiles that are no longer in the working set
+     * when the decoder reaches them are skipped. Accessed while holding this.
+     */
+    private Set<Job> mArchiveWorkingSet = new HashSet<>();
+    /**
+     * The tiles queued for decoding. Accessed while holding this.
+     */
+    private final Set<Job> mQueued = new HashSet<>();
+
+    private int mDecodeCount = 0;
+    private long mDecodeNanos = 0;
+
+    /**
+     * Creates a cache
+     *
+     * @param archive  the archive to read tiles from
+     * @param fallback the cache to use for tiles that are not in the archive
+     */
+    public PackedTileCache(PackedTileArchive archive, TileCache fallback) {
+        mArchive = archive;
+        mFallback = fallback;
+        mDecoded = new InMemoryTileCache(fallback.getCapacityFirstLevel());
+    }
+
+    @Override
+    public boolean containsKey(Job key) {
+        return mArchive.contains(key.tile) || mFallback.containsKey(key);
+    }
+
+    @Override
+    public TileBitmap get(Job key) {
+        if (!mArchive.contains(key.tile)) {
+            return mFallback.get(key);
+        }
+        final TileBitmap cached = mDecoded.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final TileBitmap decoded = decode(key);
+        if (decoded != null) {
+            mDecoded.put(key, decoded);
+        }
+        return decoded;
+    }
+
+    @Override
+    public TileBitmap getImmediately(Job key) {
+        if (!mArchive.contains(key.tile)) {
+            return mFallback.getImmediately(key);
+        }
+        return mDecoded.get(key);
+    }
+
+    @Override
+    public void put(Job key, TileBitmap bitmap) {
+        if (mArchive.contains(key.tile)) {
+            mDecoded.put(key, bitmap);
+        } else {
+            mFallback.put(key, bitmap);
+        }
+    }
+
+    @Override
+    public void setWorkingSet(Set<Job> workingSet) {
+        final Set<Job> archived = new HashSet<>();
+        final Set<Job> other = new HashSet<>();
+        for (Job job : workingSet) {
+            if (mArchive.contains(job.tile)) {
+                archived.add(job);
+            } else {
+                other.add(job);
+            }
+        }
+        mDecoded.setWorkingSet(archived);
+        mFallback.setWorkingSet(other);
+        synchronized (this) {
+            mArchiveWorkingSet = archived;
+            for (Job job : archived) {
+                if (!mDecoded.containsKey(job) && mQueued.add(job)) {
+                    queueDecode(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a tile on the decoder thread and adds it to the decoded tiles
+     */
+    private void queueDecode(final Job job) {
+        mDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PackedTileCache.this) {
+                    if (!mArchiveWorkingSet.contains(job)) {
+                        mQueued.remove(job);
+                        return;
+                    }
+                }
+                if (!mDecoded.containsKey(job)) {
+                    final TileBitmap bitmap = decode(job);
+                    if (bitmap != null) {
+                        mDecoded.put(job, bitmap);
+                        bitmap.decrementRefCount();
+                    }
+                }
+                synchronized (PackedTileCache.this) {
+                    mQueued.remove(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes a tile from the archive, scaling it if the archive tile size is different from
+     * the requested size
+     *
+     * @return the tile, or null if it could not be decoded
+     */
+    private TileBitmap decode(Job job) {
+        final ByteBuffer image = mArchive.getTile(job.tile);
+        if (image == null) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final int tileSize = job.tile.tileSize;
+        final TileBitmap result;
+        if (mArchive.getTileSize() == tileSize) {
+            try {
+                result = AndroidGraphicFactory.INSTANCE.createTileBitmap(
+                        new ByteBufferInputStream(image), tileSize, job.hasAlpha);
+            } catch (CorruptedInputStreamException e) {
+                Log.w(TAG, "Failed to decode archive tile " + job.tile, e);
+                return null;
+            }
+        } else {
+            final Bitmap decoded = BitmapFactory.decodeStream(new ByteBufferInputStream(image));
+            if (decoded == null) {
+                return null;
+            }
+            result = AndroidGraphicFactory.INSTANCE.createTileBitmap(tileSize, job.hasAlpha);
+            new Canvas(AndroidGraphicFactory.getBitmap(result)).drawBitmap(decoded, null,
+                    new Rect(0, 0, tileSize, tileSize), mScalePaint);
+            decoded.recycle();
+        }
+        result.setTimestamp(mArchive.getCreationTime());
+        logDecode(System.nanoTime() - start);
+        return result;
+    }
+
+    private synchronized void logDecode(long nanos) {
+        mDecodeCount++;
+        mDecodeNanos += nanos;
+        if (mDecodeCount % LOG_INTERVAL == 0) {
+            Log.d(TAG, String.format("Decoded %d archive tiles, average %.2f ms", mDecodeCount,
+                    mDecodeNanos / 1e6 / mDecodeCount));
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return mDecoded.getCapacity() + mFallback.getCapacity();
+    }
+
+    @Override
+    public int getCapacityFirstLevel() {
+        return mFallback.getCapacityFirstLevel();
+    }
+
+    @Override
+    public void purge() {
+        mDecoded.purge();
+        mFallback.purge();
+    }
+
+    @Override
+    public void destroy() {
+        mDecoder.shutdownNow();
+        mDecoded.destroy();
+        mFallback.destroy();
+    }
+
+    @Override
+    public void addObserver(Observer observer) {
+        mDecoded.addObserver(observer);
+        mFallback.addObserver(observer);
+    }
+
+    @Override
+    public void removeObserver(Observer observer) {
+        mDecoded.removeObserver(observer);
+        mFallback.removeObserver(observer);
+    }
+
+    /**
+     * An input stream that reads from a buffer without copying it
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
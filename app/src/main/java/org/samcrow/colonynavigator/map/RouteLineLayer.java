@@ -1,101 +1,258 @@
 package org.samcrow.colonynavigator.map;
 
-import android.location.Location;
-import android.location.LocationListener;
-import android.os.Bundle;
-
-import org.mapsforge.core.graphics.Color;
-import org.mapsforge.core.graphics.Paint;
-import org.mapsforge.core.graphics.Style;
-import org.mapsforge.core.model.LatLong;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+
+import org.mapsforge.core.graphics.Canvas;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Point;
+import org.mapsforge.core.util.MercatorProjection;
 import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
-import org.mapsforge.map.layer.overlay.Polyline;
+import org.mapsforge.map.layer.Layer;
+import org.mapsforge.map.model.IMapViewPosition;
+import org.samcrow.colonynavigator.CoordinateTransformer;
+import org.samcrow.colonynavigator.data4.Positioned;
 
-public class RouteLineLayer extends Polyline {
+import java.util.Locale;
 
-    private final NotifyingMyLocationOverlay locationLayer;
+/**
+ * A layer that draws a line from the current location to a destination, with a label that shows
+ * the distance and bearing to the destination
+ * <p/>
+ * The distance and bearing are calculated from the local coordinates of each smoothed location,
+ * and rounded for the label. The layer only asks to be redrawn when the location has moved at
+ * least {@link #MIN_MOVE_PIXELS} on the screen or the label has changed, so locations that differ
+ * by less than that (while the user stands still or walks slowly) do not redraw the map.
+ */
+public class RouteLineLayer extends Layer {
 
-    private LatLong destination = null;
+    /**
+     * The distance, in pixels, that the location must move on the screen before the line is
+     * drawn again
+     */
+    private static final double MIN_MOVE_PIXELS = 3;
+    private static final int LINE_COLOR = Color.RED;
+    private static final float LINE_WIDTH = 4;
+    private static final int LABEL_COLOR = Color.BLACK;
+    private static final int LABEL_HALO_COLOR = Color.WHITE;
+    private static final float LABEL_TEXT_SIZE = 30;
+    private static final float LABEL_HALO_WIDTH = 6;
+    /**
+     * The minimum distance, in pixels, between the label and the edges of the map
+     */
+    private static final float LABEL_MARGIN = 10;
+    /**
+     * Bearings are rounded to a multiple of this many degrees
+     */
+    private static final int BEARING_STEP = 5;
 
-    public RouteLineLayer(NotifyingMyLocationOverlay location) {
-        super(getPaint(), AndroidGraphicFactory.INSTANCE);
+    private final CoordinateTransformer mTransformer;
+    private final IMapViewPosition mMapViewPosition;
+    private final Paint mLinePaint;
+    private final Paint mLabelPaint;
+    private final Paint mHaloPaint;
 
-        this.locationLayer = location;
-        // Set up location callback
-        locationLayer.addLocationListener(new LocationListener() {
+    private boolean mHasLocation = false;
+    private double mLocationX;
+    private double mLocationY;
+    /**
+     * The latitude and longitude of the location
+     */
+    private final double[] mLocationGps = new double[2];
 
-            @Override
-            public void onLocationChanged(Location location) {
-                updatePositions();
-            }
+    private boolean mHasDestination = false;
+    private double mDestinationX;
+    private double mDestinationY;
+    /**
+     * The latitude and longitude of the destination
+     */
+    private final double[] mDestinationGps = new double[2];
 
-            @Override
-            public void onProviderDisabled(String provider) {
-            }
+    /**
+     * The rounded distance in meters and bearing in degrees shown in the label
+     */
+    private int mLabelDistance = -1;
+    private int mLabelBearing = -1;
+    /**
+     * The label text, or null if it has not been formatted since the label changed
+     */
+    private String mLabel;
 
-            @Override
-            public void onProviderEnabled(String provider) {
-            }
+    /**
+     * The zoom level and absolute pixel position of the location when the line was last drawn
+     * or a redraw was last requested
+     */
+    private byte mDrawnZoom = -1;
+    private double mDrawnPixelX;
+    private double mDrawnPixelY;
+
+    public RouteLineLayer(NotifyingMyLocationOverlay location, IMapViewPosition mapViewPosition,
+                          CoordinateTransformer transformer) {
+        mTransformer = transformer;
+        mMapViewPosition = mapViewPosition;
 
+        mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLinePaint.setColor(LINE_COLOR);
+        mLinePaint.setStrokeWidth(LINE_WIDTH);
+        mLinePaint.setStyle(Style.STROKE);
+
+        mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLabelPaint.setColor(LABEL_COLOR);
+        mLabelPaint.setTextSize(LABEL_TEXT_SIZE);
+        mHaloPaint = new Paint(mLabelPaint);
+        mHaloPaint.setColor(LABEL_HALO_COLOR);
+        mHaloPaint.setStyle(Style.STROKE);
+        mHaloPaint.setStrokeWidth(LABEL_HALO_WIDTH);
+
+        final SmoothedLocation lastLocation = location.getLastSmoothedLocation();
+        if (lastLocation != null) {
+            setLocation(lastLocation);
+        }
+        // Set up location callback
+        location.addLocationListener(new LocationPipeline.Listener() {
             @Override
-            public void onStatusChanged(String provider, int status,
-                                        Bundle extras) {
+            public void locationChanged(SmoothedLocation location) {
+                final boolean changed;
+                synchronized (RouteLineLayer.this) {
+                    changed = setLocation(location);
+                }
+                if (changed) {
+                    requestRedraw();
+                }
             }
         });
-
-        // Make room for a start point and an end point
-        getLatLongs().add(new LatLong(0, 0));
-        getLatLongs().add(new LatLong(0, 0));
-
-        // Invisible until a destination marker is set
-        setVisible(false);
     }
 
-    private static Paint getPaint() {
-        Paint paint = AndroidGraphicFactory.INSTANCE.createPaint();
-        paint.setColor(Color.RED);
-        paint.setStrokeWidth(4);
-        paint.setStyle(Style.STROKE);
+    /**
+     * Sets the destination
+     *
+     * @param destination the destination, or null to hide the line
+     */
+    public void setDestination(Positioned destination) {
+        synchronized (this) {
+            if (destination != null) {
+                mDestinationX = destination.getX();
+                mDestinationY = destination.getY();
+                mTransformer.toGps(mDestinationX, mDestinationY, mDestinationGps);
+                mHasDestination = true;
+                updateLabel();
+            } else {
+                mHasDestination = false;
+            }
+        }
+        requestRedraw();
+    }
 
-        return paint;
+    /**
+     * Updates the location
+     *
+     * @return true if the layer needs to be drawn again
+     */
+    private boolean setLocation(SmoothedLocation location) {
+        mLocationGps[0] = location.getLatitude();
+        mLocationGps[1] = location.getLongitude();
+        mLocationX = location.getX();
+        mLocationY = location.getY();
+        mHasLocation = true;
+        if (!mHasDestination) {
+            return false;
+        }
+        final boolean labelChanged = updateLabel();
+        return locationMoved() || labelChanged;
     }
 
-    public void setDestination(LatLong destination) {
-        this.destination = destination;
-        updatePositions();
+    /**
+     * Calculates the rounded distance and bearing from the location to the destination
+     *
+     * @return true if the distance or bearing changed
+     */
+    private boolean updateLabel() {
+        if (!mHasLocation) {
+            return false;
+        }
+        final double dx = mDestinationX - mLocationX;
+        final double dy = mDestinationY - mLocationY;
+        final double distance = Math.sqrt(dx * dx + dy * dy);
+        // Round less precisely farther away, where small changes do not matter
+        final int distanceStep = distance < 20 ? 1 : distance < 200 ? 5 : 10;
+        final int roundedDistance = (int) Math.round(distance / distanceStep) * distanceStep;
+        // Clockwise from north (local +Y)
+        int bearing = (int) Math.round(Math.toDegrees(Math.atan2(dx, dy)) / BEARING_STEP)
+                * BEARING_STEP;
+        if (bearing < 0) {
+            bearing += 360;
+        }
+        if (bearing == 360) {
+            bearing = 0;
+        }
+        if (roundedDistance == mLabelDistance && bearing == mLabelBearing) {
+            return false;
+        }
+        mLabelDistance = roundedDistance;
+        mLabelBearing = bearing;
+        mLabel = null;
+        return true;
     }
 
-    private void updatePositions() {
-        // Get latitude/longitude from location
-        if (locationLayer != null) {
-            Location location = locationLayer.getLastLocation();
-            if (location != null) {
-                setStartPoint(new LatLong(location.getLatitude(), location.getLongitude()));
-            } else {
-                setVisible(false);
-                return;
-            }
-        } else {
-            setVisible(false);
-            return;
+    /**
+     * Determines if the location has moved at least {@link #MIN_MOVE_PIXELS} on the screen since
+     * the line was last drawn, and if so records the new position as drawn
+     */
+    private boolean locationMoved() {
+        if (displayModel == null) {
+            // Not added to the map yet
+            return false;
         }
+        final byte zoom = mMapViewPosition.getZoomLevel();
+        final long mapSize = MercatorProjection.getMapSize(zoom, displayModel.getTileSize());
+        final double pixelX = MercatorProjection.longitudeToPixelX(mLocationGps[1], mapSize);
+        final double pixelY = MercatorProjection.latitudeToPixelY(mLocationGps[0], mapSize);
+        if (zoom == mDrawnZoom && Math.abs(pixelX - mDrawnPixelX) < MIN_MOVE_PIXELS
+                && Math.abs(pixelY - mDrawnPixelY) < MIN_MOVE_PIXELS) {
+            return false;
+        }
+        mDrawnZoom = zoom;
+        mDrawnPixelX = pixelX;
+        mDrawnPixelY = pixelY;
+        return true;
+    }
 
-        if (destination != null) {
-            setEndPoint(destination);
-        } else {
-            setVisible(false);
+    @Override
+    public synchronized void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas,
+                                  Point topLeftPoint) {
+        if (!mHasLocation || !mHasDestination) {
             return;
         }
-        // None of those failed, so the line should be visible
-        setVisible(true);
-        requestRedraw();
-    }
+        final long mapSize = MercatorProjection.getMapSize(zoomLevel, displayModel.getTileSize());
+        mDrawnZoom = zoomLevel;
+        mDrawnPixelX = MercatorProjection.longitudeToPixelX(mLocationGps[1], mapSize);
+        mDrawnPixelY = MercatorProjection.latitudeToPixelY(mLocationGps[0], mapSize);
+        final float startX = (float) (mDrawnPixelX - topLeftPoint.x);
+        final float startY = (float) (mDrawnPixelY - topLeftPoint.y);
+        final float endX = (float) (MercatorProjection.longitudeToPixelX(mDestinationGps[1], mapSize)
+                - topLeftPoint.x);
+        final float endY = (float) (MercatorProjection.latitudeToPixelY(mDestinationGps[0], mapSize)
+                - topLeftPoint.y);
 
-    private void setStartPoint(LatLong point) {
-        getLatLongs().set(0, point);
+        final android.graphics.Canvas androidCanvas = AndroidGraphicFactory.getCanvas(canvas);
+        androidCanvas.drawLine(startX, startY, endX, endY, mLinePaint);
+
+        if (mLabel == null) {
+            mLabel = String.format(Locale.getDefault(), "%d m, %d\u00b0", mLabelDistance,
+                    mLabelBearing);
+        }
+        // Center the label on the middle of the line, but keep it on the screen
+        final float width = mLabelPaint.measureText(mLabel);
+        final float textX = clamp((startX + endX - width) / 2, LABEL_MARGIN,
+                canvas.getWidth() - width - LABEL_MARGIN);
+        final float textY = clamp((startY + endY + LABEL_TEXT_SIZE) / 2,
+                LABEL_MARGIN + LABEL_TEXT_SIZE, canvas.getHeight() - LABEL_MARGIN);
+        androidCanvas.drawText(mLabel, textX, textY, mHaloPaint);
+        androidCanvas.drawText(mLabel, textX, textY, mLabelPaint);
     }
 
-    private void setEndPoint(LatLong point) {
-        getLatLongs().set(1, point);
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
     }
 }
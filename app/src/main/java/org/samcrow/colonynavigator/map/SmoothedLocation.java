@@ -0,0 +1,57 @@
+package org.samcrow.colonynavigator.map;
+
+import android.location.Location;
+
+/**
+ * A location produced by a {@link LocationPipeline}, in both GPS and local coordinates
+ * <p/>
+ * Instances are immutable. The {@link Location} returned by {@link #getLocation()} must not be
+ * modified.
+ */
+public class SmoothedLocation {
+
+    private final Location mLocation;
+    private final double mX;
+    private final double mY;
+
+    /**
+     * @param location the smoothed GPS location
+     * @param x        the local X coordinate of the location
+     * @param y        the local Y coordinate of the location
+     */
+    SmoothedLocation(Location location, double x, double y) {
+        mLocation = location;
+        mX = x;
+        mY = y;
+    }
+
+    /**
+     * @return the smoothed location, with its accuracy set to the estimated accuracy of the
+     * smoothed position
+     */
+    public Location getLocation() {
+        return mLocation;
+    }
+
+    public double getLatitude() {
+        return mLocation.getLatitude();
+    }
+
+    public double getLongitude() {
+        return mLocation.getLongitude();
+    }
+
+    /**
+     * @return the X coordinate, in meters east of the southwest corner
+     */
+    public double getX() {
+        return mX;
+    }
+
+    /**
+     * @return the Y coordinate, in meters north of the southwest corner
+     */
+    public double getY() {
+        return mY;
+    }
+}
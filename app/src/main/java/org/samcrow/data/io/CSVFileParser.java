@@ -3,7 +3,6 @@ package org.samcrow.data.io;
 import org.samcrow.colonynavigator.data4.Colony;
 import org.samcrow.colonynavigator.data4.ColonySet;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -12,6 +11,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Parses CSV files
@@ -20,6 +24,11 @@ import java.io.PrintStream;
  */
 public class CSVFileParser extends CSVParser implements FileParser {
 
+    /**
+     * The maximum number of threads used to parse a file
+     */
+    private static final int MAX_THREADS = 4;
+
     protected File file;
 
     /**
@@ -32,34 +41,48 @@ public class CSVFileParser extends CSVParser implements FileParser {
     }
 
     public static ColonySet parseFromStream(InputStream in) throws IOException {
-        ColonySet colonies = new ColonySet();
-
-        try {
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(in));
-
-            //Parse each line
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
-                }
-
-                Colony colony = parseOneStatic(line);
-                //colony might be null if the line couldn't be parsed.
-                //Add it only if it was parsed successfully.
-                if (colony != null) {
-                    colonies.put(colony);
-                }
+        return parseFromStream(in, null);
+    }
 
+    /**
+     * Reads colonies from a CSV stream
+     * <p/>
+     * Large files are parsed in parallel on a small thread pool.
+     *
+     * @param in     the stream to read from
+     * @param errors a list to add errors for lines that could not be parsed to, or null to
+     *               ignore errors
+     * @return the colonies that were read
+     * @throws IOException if the stream could not be read
+     */
+    public static ColonySet parseFromStream(InputStream in, List<CSVScanner.LineError> errors) throws IOException {
+        // Read all the text
+        final Reader reader = new InputStreamReader(in);
+        char[] text = new char[64 * 1024];
+        int length = 0;
+        while (true) {
+            if (length == text.length) {
+                text = Arrays.copyOf(text, text.length * 2);
             }
-
-            reader.close();
-        } catch (FileNotFoundException e) {
-            throw new IOException(e);
+            final int count = reader.read(text, length, text.length - length);
+            if (count == -1) {
+                break;
+            }
+            length += count;
         }
+        reader.close();
 
-        return colonies;
+        final int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        if (threads > 1 && length >= 2 * CSVScanner.MIN_CHUNK_LENGTH) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                return CSVScanner.parse(text, length, threads, executor, errors);
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            return CSVScanner.parse(text, length, errors);
+        }
     }
 
     public static void writeToStream(OutputStream out, Iterable<? extends Colony> values) throws IOException {
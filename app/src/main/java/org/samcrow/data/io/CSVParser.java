@@ -1,6 +1,8 @@
 package org.samcrow.data.io;
 
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySet;
 
 /**
  * Parses/encodes comma-delimited CSV representations of colonies
@@ -25,28 +27,12 @@ public class CSVParser implements Parser<Colony> {
 
 
     protected static Colony parseOneStatic(String line) {
-        line = line.trim();
-        //Split the line into parts separated by commas
-        String[] parts = line.split("\\s*,\\s*");
-        try {
-
-            String colonyId = parts[0];
-            int x = Integer.parseInt(parts[1]);
-            int y = Integer.parseInt(parts[2]);
-
-            //Ignore active, assume each colony is inactive for the census
-            //			//Active if part 3 is A (case insensitive), otherwise false
-            //			boolean active = parts[3].compareToIgnoreCase("A") == 0;
-
-            final Colony colony = new Colony(colonyId);
-            colony.setX(x);
-            colony.setY(y);
-            colony.setAttribute("census.active", false);
-            return colony;
-        } catch (Throwable e) {
-            //If anything went wrong, return null
+        final ColonySet parsed = CSVScanner.parse(line.toCharArray(), line.length(), null);
+        //If the line could not be parsed, return null
+        if (parsed.size() != 1) {
             return null;
         }
+        return parsed.iterator().next();
     }
 
     /* (non-Javadoc)
@@ -63,7 +49,7 @@ public class CSVParser implements Parser<Colony> {
         int xInt = (int) Math.round(colony.getX());
         int yInt = (int) Math.round(colony.getY());
 
-        char activeChar = ((boolean) colony.getAttribute("census.active")) ? 'A' : ' ';
+        char activeChar = colony.getFlag(AttributeKey.ACTIVE) ? 'A' : ' ';
 
         //Format: id,x,y,active,,
         return String.valueOf(
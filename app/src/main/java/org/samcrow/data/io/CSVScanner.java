@@ -0,0 +1,329 @@
+package org.samcrow.data.io;
+
+import org.samcrow.colonynavigator.data4.ColonySet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses colonies from CSV text
+ * <p/>
+ * Each line contains a colony ID, an integer X coordinate, and an integer Y coordinate,
+ * separated by commas. Other fields after the Y coordinate are ignored. Whitespace around fields
+ * is ignored, and blank lines are skipped. An empty ID is accepted, as it was by earlier
+ * versions.
+ * <p/>
+ * The text is scanned character by character. No regular expressions are used, and the only
+ * strings created are the colony IDs. Lines that cannot be parsed are reported as
+ * {@link LineError}s.
+ * <p/>
+ * Large inputs can be split into chunks at line boundaries. The chunks are scanned in parallel
+ * and the results are combined in the order of the lines, so the result is the same as scanning
+ * the text in one piece.
+ */
+public class CSVScanner {
+
+    /**
+     * The minimum text length, in characters, for each chunk when parsing in parallel
+     */
+    public static final int MIN_CHUNK_LENGTH = 64 * 1024;
+
+    /**
+     * An error in one line of the input
+     */
+    public static class LineError {
+        private final int mLine;
+        private final String mMessage;
+
+        LineError(int line, String message) {
+            mLine = line;
+            mMessage = message;
+        }
+
+        /**
+         * @return the line number, starting at 1
+         */
+        public int getLine() {
+            return mLine;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + mLine + ": " + mMessage;
+        }
+    }
+
+    private CSVScanner() {
+    }
+
+    /**
+     * Parses colonies in one piece
+     *
+     * @param text   the text to parse
+     * @param length the number of characters of text to parse
+     * @param errors a list to add errors to, or null to ignore errors
+     * @return the parsed colonies
+     */
+    public static ColonySet parse(char[] text, int length, List<LineError> errors) {
+        final ColonySet colonies = new ColonySet();
+        final Chunk chunk = scan(text, 0, length);
+        chunk.addTo(colonies, 0, errors);
+        return colonies;
+    }
+
+    /**
+     * Parses colonies in chunks on an executor
+     * <p/>
+     * If the text is too short to split into chunks of at least {@link #MIN_CHUNK_LENGTH}
+     * characters, fewer chunks are used.
+     *
+     * @param text       the text to parse
+     * @param length     the number of characters of text to parse
+     * @param chunkCount the maximum number of chunks to split the text into
+     * @param executor   the executor to parse the chunks on
+     * @param errors     a list to add errors to, or null to ignore errors
+     * @return the parsed colonies
+     * @throws IOException if parsing was interrupted
+     */
+    public static ColonySet parse(final char[] text, int length, int chunkCount,
+                                  ExecutorService executor, List<LineError> errors) throws IOException {
+        chunkCount = Math.max(1, Math.min(chunkCount, length / MIN_CHUNK_LENGTH));
+        if (chunkCount == 1) {
+            return parse(text, length, errors);
+        }
+
+        final List<Future<Chunk>> futures = new ArrayList<>(chunkCount);
+        int start = 0;
+        for (int i = 1; i <= chunkCount && start < length; i++) {
+            final int end = i == chunkCount ? length : lineStartAfter(text, (int) ((long) length * i / chunkCount), length);
+            final int chunkStart = start;
+            futures.add(executor.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                    return scan(text, chunkStart, end);
+                }
+            }));
+            start = end;
+        }
+
+        final ColonySet colonies = new ColonySet();
+        int lineOffset = 0;
+        try {
+            for (Future<Chunk> future : futures) {
+                final Chunk chunk = future.get();
+                chunk.addTo(colonies, lineOffset, errors);
+                lineOffset += chunk.lines;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse", e.getCause());
+        } finally {
+            for (Future<Chunk> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return colonies;
+    }
+
+    /**
+     * Returns the index of the start of the first line that starts after an index
+     */
+    private static int lineStartAfter(char[] text, int index, int length) {
+        while (index < length && text[index] != '\n') {
+            index++;
+        }
+        return Math.min(index + 1, length);
+    }
+
+    /**
+     * Scans a range of text that starts at the beginning of a line
+     */
+    private static Chunk scan(char[] text, int start, int end) {
+        final Chunk chunk = new Chunk(Math.max(16, (end - start) / 16));
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && text[lineEnd] != '\n' && text[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            chunk.lines++;
+            scanLine(text, lineStart, lineEnd, chunk);
+
+            // Skip \n, \r, or \r\n
+            if (lineEnd < end && text[lineEnd] == '\r' && lineEnd + 1 < end && text[lineEnd + 1] == '\n') {
+                lineStart = lineEnd + 2;
+            } else {
+                lineStart = lineEnd + 1;
+            }
+        }
+        return chunk;
+    }
+
+    private static void scanLine(char[] text, int start, int end, Chunk chunk) {
+        // Trim
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            // Blank line
+            return;
+        }
+
+        // ID
+        int position = start;
+        while (position < end && text[position] != ',') {
+            position++;
+        }
+        int idEnd = position;
+        while (idEnd > start && text[idEnd - 1] <= ' ') {
+            idEnd--;
+        }
+        if (position == end) {
+            chunk.error("Missing X coordinate");
+            return;
+        }
+
+        // X
+        position = scanInt(text, position + 1, end, chunk);
+        if (position == -1) {
+            chunk.error("Invalid X coordinate");
+            return;
+        }
+        final int x = chunk.scannedInt;
+        if (position == end) {
+            chunk.error("Missing Y coordinate");
+            return;
+        }
+
+        // Y
+        position = scanInt(text, position + 1, end, chunk);
+        if (position == -1) {
+            chunk.error("Invalid Y coordinate");
+            return;
+        }
+        final int y = chunk.scannedInt;
+
+        chunk.add(new String(text, start, idEnd - start), x, y);
+    }
+
+    /**
+     * Scans an integer field, with optional whitespace before and after it
+     *
+     * @param start the index of the start of the field
+     * @param end   the index of the end of the line
+     * @return the index of the comma after the field or the end of the line, or -1 if the
+     * field is not a valid integer. The value is stored in chunk.scannedInt.
+     */
+    private static int scanInt(char[] text, int start, int end, Chunk chunk) {
+        int position = start;
+        while (position < end && text[position] <= ' ') {
+            position++;
+        }
+        boolean negative = false;
+        if (position < end && (text[position] == '-' || text[position] == '+')) {
+            negative = text[position] == '-';
+            position++;
+        }
+        final int digitsStart = position;
+        long value = 0;
+        while (position < end && text[position] >= '0' && text[position] <= '9') {
+            value = value * 10 + (text[position] - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return -1;
+            }
+            position++;
+        }
+        if (position == digitsStart) {
+            return -1;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            return -1;
+        }
+        while (position < end && text[position] <= ' ') {
+            position++;
+        }
+        if (position != end && text[position] != ',') {
+            return -1;
+        }
+        chunk.scannedInt = (int) value;
+        return position;
+    }
+
+    /**
+     * The colonies and errors from one range of text
+     */
+    private static class Chunk {
+        String[] ids;
+        int[] x;
+        int[] y;
+        int count;
+        /**
+         * The number of lines scanned
+         */
+        int lines;
+        /**
+         * Errors, with line numbers relative to the start of the chunk
+         */
+        List<LineError> errors;
+        /**
+         * The value of the last integer scanned
+         */
+        int scannedInt;
+
+        Chunk(int capacity) {
+            ids = new String[capacity];
+            x = new int[capacity];
+            y = new int[capacity];
+        }
+
+        void add(String id, int colonyX, int colonyY) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                x = Arrays.copyOf(x, count * 2);
+                y = Arrays.copyOf(y, count * 2);
+            }
+            ids[count] = id;
+            x[count] = colonyX;
+            y[count] = colonyY;
+            count++;
+        }
+
+        void error(String message) {
+            if (errors == null) {
+                errors = new ArrayList<>();
+            }
+            errors.add(new LineError(lines, message));
+        }
+
+        void addTo(ColonySet colonies, int lineOffset, List<LineError> allErrors) {
+            colonies.ensureCapacity(colonies.size() + count);
+            for (int i = 0; i < count; i++) {
+                // Colonies are not active until they are visited in this census
+                colonies.put(ids[i], x[i], y[i], false);
+            }
+            if (errors != null && allErrors != null) {
+                for (LineError error : errors) {
+                    allErrors.add(new LineError(error.getLine() + lineOffset, error.getMessage()));
+                }
+            }
+        }
+    }
+}
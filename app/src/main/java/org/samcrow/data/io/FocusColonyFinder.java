@@ -1,5 +1,6 @@
 package org.samcrow.data.io;
 
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
 import org.samcrow.colonynavigator.data4.ColonySet;
 
@@ -43,7 +44,7 @@ public class FocusColonyFinder {
                 String colonyId = line.trim();
                 final Colony colony = colonies.get(colonyId);
                 if (colony != null) {
-                    colony.setAttribute("census.focus", true);
+                    colony.setFlag(AttributeKey.FOCUS, true);
                 }
             }
         }
@@ -1,10 +1,14 @@
 package org.samcrow.data.io;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
 import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
 import org.samcrow.colonynavigator.data4.ColonySet;
 
@@ -16,7 +20,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
  * Reads/writes JSON data to/from files
@@ -25,6 +31,18 @@ import java.io.PrintStream;
  */
 public class JSONFileParser extends JSONParser implements FileParser {
 
+    private static final String TAG = JSONFileParser.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The format of the modified field
+     */
+    private static final DateTimeFormatter MODIFIED_FORMAT = ISODateTimeFormat.dateTimeNoMillis()
+            .withZoneUTC();
+    /**
+     * Integers with absolute values less than this can be represented exactly as doubles
+     */
+    private static final double MAX_EXACT_INTEGER = 1L << 53;
+
     protected File file;
 
     /**
@@ -36,66 +54,237 @@ public class JSONFileParser extends JSONParser implements FileParser {
         this.file = file;
     }
 
+    /**
+     * Reads colonies from a JSON stream
+     * <p/>
+     * The stream is parsed incrementally, so only one colony is held in memory in addition to
+     * the returned set.
+     *
+     * @param in the stream to read from
+     * @return the colonies that were read
+     * @throws IOException if the stream could not be read or did not contain a colonies array
+     */
     public static ColonySet parseFromStream(InputStream in) throws IOException {
+        final ColonySet colonies = new ColonySet();
+        parseFromStream(in, colonies);
+        return colonies;
+    }
+
+    /**
+     * Reads colonies from a JSON stream and adds each colony to a set as soon as it is read
+     *
+     * @param in       the stream to read from
+     * @param colonies the set to add the colonies to
+     * @throws IOException if the stream could not be read or did not contain a colonies array
+     */
+    public static void parseFromStream(InputStream in, ColonySet colonies) throws IOException {
+        final JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, UTF_8)));
+        // Accept the same slightly malformed input as org.json
+        reader.setLenient(true);
         try {
-            ColonySet colonies = new ColonySet();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-
-            //Read the whole text of the file into a string
-            StringBuilder jsonText = new StringBuilder();
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
+            boolean foundColonies = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("colonies")) {
+                    foundColonies = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        final Colony colony = readColony(reader);
+                        if (colony != null) {
+                            colonies.put(colony);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
                 }
+            }
+            reader.endObject();
+            if (!foundColonies) {
+                throw new IOException("No colonies array in JSON");
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Could not read JSON", e);
+        }
+    }
+
+    /**
+     * Reads one colony
+     *
+     * @return the colony, or null if the colony object did not have all required fields
+     */
+    private static Colony readColony(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            // Not a colony
+            reader.skipValue();
+            return null;
+        }
+        String id = null;
+        double x = Double.NaN;
+        double y = Double.NaN;
+        boolean visited = false;
+        boolean active = false;
+        String modified = null;
 
-                jsonText.append(line);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = readString(reader);
+                    break;
+                case "x":
+                    x = readDouble(reader);
+                    break;
+                case "y":
+                    y = readDouble(reader);
+                    break;
+                case "visited":
+                    visited = readBoolean(reader);
+                    break;
+                case "active":
+                    active = readBoolean(reader);
+                    break;
+                case "modified":
+                    // Numbers are not accepted as times
+                    if (reader.peek() == JsonToken.STRING) {
+                        modified = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
             }
-            reader.close();
+        }
+        reader.endObject();
 
-            JSONObject jsonRoot = new JSONObject(jsonText.toString());
+        if (id == null || Double.isNaN(x) || Double.isNaN(y)) {
+            //If an error with this colony was encountered, move on to the next one
+            Log.w(TAG, "Skipping colony with missing or invalid fields, ID " + id);
+            return null;
+        }
+        return makeColony(id, x, y, visited, active, modified);
+    }
 
-            JSONArray colonyArray = jsonRoot.getJSONArray("colonies");
+    /**
+     * Reads a string or number value as a string
+     *
+     * @return the value, or null if the value was not a string or number
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        } else {
+            reader.skipValue();
+            return null;
+        }
+    }
 
-            for (int i = 0, max = colonyArray.length(); i < max; i++) {
-                try {
-                    JSONObject colonyObject = colonyArray.getJSONObject(i);
+    /**
+     * Reads a number value, or a string that contains a number
+     *
+     * @return the value, or NaN if the value was not a number
+     */
+    private static double readDouble(JsonReader reader) throws IOException {
+        final String value = readString(reader);
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
 
-                    colonies.put(fromJSON(colonyObject));
-                } catch (JSONException e) {
-                    //If an error with this colony was encountered, move on to the next one
-                    e.printStackTrace();
-                }
-            }
-            return colonies;
-        } catch (JSONException e) {
-            throw new IOException("Could not write JSON", e);
+    /**
+     * Reads a boolean value, or a string that contains true or false
+     *
+     * @return the value, or false if the value was not a boolean
+     */
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        } else if (token == JsonToken.STRING) {
+            return "true".equalsIgnoreCase(reader.nextString());
+        } else {
+            reader.skipValue();
+            return false;
         }
     }
 
+    /**
+     * Writes colonies to a JSON stream
+     * <p/>
+     * Each colony is written as it is encoded, so the output is not held in memory. The stream
+     * is flushed, but not closed.
+     *
+     * @param out    the stream to write to
+     * @param values the colonies to write
+     * @throws IOException if a colony could not be written
+     */
     public static void writeToStream(OutputStream out, Iterable<? extends Colony> values) throws IOException {
-        JSONObject jsonRoot = new JSONObject();
-        JSONArray colonyArray = new JSONArray();
-
-        for (Colony colony : values) {
-            try {
-                colonyArray.put(toJSON(colony));
-            } catch (JSONException e) {
-                throw new IOException("Could not write colony", e);
+        final Writer streamWriter = new UnsynchronizedBufferedWriter(new OutputStreamWriter(out, UTF_8));
+        final JsonWriter writer = new JsonWriter(streamWriter);
+        try {
+            writer.beginObject();
+            writer.name("colonies");
+            writer.beginArray();
+            for (Colony colony : values) {
+                writeColony(writer, colony);
             }
+            writer.endArray();
+            //Add a comment with some information for humans
+            writer.name("comment").value("Serialized into JSON by JSONFileParser at " + DateTime.now()
+                    .toString(ISODateTimeFormat.basicDateTime()) + ".");
+            writer.endObject();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Could not write colony", e);
         }
+        writer.flush();
+        streamWriter.write('\n');
+        streamWriter.flush();
+    }
 
+    /**
+     * Writes one colony, with the same fields as {@link #toJSON(Colony)}
+     */
+    private static void writeColony(JsonWriter writer, Colony colony) throws IOException {
+        writer.beginObject();
+        // Put the ID as an integer if it is valid
+        final String id = colony.getID();
+        writer.name("id");
         try {
-            jsonRoot.put("colonies", colonyArray);
-            //Add a comment with some information for humans
-            jsonRoot.put("comment",
-                    "Serialized into JSON by JSONFileParser at " + DateTime.now()
-                            .toString(ISODateTimeFormat.basicDateTime()) + ".");
-        } catch (JSONException e) {
-            throw new IOException("Could not create top-level JSON", e);
-        }
-        PrintStream stream = new PrintStream(out);
-        stream.println(jsonRoot.toString());
+            writer.value(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            writer.value(id);
+        }
+        writer.name("x");
+        writeNumber(writer, colony.getX());
+        writer.name("y");
+        writeNumber(writer, colony.getY());
+        if (colony.hasAttribute(AttributeKey.VISITED)) {
+            writer.name("visited").value(colony.getFlag(AttributeKey.VISITED));
+        }
+        if (colony.hasAttribute(AttributeKey.ACTIVE)) {
+            writer.name("active").value(colony.getFlag(AttributeKey.ACTIVE));
+        }
+        writer.name("modified").value(MODIFIED_FORMAT.print(colony.getUpdateTimeMillis()));
+        writer.endObject();
+    }
+
+    /**
+     * Writes a number, without a fractional part if it is an integer (like org.json)
+     */
+    private static void writeNumber(JsonWriter writer, double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_INTEGER) {
+            writer.value((long) value);
+        } else {
+            writer.value(value);
+        }
     }
 
     @Override
@@ -124,4 +313,73 @@ public class JSONFileParser extends JSONParser implements FileParser {
         }
     }
 
+
+    /**
+     * A buffered writer that does not lock for each write
+     * <p/>
+     * JsonWriter writes strings one character at a time, and the locking in
+     * {@link java.io.BufferedWriter} takes most of the time spent writing.
+     */
+    private static class UnsynchronizedBufferedWriter extends Writer {
+        private final Writer mOut;
+        private final char[] mBuffer = new char[8192];
+        private int mCount = 0;
+
+        UnsynchronizedBufferedWriter(Writer out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            mBuffer[mCount++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (length > mBuffer.length - mCount) {
+                flushBuffer();
+                if (length > mBuffer.length) {
+                    mOut.write(chars, offset, length);
+                    return;
+                }
+            }
+            System.arraycopy(chars, offset, mBuffer, mCount, length);
+            mCount += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            if (length > mBuffer.length - mCount) {
+                flushBuffer();
+                if (length > mBuffer.length) {
+                    mOut.write(string, offset, length);
+                    return;
+                }
+            }
+            string.getChars(offset, offset + length, mBuffer, mCount);
+            mCount += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            mOut.close();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (mCount != 0) {
+                mOut.write(mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
 }
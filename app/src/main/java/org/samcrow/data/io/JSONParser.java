@@ -5,6 +5,7 @@ import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.samcrow.colonynavigator.data4.AttributeKey;
 import org.samcrow.colonynavigator.data4.Colony;
 import org.samcrow.colonynavigator.data4.ColonySet;
 
@@ -16,22 +17,38 @@ import org.samcrow.colonynavigator.data4.ColonySet;
 public class JSONParser implements Parser<Colony> {
 
     protected static Colony fromJSON(JSONObject json) throws JSONException {
-        Colony colony = new Colony(json.getString("id"));
-        colony.setX(json.getDouble("x"));
-        colony.setY(json.getDouble("y"));
+        final Object updatedObject = json.opt("modified");
+        return makeColony(json.getString("id"),
+                json.getDouble("x"),
+                json.getDouble("y"),
+                json.optBoolean("visited", false),
+                json.optBoolean("active", false),
+                updatedObject instanceof String ? (String) updatedObject : null);
+    }
 
-        colony.setAttribute("census.visited", json.optBoolean("visited", false));
-        colony.setAttribute("census.active", json.optBoolean("active", false));
+    /**
+     * Creates a colony from the values of the fields of a JSON colony
+     *
+     * @param modified the value of the modified field, or null if the field was not present or
+     *                 was not a string
+     * @return a colony
+     */
+    protected static Colony makeColony(String id, double x, double y, boolean visited,
+                                       boolean active, String modified) {
+        Colony colony = new Colony(id);
+        colony.setX(x);
+        colony.setY(y);
 
-        final Object updatedObject = json.opt("modified");
-        if (updatedObject == null || JSONObject.NULL.equals(
-                updatedObject) || !(updatedObject instanceof String)) {
+        colony.setFlag(AttributeKey.VISITED, visited);
+        colony.setFlag(AttributeKey.ACTIVE, active);
+
+        if (modified == null) {
             // Set to now
             colony.setUpdateTime(DateTime.now());
         } else {
             try {
                 final DateTime updatedTime = ISODateTimeFormat.dateTimeParser()
-                        .parseDateTime((String) updatedObject);
+                        .parseDateTime(modified);
                 colony.setUpdateTime(updatedTime);
             } catch (IllegalArgumentException e) {
                 // Could not parse time
@@ -53,11 +70,11 @@ public class JSONParser implements Parser<Colony> {
 
         json.put("x", value.getX());
         json.put("y", value.getY());
-        if (value.hasAttribute("census.visited")) {
-            json.put("visited", value.getAttribute("census.visited"));
+        if (value.hasAttribute(AttributeKey.VISITED)) {
+            json.put("visited", value.getFlag(AttributeKey.VISITED));
         }
-        if (value.hasAttribute("census.active")) {
-            json.put("active", value.getAttribute("census.active"));
+        if (value.hasAttribute(AttributeKey.ACTIVE)) {
+            json.put("active", value.getFlag(AttributeKey.ACTIVE));
         }
 
         final String updatedString = ISODateTimeFormat.dateTimeNoMillis()
@@ -0,0 +1,116 @@
+package org.samcrow.data.io;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.samcrow.colonynavigator.data4.AttributeKey;
+import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes a journal of colony changes
+ * <p/>
+ * Each line of a journal is the JSON representation of one colony, in the same format used
+ * for each colony in colonies.json. Entries are appended when colonies change, so each
+ * change writes only a few bytes. When a journal is replayed, each entry updates the fields
+ * that entries contain (position, visited, active, and update time) of the colony with the same
+ * ID, so later entries override earlier entries and colonies from the main file. Other
+ * attributes, such as the focus flag from focus_colonies.txt, are kept.
+ * <p/>
+ * Lines that cannot be parsed, such as a partial line at the end of a journal that was being
+ * written when the application stopped, are ignored.
+ *
+ * @author Sam Crow
+ */
+public class JournalParser extends JSONParser {
+
+    private static final String TAG = JournalParser.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private JournalParser() {
+    }
+
+    /**
+     * Encodes a journal entry for a colony
+     * <p/>
+     * The entry contains the current state of the colony, so it should be encoded on the
+     * thread that modifies colonies.
+     *
+     * @param colony the colony
+     * @return the entry, including the line terminator
+     * @throws IOException if the colony could not be encoded
+     */
+    public static byte[] encodeEntry(Colony colony) throws IOException {
+        try {
+            return (toJSON(colony).toString() + '\n').getBytes(UTF_8);
+        } catch (JSONException e) {
+            throw new IOException("Could not encode colony", e);
+        }
+    }
+
+    /**
+     * Writes encoded entries to a journal
+     *
+     * @param out   a stream that appends to the journal
+     * @param entry one or more entries from {@link #encodeEntry(Colony)}, concatenated
+     */
+    public static void appendEntry(OutputStream out, byte[] entry) throws IOException {
+        out.write(entry);
+        out.flush();
+    }
+
+    /**
+     * Reads a journal and applies its entries to a set of colonies
+     *
+     * @param in       the stream to read the journal from
+     * @param colonies the colonies to update. Colonies with the same IDs as entries are
+     *                 updated, and other entries are added.
+     * @return the number of entries applied
+     */
+    public static int replay(InputStream in, ColonySet colonies) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        int count = 0;
+        while (true) {
+            final String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                apply(fromJSON(new JSONObject(line)), colonies);
+                count++;
+            } catch (JSONException e) {
+                Log.w(TAG, "Ignoring invalid journal entry", e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies one entry to a set of colonies
+     */
+    private static void apply(Colony entry, ColonySet colonies) {
+        final Colony existing = colonies.get(entry.getID());
+        if (existing == null) {
+            colonies.put(entry);
+            return;
+        }
+        existing.setX(entry.getX());
+        existing.setY(entry.getY());
+        existing.setFlag(AttributeKey.VISITED, entry.getFlag(AttributeKey.VISITED));
+        existing.setFlag(AttributeKey.ACTIVE, entry.getFlag(AttributeKey.ACTIVE));
+        // The setters mark the colony as updated now, so the time is set last
+        existing.setUpdateTime(entry.getUpdateTime());
+    }
+}
@@ -0,0 +1,50 @@
+package org.samcrow.data.provider;
+
+import org.samcrow.colonynavigator.R;
+
+/**
+ * A stage of loading colonies when the application starts
+ */
+public enum LoadStage {
+    /**
+     * Reading colonies created in this application from the database
+     */
+    NEW_COLONIES(R.string.load_stage_new_colonies),
+    /**
+     * Reading a cached snapshot of the colonies from the memory card
+     */
+    SNAPSHOT(R.string.load_stage_snapshot),
+    /**
+     * Reading colonies.csv and merging it with the colonies from colonies.json
+     */
+    CSV(R.string.load_stage_csv),
+    /**
+     * Reading colonies.json
+     */
+    JSON(R.string.load_stage_json),
+    /**
+     * Applying changes from the journal
+     */
+    JOURNAL(R.string.load_stage_journal),
+    /**
+     * Writing colonies.json and the snapshot
+     */
+    WRITE(R.string.load_stage_write),
+    /**
+     * Reading focus_colonies.txt
+     */
+    FOCUS(R.string.load_stage_focus);
+
+    private final int mLabel;
+
+    LoadStage(int label) {
+        mLabel = label;
+    }
+
+    /**
+     * @return the string resource that describes this stage to the user
+     */
+    public int getLabel() {
+        return mLabel;
+    }
+}
@@ -6,7 +6,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.pm.PackageManager;
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import androidx.core.content.ContextCompat;
 import androidx.documentfile.provider.DocumentFile;
 import android.util.Log;
@@ -15,95 +15,422 @@ import android.widget.Toast;
 import org.samcrow.colonynavigator.R;
 import org.samcrow.colonynavigator.Storage;
 import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonyMerge;
 import org.samcrow.colonynavigator.data4.ColonySet;
+import org.samcrow.colonynavigator.data4.ColonySnapshot;
+import org.samcrow.colonynavigator.data4.Digest;
 import org.samcrow.data.io.CSVFileParser;
+import org.samcrow.data.io.CSVScanner;
 import org.samcrow.data.io.FocusColonyFinder;
 import org.samcrow.data.io.JSONFileParser;
+import org.samcrow.data.io.JournalParser;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Provides colonies from data stored on the memory card.
  *
  * When writing colony data, this implementation writes it to colonies.json. It does not modify colonies.csv.
+ * <p/>
+ * When both files exist, changes to colonies.csv since it was last read are merged into the
+ * colonies from colonies.json using a {@link ColonyMerge}. The CSV colonies are stored after
+ * each merge, and if the CSV file has not changed, it is not parsed again.
+ * <p/>
+ * When one colony changes, its new data is appended to a journal file (colonies.journal) instead
+ * of rewriting colonies.json. The journal is compacted into colonies.json after
+ * {@link #COMPACT_ENTRY_COUNT} entries or {@link #COMPACT_INTERVAL_MS} milliseconds, and when
+ * the provider is created.
+ * <p/>
+ * Saves are made by a {@link SaveScheduler}, which combines changes made close together and
+ * writes one save at a time.
+ * <p/>
+ * After the colonies are loaded from the files or compacted into colonies.json, a binary
+ * {@link ColonySnapshot} of them is written to the cache directory, keyed by the versions of the
+ * files other than the journal. If those files have not changed since then, the next launch loads
+ * the snapshot and replays the journal on top of it, and does not parse or merge the files.
+ * Appending to the journal does not change the snapshot, so each change is saved in time
+ * proportional to the number of changed colonies.
+ * <p/>
+ * colonies.json is only rewritten when the fingerprint of the colonies differs from the
+ * fingerprint of the colonies that were last read from or written to it.
+ * <p/>
+ * Creating a provider does not read any files. The colonies are read by
+ * {@link #load(LoadListener)}, which should be called on a background thread.
  *
  * @author Sam Crow
  */
 public class MemoryCardDataProvider implements ColonyProvider {
 
+    /**
+     * The number of journal entries that causes the journal to be compacted
+     */
+    public static final int COMPACT_ENTRY_COUNT = 200;
+    /**
+     * The time since the last compaction after which the next change causes the journal to be
+     * compacted
+     */
+    public static final long COMPACT_INTERVAL_MS = 15 * 60 * 1000;
+
+    private static final String TAG = MemoryCardDataProvider.class.getSimpleName();
+    /**
+     * The name of the colony snapshot file in the cache directory
+     */
+    private static final String SNAPSHOT_NAME = "colonies.snapshot";
+    /**
+     * The name of the file in the application's files directory that contains the CSV
+     * colonies from the last merge
+     */
+    private static final String CSV_BASE_NAME = "colonies_csv.snapshot";
+    /**
+     * The maximum number of merge conflicts to log individually
+     */
+    private static final int MAX_LOGGED_CONFLICTS = 20;
+
     private final Storage.FileUris mUris;
     private final Context context;
     private ColonySet colonies = new ColonySet();
 
-    public MemoryCardDataProvider(Context context, Storage.FileUris uris) throws IOException {
+    /**
+     * The number of entries written to the journal since it was last compacted
+     */
+    private int mJournalEntries = 0;
+    /**
+     * The number of journal entries that were replayed and not compacted while loading. Set by
+     * {@link #load(LoadListener)} and read by {@link #loadFinished(ColonySet)}.
+     */
+    private int mLoadedJournalEntries = 0;
+    /**
+     * The time, from {@link SystemClock#elapsedRealtime()}, of the last compaction
+     */
+    private long mLastCompactTime;
+
+    private final SaveScheduler mSaveScheduler;
+    /**
+     * The file in the cache directory that contains a snapshot of the colonies
+     */
+    private final File mSnapshotFile;
+    /**
+     * The {@link ColonySet#fingerprint()} of the colonies in colonies.json, or null if it is not
+     * known. This is used while loading and then by the save thread.
+     */
+    private volatile byte[] mJsonFingerprint;
+    /**
+     * The file that contains the CSV colonies from the last merge. This is not in the cache
+     * directory because without it, changes to the CSV file can't be told apart from
+     * changes made in this application.
+     */
+    private final File mCsvBaseFile;
+
+    public MemoryCardDataProvider(Context context, Storage.FileUris uris) {
         this.context = context;
         mUris = uris;
+        mSnapshotFile = new File(context.getCacheDir(), SNAPSHOT_NAME);
+        mCsvBaseFile = new File(context.getFilesDir(), CSV_BASE_NAME);
+        mSaveScheduler = new SaveScheduler(new SaveScheduler.Target() {
+            @Override
+            public SaveScheduler.Write prepare(Collection<Colony> changed, boolean full) throws IOException {
+                return prepareSave(changed, full);
+            }
+        });
+        mSaveScheduler.setListener(new SaveScheduler.Listener() {
+            @Override
+            public void saveFinished(Exception error) {
+                MemoryCardDataProvider.this.saveFinished(error);
+            }
+        });
+        mLastCompactTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Receives progress information while colonies are loaded
+     * <p/>
+     * The methods are called on the thread that calls {@link #load(LoadListener)}.
+     */
+    public interface LoadListener {
+        /**
+         * Called when a stage of loading starts
+         *
+         * @param stage the stage
+         */
+        void stageStarted(LoadStage stage);
+
+        /**
+         * Called when some colonies have been read, before they have been merged with the
+         * colonies from later stages. The final colonies are returned from
+         * {@link #load(LoadListener)}.
+         *
+         * @param preview the colonies. The listener may keep and modify this set.
+         */
+        void coloniesAvailable(ColonySet preview);
+    }
+
+    /**
+     * Loads the colonies from the memory card
+     * <p/>
+     * If the files on the memory card have not changed since the last snapshot was written, the
+     * snapshot is loaded and the journal is replayed on top of it. Otherwise, the colonies are
+     * read from the files and merged, the journal is compacted, and a new snapshot is written.
+     * <p/>
+     * This reads and writes files, so it should be called on a background thread. Until
+     * {@link #loadFinished(ColonySet)} is called, {@link #getColonies()} returns an empty set.
+     *
+     * @param listener a listener to notify of progress
+     * @return the loaded colonies
+     * @throws IOException if the colonies could not be read or written
+     */
+    public ColonySet load(LoadListener listener) throws IOException {
+        listener.stageStarted(LoadStage.SNAPSHOT);
+        final ColonySet cached = ColonySnapshot.read(mSnapshotFile, cardFilesKey());
+        if (cached != null) {
+            Log.i(TAG, "Colony snapshot hit: " + cached.size() + " colonies");
+            // The snapshot matches colonies.json, so later changes are in the journal. They
+            // count toward the next compaction.
+            mLoadedJournalEntries = replayJournal(cached, listener);
+            return cached;
+        }
+        mLoadedJournalEntries = 0;
+        final ColonySet loaded = loadFromCard(listener);
+        Log.i(TAG, "Colony snapshot miss: read " + loaded.size() + " colonies from the memory card");
+        // The files may have been rewritten, so the key is calculated again
+        writeSnapshot(loaded);
+        return loaded;
+    }
 
-        final DocumentFile csvFile =  uris.getCsv();
-        DocumentFile jsonFile = uris.getJson();
+    /**
+     * Makes the loaded colonies available from this provider. This must be called on the main
+     * thread after {@link #load(LoadListener)} returns.
+     *
+     * @param loaded the colonies that load returned
+     */
+    public void loadFinished(ColonySet loaded) {
+        colonies = loaded;
+        mJournalEntries = mLoadedJournalEntries;
+        mLastCompactTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Reads the colonies from the files on the memory card, merges them, and compacts the
+     * journal
+     */
+    private ColonySet loadFromCard(LoadListener listener) throws IOException {
+        final DocumentFile csvFile =  mUris.getCsv();
+        final DocumentFile jsonFile = mUris.getJson();
+        ColonySet colonies = new ColonySet();
+        // True if colonies.json needs to be written after reading
+        boolean rewriteJson = false;
+        // CSV colonies to use as the ancestor of the next merge after colonies.json is written
+        ColonySet newCsvBase = null;
+        byte[] newCsvBaseKey = null;
 
         //Case 1: Application hasn't been run before
         //colonies.csv exists, colonies.json does not
         if (csvFile != null && jsonFile == null) {
 
             //Read the CSV and get the colonies into memory
-            try (InputStream csvStream = context.getContentResolver().openInputStream(csvFile.getUri())) {
-                colonies = CSVFileParser.parseFromStream(csvStream);
-            }
+            listener.stageStarted(LoadStage.CSV);
+            colonies = readCsv(csvFile);
+            listener.coloniesAvailable(colonies.snapshot());
+            // The next merge will compare the CSV file with these colonies. They are copied
+            // because the journal changes the colonies before the JSON file is written.
+            newCsvBase = colonies.snapshot();
+            newCsvBaseKey = fileKey(csvFile);
 
             //Write the JSON file from memory
-            jsonFile = mUris.createJson();
-            try (OutputStream jsonStream = context.getContentResolver().openOutputStream(jsonFile.getUri())) {
-                JSONFileParser.writeToStream(jsonStream, colonies);
-            }
+            rewriteJson = true;
         }
 
         //Case 2: both files exist
         else if (csvFile != null && jsonFile != null) {
 
-
-            // Read both CSV and JSON files
-            ColonySet csvColonies;
-            try (InputStream csvStream = context.getContentResolver().openInputStream(csvFile.getUri())) {
-                csvColonies = CSVFileParser.parseFromStream(csvStream);
-            }
-            ColonySet jsonColonies;
+            // Read the JSON file
+            listener.stageStarted(LoadStage.JSON);
             try (InputStream jsonStream = context.getContentResolver().openInputStream(jsonFile.getUri())) {
-                jsonColonies = JSONFileParser.parseFromStream(jsonStream);
+                colonies = JSONFileParser.parseFromStream(jsonStream);
             }
-
-            //Put into memory the colonies from the CSV updated with colonies from the JSON file
-            colonies = extend(csvColonies, jsonColonies);
+            mJsonFingerprint = colonies.fingerprint();
+            listener.coloniesAvailable(colonies.snapshot());
+
+            // Merge in changes to the CSV file since it was last merged
+            listener.stageStarted(LoadStage.CSV);
+            final byte[] csvKey = fileKey(csvFile);
+            ColonySet csvBase = ColonySnapshot.read(mCsvBaseFile, csvKey);
+            final ColonySet csvColonies;
+            if (csvBase != null) {
+                // Not changed, so there is no need to parse it
+                csvColonies = csvBase;
+            } else {
+                csvBase = ColonySnapshot.read(mCsvBaseFile, null);
+                csvColonies = readCsv(csvFile);
+                newCsvBase = csvColonies;
+                newCsvBaseKey = csvKey;
+            }
+            final ColonyMerge.Result result = ColonyMerge.merge(colonies, csvBase, csvColonies,
+                    csvFile.lastModified());
+            logMerge(result, csvBase != null);
 
             //Write the JSON file from memory
-            try (OutputStream jsonStream = context.getContentResolver().openOutputStream(jsonFile.getUri())) {
-                JSONFileParser.writeToStream(jsonStream, colonies);
-            }
+            rewriteJson = result.hasChanges();
         }
 
         //Cases 3: CSV doesn't exist, JSON does
         else if (csvFile == null && jsonFile != null) {
             //Use the JSON file
+            listener.stageStarted(LoadStage.JSON);
             try (InputStream jsonStream = context.getContentResolver().openInputStream(jsonFile.getUri())) {
                 colonies = JSONFileParser.parseFromStream(jsonStream);
             }
+            mJsonFingerprint = colonies.fingerprint();
         } else {
             Log.e("MemoryCardDataProvider", "Neither CSV nor JSON file exists");
         }
 
+        // Apply changes that were journaled but not compacted into the JSON file
+        if (replayJournal(colonies, listener) != 0) {
+            rewriteJson = true;
+        }
+
+        if (rewriteJson) {
+            listener.stageStarted(LoadStage.WRITE);
+            writeJsonIfChanged(colonies);
+            clearJournal();
+        }
+        if (newCsvBase != null) {
+            writeCsvBase(newCsvBase, newCsvBaseKey);
+        }
 
         //Look for focus_colonies.txt
-        final DocumentFile focusColoniesDocument = uris.getFocusColonies();
+        final DocumentFile focusColoniesDocument = mUris.getFocusColonies();
         if (focusColoniesDocument != null) {
+            listener.stageStarted(LoadStage.FOCUS);
             try (final InputStream in = context.getContentResolver().openInputStream(focusColoniesDocument.getUri())) {
                 new FocusColonyFinder(in, colonies).updateColonies();
             } catch (IOException e) {
                 Log.e("MemoryCardDataProvider", "Can't read focus colonies file", e);
             }
         }
+        return colonies;
+    }
+
+    /**
+     * Applies the changes in the journal to colonies
+     *
+     * @return the number of entries replayed
+     */
+    private int replayJournal(ColonySet colonies, LoadListener listener) throws IOException {
+        final DocumentFile journalFile = mUris.getJournal();
+        if (journalFile == null) {
+            return 0;
+        }
+        listener.stageStarted(LoadStage.JOURNAL);
+        try (InputStream journalStream = context.getContentResolver().openInputStream(journalFile.getUri())) {
+            final int entries = JournalParser.replay(journalStream, colonies);
+            if (entries != 0) {
+                Log.i(TAG, "Replayed " + entries + " journal entries");
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Reads colonies from a CSV file and logs any lines that could not be parsed
+     */
+    private ColonySet readCsv(DocumentFile csvFile) throws IOException {
+        final List<CSVScanner.LineError> errors = new ArrayList<>();
+        final ColonySet csvColonies;
+        try (InputStream csvStream = context.getContentResolver().openInputStream(csvFile.getUri())) {
+            csvColonies = CSVFileParser.parseFromStream(csvStream, errors);
+        }
+        if (!errors.isEmpty()) {
+            Log.w(TAG, errors.size() + " lines of " + csvFile.getName() + " could not be parsed, first: "
+                    + errors.get(0));
+        }
+        return csvColonies;
+    }
+
+    /**
+     * Logs the result of merging the CSV colonies
+     *
+     * @param result   the result
+     * @param threeWay true if the CSV colonies from the last merge were available
+     */
+    private static void logMerge(ColonyMerge.Result result, boolean threeWay) {
+        Log.i(TAG, "Merged colonies.csv" + (threeWay ? "" : " without a previous version") + ": " + result);
+        final List<ColonyMerge.Conflict> conflicts = result.getConflicts();
+        for (int i = 0; i < conflicts.size() && i < MAX_LOGGED_CONFLICTS; i++) {
+            Log.w(TAG, "Conflicting position for colony " + conflicts.get(i));
+        }
+    }
+
+    /**
+     * Stores the CSV colonies that will be the ancestor of the next merge
+     *
+     * @param csvColonies the colonies read from the CSV file
+     * @param key         the {@link #fileKey(DocumentFile)} of the CSV file
+     */
+    private void writeCsvBase(ColonySet csvColonies, byte[] key) {
+        try {
+            ColonySnapshot.write(csvColonies, key, mCsvBaseFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write CSV colonies", e);
+        }
+    }
+
+    /**
+     * Calculates a key that identifies the current version of one file, from its length and
+     * modification time
+     */
+    private static byte[] fileKey(DocumentFile file) {
+        final Digest digest = new Digest();
+        digest.update(file.length());
+        digest.update(file.lastModified());
+        return digest.digest();
+    }
+
+    /**
+     * Calculates a key that identifies the current versions of the files on the memory card,
+     * except the journal
+     * <p/>
+     * The key is a digest of the length and modification time of each file. This can be
+     * calculated without reading the files. The journal is not included because it is replayed
+     * on top of the snapshot.
+     */
+    private byte[] cardFilesKey() {
+        final Digest digest = new Digest();
+        final DocumentFile[] files = {
+                mUris.getCsv(),
+                mUris.getJson(),
+                mUris.getFocusColonies(),
+        };
+        for (DocumentFile file : files) {
+            if (file != null) {
+                digest.update((byte) 1);
+                digest.update(file.length());
+                digest.update(file.lastModified());
+            } else {
+                digest.update((byte) 0);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Writes a snapshot of colonies to the cache, keyed by the current versions of the files
+     * on the memory card. The colonies must match the data in the files without the journal.
+     */
+    private void writeSnapshot(ColonySet colonies) {
+        try {
+            ColonySnapshot.write(colonies, cardFilesKey(), mSnapshotFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write colony snapshot", e);
+        }
     }
 
     private static Throwable ultimateCause(Throwable ex) {
@@ -121,12 +448,19 @@ public class MemoryCardDataProvider implements ColonyProvider {
         return colonies;
     }
 
+    /**
+     * @return the scheduler that saves changes to the colonies
+     */
+    public SaveScheduler getSaveScheduler() {
+        return mSaveScheduler;
+    }
+
     /* (non-Javadoc)
      * @see org.samcrow.data.provider.ColonyProvider#updateColonies()
      */
     @Override
     public void updateColonies() throws UnsupportedOperationException {
-        new FileWriteTask().execute();
+        mSaveScheduler.saveAll();
     }
 
     /* (non-Javadoc)
@@ -135,108 +469,131 @@ public class MemoryCardDataProvider implements ColonyProvider {
     @Override
     public void updateColony(Colony colony)
             throws UnsupportedOperationException {
-        new FileWriteTask().execute();
+        if (colonies.get(colony.getID()) != colony) {
+            // Not a colony from the memory card
+            return;
+        }
+        mSaveScheduler.colonyChanged(colony);
     }
 
     /**
-     * Extend a set of colonies to reflect changes from a supplemental set
-     * This is based on jQuery's <code>jQuery.extend()</code> function.
+     * Captures the changed colonies for a save. Called by the save scheduler on the main thread.
      * <p/>
-     * This method will create and return a new set with the following:
-     * <ul>
-     * <li>Every colony in supplement but not base included as-is</li>
-     * <li>Every colony in base but not supplement included as-is</li>
-     * <li>For every colony in both sets, the copy from base will be ignored
-     * and the copy from supplement will be used</li>
-     * </ul>
-     * Colonies are considered equal if their IDs as returned by {@link Colony#getID()}
-     * are the same.
-     *
-     * @param base       The base set of colonies
-     * @param supplement The supplement set of colonies
-     * @return A new set of colonies reflecting the changes to base made by supplement.
-     * This set will contain references to the same colony objects referred to by
-     * the input sets.
+     * If the journal is due to be compacted, this takes a snapshot of all colonies. Otherwise,
+     * it encodes journal entries for the changed colonies, which does not depend on the number
+     * of other colonies.
      */
-    private ColonySet extend(ColonySet base, ColonySet supplement) {
-        //Note: base and supplement contain references to different colony objects with the same IDs
-
-        ColonySet finalSet = new ColonySet();
-
-        for (Colony colony : base) {
-            String id = colony.getID();
-
-            Colony supplementColony = supplement.get(id);
-            if (supplementColony != null) {
-                //It's in the supplement set, so just use the version from the supplement
-                finalSet.put(supplementColony);
-            } else {
-                //This colony isn't in the supplement. Use the version from the base.
-                finalSet.put(colony);
+    private SaveScheduler.Write prepareSave(Collection<Colony> changed, boolean full) throws IOException {
+        if (full || mJournalEntries + changed.size() >= COMPACT_ENTRY_COUNT
+                || SystemClock.elapsedRealtime() - mLastCompactTime >= COMPACT_INTERVAL_MS) {
+            mJournalEntries = 0;
+            mLastCompactTime = SystemClock.elapsedRealtime();
+            final ColonySet snapshot = colonies.snapshot();
+            return new SaveScheduler.Write() {
+                @Override
+                public void write() throws IOException {
+                    checkWritePermission();
+                    writeJsonIfChanged(snapshot);
+                    clearJournal();
+                    writeSnapshot(snapshot);
+                }
+            };
+        } else {
+            final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            for (Colony colony : changed) {
+                entries.write(JournalParser.encodeEntry(colony));
             }
+            mJournalEntries += changed.size();
+            final byte[] entryBytes = entries.toByteArray();
+            return new SaveScheduler.Write() {
+                @Override
+                public void write() throws IOException {
+                    checkWritePermission();
+                    // The colony snapshot is still valid, because the journal is replayed on
+                    // top of it
+                    appendJournal(entryBytes);
+                }
+            };
         }
-        //Add every colony that's in the supplement
-        for (Colony supplementColony : supplement) {
-            String id = supplementColony.getID();
+    }
 
-            Colony baseColony = base.get(id);
-            if (baseColony == null) {
-                //If this colony is in the base set, it's already been added.
-                //Here, it isn't in the base set, so it's added to the final set.
-                finalSet.put(supplementColony);
-            }
+    private void checkWritePermission() {
+        if (ContextCompat.checkSelfPermission(context, permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            throw new IllegalStateException("No permission to write external storage");
         }
-
-        return finalSet;
     }
 
     /**
-     * A task that writes the colonies to the JSON file
-     *
-     * @author Sam Crow
+     * Writes colonies to the JSON file, creating it if it does not exist
      */
-    private class FileWriteTask extends AsyncTask<Void, Void, Void> {
+    private void writeJson(ColonySet colonies) throws IOException {
+        DocumentFile jsonFile = mUris.getJson();
+        if (jsonFile == null) {
+            jsonFile = mUris.createJson();
+        }
+        try (OutputStream jsonStream = context.getContentResolver().openOutputStream(jsonFile.getUri())) {
+            JSONFileParser.writeToStream(jsonStream, colonies);
+        }
+    }
 
-        @Override
-        public Void doInBackground(Void... args) {
+    /**
+     * Writes colonies to the JSON file if they are different from the colonies that were last
+     * read from or written to it
+     */
+    private void writeJsonIfChanged(ColonySet colonies) throws IOException {
+        final byte[] fingerprint = colonies.fingerprint();
+        if (Arrays.equals(fingerprint, mJsonFingerprint) && mUris.getJson() != null) {
+            Log.d(TAG, "Colonies unchanged, not rewriting JSON file");
+            return;
+        }
+        // If writing fails, the file contents are unknown
+        mJsonFingerprint = null;
+        writeJson(colonies);
+        mJsonFingerprint = fingerprint;
+    }
 
-            // Check permissions
-            if (ContextCompat.checkSelfPermission(context, permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-                throw new IllegalStateException("No permission to write external storage");
-            }
+    /**
+     * Appends entries to the journal, creating it if it does not exist
+     */
+    private void appendJournal(byte[] entries) throws IOException {
+        DocumentFile journalFile = mUris.getJournal();
+        if (journalFile == null) {
+            journalFile = mUris.createJournal();
+        }
+        try (OutputStream journalStream = context.getContentResolver().openOutputStream(journalFile.getUri(), "wa")) {
+            JournalParser.appendEntry(journalStream, entries);
+        }
+    }
 
-            DocumentFile jsonFile = mUris.getJson();
-            if (jsonFile == null) {
-                jsonFile = mUris.createJson();
-            }
+    /**
+     * Removes all entries from the journal. This must be called only after all journaled
+     * changes have been written to the JSON file.
+     */
+    private void clearJournal() throws IOException {
+        final DocumentFile journalFile = mUris.getJournal();
+        if (journalFile != null) {
+            // Opening in truncate mode empties the file
+            context.getContentResolver().openOutputStream(journalFile.getUri(), "wt").close();
+        }
+    }
 
-            try (OutputStream jsonStream = context.getContentResolver().openOutputStream(jsonFile.getUri())) {
-                JSONFileParser.writeToStream(jsonStream, colonies);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void result) {
-            try {
-                get();
-                Toast.makeText(context, "Saved colonies", Toast.LENGTH_SHORT).show();
-            } catch (InterruptedException e) {
-                // Nothing
-            } catch (ExecutionException e) {
-                new AlertDialog.Builder(context)
-                        .setTitle("Failed to save colonies")
-                        .setMessage(ultimateCause(e).getMessage())
-                        .setNeutralButton(R.string.ok, new OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialog, int which) {
-
-                            }
-                        })
-                        .show();
-            }
+    /**
+     * Notifies the user when a save finishes
+     */
+    private void saveFinished(Exception error) {
+        if (error == null) {
+            Toast.makeText(context, "Saved colonies", Toast.LENGTH_SHORT).show();
+        } else {
+            new AlertDialog.Builder(context)
+                    .setTitle("Failed to save colonies")
+                    .setMessage(ultimateCause(error).getMessage())
+                    .setNeutralButton(R.string.ok, new OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+
+                        }
+                    })
+                    .show();
         }
     }
 }
@@ -0,0 +1,265 @@
+package org.samcrow.data.provider;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.samcrow.colonynavigator.data4.Colony;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Schedules colony saves so that at most one save is being written at a time
+ * <p/>
+ * Changes are collected and saved together after no more changes have been made for a short
+ * delay, or after a longer maximum delay if changes keep being made. A colony that changes
+ * several times before a save is saved once. Changes made while a save is being written are
+ * saved in the next save.
+ * <p/>
+ * The data to write is captured by {@link Target#prepare(Collection, boolean)} on the main
+ * thread, so each save is written from a consistent snapshot. The write then runs on a
+ * dedicated background thread.
+ * <p/>
+ * All methods must be called on the main thread. The listener is also called on the main
+ * thread.
+ */
+public class SaveScheduler {
+
+    private static final String TAG = SaveScheduler.class.getSimpleName();
+
+    /**
+     * The default time to wait after the last change before saving, in milliseconds
+     */
+    public static final long DEFAULT_DELAY_MS = 1500;
+    /**
+     * The default longest time to wait after the first unsaved change before saving,
+     * in milliseconds
+     */
+    public static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+    /**
+     * Captures data to be saved
+     */
+    public interface Target {
+        /**
+         * Captures the data that a save should write. Called on the main thread.
+         *
+         * @param changed the colonies that have changed since the last save, in the order of their
+         *                first changes
+         * @param full    true if all colonies should be saved
+         * @return a write that saves the captured data, which will be run on another thread
+         * @throws IOException if the data could not be captured
+         */
+        Write prepare(Collection<Colony> changed, boolean full) throws IOException;
+    }
+
+    /**
+     * Writes captured data
+     */
+    public interface Write {
+        /**
+         * Writes the data. Called on the save thread.
+         *
+         * @throws IOException if the data could not be written
+         */
+        void write() throws IOException;
+    }
+
+    /**
+     * Receives notifications when saves finish
+     */
+    public interface Listener {
+        /**
+         * Called when a save finishes
+         *
+         * @param error the error that caused the save to fail, or null if the save succeeded
+         */
+        void saveFinished(Exception error);
+    }
+
+    private final Target mTarget;
+    private final long mDelay;
+    private final long mMaxDelay;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private Listener mListener;
+
+    /**
+     * Colonies that have changed since the last save, by ID
+     */
+    private final Map<String, Colony> mChanged = new LinkedHashMap<>();
+    /**
+     * If a save of all colonies has been requested
+     */
+    private boolean mFullRequested = false;
+    /**
+     * The time, from {@link SystemClock#elapsedRealtime()}, of the first change that has not
+     * been saved
+     */
+    private long mFirstChangeTime;
+    /**
+     * If a save is being written
+     */
+    private boolean mWriting = false;
+    /**
+     * The time, from {@link System#currentTimeMillis()}, when the last successful save finished,
+     * or 0 if no save has succeeded
+     */
+    private long mLastSaveTime = 0;
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveNow();
+        }
+    };
+
+    public SaveScheduler(Target target) {
+        this(target, DEFAULT_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param target   the target that captures data to save
+     * @param delay    the time to wait after the last change before saving, in milliseconds
+     * @param maxDelay the longest time to wait after the first unsaved change before saving,
+     *                 in milliseconds
+     */
+    public SaveScheduler(Target target, long delay, long maxDelay) {
+        mTarget = target;
+        mDelay = delay;
+        mMaxDelay = maxDelay;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Schedules a save of a colony that has changed
+     *
+     * @param colony the colony
+     */
+    public void colonyChanged(Colony colony) {
+        markPending();
+        mChanged.put(colony.getID(), colony);
+        schedule();
+    }
+
+    /**
+     * Schedules a save of all colonies
+     */
+    public void saveAll() {
+        markPending();
+        mFullRequested = true;
+        schedule();
+    }
+
+    /**
+     * Starts saving all pending changes now, without waiting for the delay. If a save is being
+     * written, the pending changes are saved when it finishes.
+     */
+    public void saveNow() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        if (mWriting || !hasChanges()) {
+            return;
+        }
+
+        final Write write;
+        try {
+            write = mTarget.prepare(new ArrayList<>(mChanged.values()), mFullRequested);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't prepare save", e);
+            notifyFinished(e);
+            return;
+        }
+        mChanged.clear();
+        mFullRequested = false;
+        mWriting = true;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    write.write();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Save failed", e);
+                    error = e;
+                }
+                final Exception finalError = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeFinished(finalError);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return true if there are changes that have not been saved, or a save is being written
+     */
+    public boolean isPending() {
+        return mWriting || hasChanges();
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, when the last successful save finished,
+     * or 0 if no save has succeeded
+     */
+    public long getLastSaveTime() {
+        return mLastSaveTime;
+    }
+
+    private void writeFinished(Exception error) {
+        mWriting = false;
+        if (error == null) {
+            mLastSaveTime = System.currentTimeMillis();
+        } else {
+            // The changes in the failed save were lost, so save everything next time
+            markPending();
+            mFullRequested = true;
+        }
+        notifyFinished(error);
+        if (hasChanges() && error == null) {
+            schedule();
+        }
+    }
+
+    private void notifyFinished(Exception error) {
+        if (mListener != null) {
+            mListener.saveFinished(error);
+        }
+    }
+
+    private boolean hasChanges() {
+        return mFullRequested || !mChanged.isEmpty();
+    }
+
+    /**
+     * Records the time of the first unsaved change
+     */
+    private void markPending() {
+        if (!hasChanges()) {
+            mFirstChangeTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private void schedule() {
+        if (mWriting) {
+            // Scheduled when the write finishes
+            return;
+        }
+        mHandler.removeCallbacks(mSaveRunnable);
+        final long maxDelayRemaining = mFirstChangeTime + mMaxDelay - SystemClock.elapsedRealtime();
+        mHandler.postDelayed(mSaveRunnable, Math.max(0, Math.min(mDelay, maxDelayRemaining)));
+    }
+}
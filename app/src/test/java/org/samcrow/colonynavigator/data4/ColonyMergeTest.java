@@ -0,0 +1,190 @@
+package org.samcrow.colonynavigator.data4;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColonyMergeTest {
+
+    private static final long SAVED_TIME = 1000000;
+
+    @Test
+    public void addsColoniesOnlyInCsv() {
+        final ColonySet ours = set();
+        final ColonySet csv = set();
+        csv.put("1", 3, 4, true);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, set(), csv, SAVED_TIME);
+
+        assertEquals(Collections.singletonList("1"), result.getAdded());
+        assertTrue(result.hasChanges());
+        final Colony added = ours.get("1");
+        assertNotNull(added);
+        assertPosition(added, 3, 4);
+        assertFalse(added.getFlag(AttributeKey.ACTIVE));
+    }
+
+    @Test
+    public void keepsColoniesWithSamePosition() {
+        final ColonySet ours = colonies(1, 2);
+        final ColonySet ancestor = colonies(5, 6);
+        final ColonySet csv = colonies(1, 2);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, ancestor, csv, SAVED_TIME + 1);
+
+        assertNoChanges(result);
+        assertPosition(ours.get("1"), 1, 2);
+        assertEquals(SAVED_TIME, ours.get("1").getUpdateTimeMillis());
+    }
+
+    @Test
+    public void keepsPositionChangedOnlyInApplication() {
+        final ColonySet ours = colonies(7, 8);
+        final ColonySet ancestor = colonies(1, 2);
+        final ColonySet csv = colonies(1, 2);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, ancestor, csv, SAVED_TIME + 1);
+
+        assertNoChanges(result);
+        assertPosition(ours.get("1"), 7, 8);
+    }
+
+    @Test
+    public void movesPositionChangedOnlyInCsv() {
+        final ColonySet ours = colonies(1, 2);
+        final ColonySet ancestor = colonies(1, 2);
+        final ColonySet csv = colonies(7, 8);
+
+        // The update time becomes the CSV time only if that is newer
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, ancestor, csv, SAVED_TIME - 1);
+
+        assertEquals(Collections.singletonList("1"), result.getChanged());
+        assertTrue(result.getAdded().isEmpty());
+        assertTrue(result.getConflicts().isEmpty());
+        assertTrue(result.hasChanges());
+        assertPosition(ours.get("1"), 7, 8);
+        assertEquals(SAVED_TIME, ours.get("1").getUpdateTimeMillis());
+    }
+
+    @Test
+    public void conflictUsesNewerCsvPosition() {
+        final ColonySet ours = colonies(3, 4);
+        final ColonySet ancestor = colonies(1, 2);
+        final ColonySet csv = colonies(7, 8);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, ancestor, csv, SAVED_TIME + 1);
+
+        assertConflict(result, true);
+        assertTrue(result.hasChanges());
+        assertPosition(ours.get("1"), 7, 8);
+        assertEquals(SAVED_TIME + 1, ours.get("1").getUpdateTimeMillis());
+    }
+
+    @Test
+    public void conflictKeepsNewerSavedPosition() {
+        final ColonySet ours = colonies(3, 4);
+        final ColonySet ancestor = colonies(1, 2);
+        final ColonySet csv = colonies(7, 8);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, ancestor, csv, SAVED_TIME);
+
+        assertConflict(result, false);
+        assertFalse(result.hasChanges());
+        assertPosition(ours.get("1"), 3, 4);
+        assertEquals(SAVED_TIME, ours.get("1").getUpdateTimeMillis());
+    }
+
+    @Test
+    public void differentPositionWithoutAncestorIsConflict() {
+        final ColonySet ours = colonies(3, 4);
+        final ColonySet csv = colonies(7, 8);
+        csv.put("2", 5, 6, false);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, null, csv, SAVED_TIME + 1);
+
+        assertEquals(Collections.singletonList("2"), result.getAdded());
+        assertConflict(result, true);
+        assertPosition(ours.get("1"), 7, 8);
+    }
+
+    @Test
+    public void colonyNotInAncestorIsConflict() {
+        final ColonySet ours = colonies(3, 4);
+        final ColonySet csv = colonies(7, 8);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, set(), csv, SAVED_TIME);
+
+        assertConflict(result, false);
+        assertPosition(ours.get("1"), 3, 4);
+    }
+
+    @Test
+    public void unchangedCsvOnlyAddsColonies() {
+        final ColonySet ours = colonies(3, 4);
+        final ColonySet csv = colonies(7, 8);
+        csv.put("2", 5, 6, false);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, csv, csv, SAVED_TIME + 1);
+
+        assertEquals(Collections.singletonList("2"), result.getAdded());
+        assertTrue(result.getChanged().isEmpty());
+        assertTrue(result.getConflicts().isEmpty());
+        assertPosition(ours.get("1"), 3, 4);
+        assertPosition(ours.get("2"), 5, 6);
+        assertPosition(csv.get("1"), 7, 8);
+    }
+
+    @Test
+    public void keepsColoniesOnlyInApplication() {
+        final ColonySet ours = colonies(3, 4);
+
+        final ColonyMerge.Result result = ColonyMerge.merge(ours, colonies(3, 4), set(),
+                SAVED_TIME + 1);
+
+        assertNoChanges(result);
+        assertEquals(1, ours.size());
+        assertPosition(ours.get("1"), 3, 4);
+    }
+
+    private static ColonySet set() {
+        return new ColonySet();
+    }
+
+    /**
+     * @return a set with one colony with ID 1, the provided position, and an update time of
+     * {@link #SAVED_TIME}
+     */
+    private static ColonySet colonies(double x, double y) {
+        final Colony colony = new Colony("1", x, y, true);
+        colony.setUpdateTime(new DateTime(SAVED_TIME));
+        final ColonySet set = new ColonySet();
+        set.put(colony);
+        return set;
+    }
+
+    private static void assertPosition(Colony colony, double x, double y) {
+        assertNotNull(colony);
+        assertEquals(x, colony.getX(), 0);
+        assertEquals(y, colony.getY(), 0);
+    }
+
+    private static void assertNoChanges(ColonyMerge.Result result) {
+        assertTrue(result.getAdded().isEmpty());
+        assertTrue(result.getChanged().isEmpty());
+        assertTrue(result.getConflicts().isEmpty());
+        assertFalse(result.hasChanges());
+    }
+
+    private static void assertConflict(ColonyMerge.Result result, boolean csvChosen) {
+        assertTrue(result.getChanged().isEmpty());
+        assertEquals(1, result.getConflicts().size());
+        assertEquals("1", result.getConflicts().get(0).getId());
+        assertEquals(csvChosen, result.getConflicts().get(0).isCsvChosen());
+    }
+}
@@ -0,0 +1,194 @@
+package org.samcrow.colonynavigator.data4;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColonySearchIndexTest {
+
+    /**
+     * A small alphabet, so random IDs share many prefixes and are often one edit apart
+     */
+    private static final String ALPHABET = "12ab";
+
+    @Test
+    public void ordersExactThenPrefixThenFuzzy() {
+        final ColonySet colonies = colonies("1234", "12345", "123", "1230", "1243", "124", "99");
+        final ColonySearchIndex index = new ColonySearchIndex(colonies);
+
+        assertEquals(Arrays.asList("123", "1230", "1234", "12345", "124", "1243"),
+                search(index, "123", 10));
+        assertEquals(Arrays.asList("123", "1230", "1234"), search(index, "123", 3));
+    }
+
+    @Test
+    public void ignoresCaseAndSpaces() {
+        final ColonySearchIndex index = new ColonySearchIndex(colonies("AB12", "ab3"));
+
+        assertEquals(Arrays.asList("ab3", "AB12"), search(index, " Ab ", 10));
+    }
+
+    @Test
+    public void findsShortestPrefixMatchesAfterLongerOnes() {
+        // The prefix matches are found in alphabetical order, so the search must not stop
+        // before it reaches the shorter IDs at the end
+        final ColonySearchIndex index = new ColonySearchIndex(
+                colonies("10000", "10001", "10002", "11", "12"));
+
+        assertEquals(Arrays.asList("11", "12"), search(index, "1", 2));
+    }
+
+    @Test
+    public void matchesBruteForceSearch() {
+        final Random random = new Random(2847);
+        for (int trial = 0; trial < 200; trial++) {
+            final List<String> ids = randomIds(random, 1 + random.nextInt(300));
+            final ColonySet colonies = new ColonySet();
+            // Add half of the IDs after the index is created, to test merging new IDs
+            final int initial = random.nextInt(ids.size() + 1);
+            for (String id : ids.subList(0, initial)) {
+                colonies.put(id, 0, 0, false);
+            }
+            final ColonySearchIndex index = new ColonySearchIndex(colonies);
+            for (String id : ids.subList(initial, ids.size())) {
+                colonies.put(id, 0, 0, false);
+            }
+
+            for (int q = 0; q < 50; q++) {
+                final String query = random.nextBoolean()
+                        ? randomId(random)
+                        : edit(random, ids.get(random.nextInt(ids.size())));
+                final int limit = 1 + random.nextInt(12);
+                assertEquals("query " + query + ", limit " + limit + ", IDs " + ids,
+                        bruteForceSearch(ids, query, limit), search(index, query, limit));
+            }
+        }
+    }
+
+    private static List<String> search(ColonySearchIndex index, String query, int limit) {
+        final List<String> result = new ArrayList<>();
+        index.search(query, limit, result);
+        return result;
+    }
+
+    /**
+     * Finds matches by comparing the query with every ID, in the order documented by
+     * {@link ColonySearchIndex#search(String, int, List)}
+     */
+    private static List<String> bruteForceSearch(List<String> ids, final String query,
+                                                 int limit) {
+        final List<String> prefixMatches = new ArrayList<>();
+        final List<String> fuzzyMatches = new ArrayList<>();
+        for (String id : ids) {
+            if (id.startsWith(query)) {
+                prefixMatches.add(id);
+            } else if (query.length() >= 3 && distance(id, query) <= 1) {
+                fuzzyMatches.add(id);
+            }
+        }
+        final Comparator<String> byLength = new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+            }
+        };
+        Collections.sort(prefixMatches, byLength);
+        Collections.sort(fuzzyMatches, byLength);
+        final List<String> result = new ArrayList<>(prefixMatches);
+        if (result.size() < limit) {
+            result.addAll(fuzzyMatches);
+        }
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /**
+     * Calculates the restricted Damerau-Levenshtein (optimal string alignment) distance between
+     * two strings
+     */
+    private static int distance(String a, String b) {
+        final int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(d[i - 1][j - 1] + cost,
+                        Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1));
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static List<String> randomIds(Random random, int count) {
+        final Set<String> ids = new HashSet<>();
+        while (ids.size() < count) {
+            ids.add(randomId(random));
+        }
+        final List<String> list = new ArrayList<>(ids);
+        Collections.shuffle(list, random);
+        return list;
+    }
+
+    private static String randomId(Random random) {
+        final int length = 1 + random.nextInt(6);
+        final StringBuilder id = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            id.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return id.toString();
+    }
+
+    /**
+     * Applies one random insertion, deletion, substitution, or transposition to an ID
+     */
+    private static String edit(Random random, String id) {
+        final StringBuilder edited = new StringBuilder(id);
+        final int position = random.nextInt(id.length());
+        final char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        switch (random.nextInt(4)) {
+            case 0:
+                edited.insert(position, c);
+                break;
+            case 1:
+                if (id.length() > 1) {
+                    edited.deleteCharAt(position);
+                }
+                break;
+            case 2:
+                edited.setCharAt(position, c);
+                break;
+            default:
+                if (position + 1 < id.length()) {
+                    edited.setCharAt(position, id.charAt(position + 1));
+                    edited.setCharAt(position + 1, id.charAt(position));
+                }
+                break;
+        }
+        return edited.toString();
+    }
+
+    private static ColonySet colonies(String... ids) {
+        final ColonySet colonies = new ColonySet();
+        for (String id : ids) {
+            colonies.put(id, 0, 0, false);
+        }
+        return colonies;
+    }
+}
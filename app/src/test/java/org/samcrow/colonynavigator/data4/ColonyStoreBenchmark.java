@@ -0,0 +1,95 @@
+package org.samcrow.colonynavigator.data4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the memory used by a {@link ColonySet} and the time taken to build it, look up
+ * colonies by ID, and read census flags
+ * <p/>
+ * Only methods of {@link Colony} and {@link ColonySet} that existed before colony data was moved
+ * into a {@link ColonyStore} are used, so the same file can be compiled against an older
+ * version of the application to compare the two.
+ * <p/>
+ * Memory is the increase in heap use, after garbage collection, while the set is reachable.
+ * Each measurement is repeated, and the median and minimum are printed.
+ * <p/>
+ * Usage: ColonyStoreBenchmark [colonies] [rounds]
+ */
+public class ColonyStoreBenchmark {
+
+    private static final String VISITED = "census.visited";
+    private static final int OPERATIONS = 500000;
+
+    public static void main(String[] args) {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 11;
+
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = Integer.toString(i + 1);
+        }
+        final Random random = new Random(1);
+        final String[] lookups = new String[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            lookups[i] = ids[random.nextInt(count)];
+        }
+
+        final long[] retained = new long[rounds];
+        final long[] build = new long[rounds];
+        final long[] get = new long[rounds];
+        final long[] flags = new long[rounds];
+        // Keeps the results used, so the work is not optimized away
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long before = usedMemory();
+
+            long start = System.nanoTime();
+            final ColonySet colonies = new ColonySet();
+            for (int i = 0; i < count; i++) {
+                final Colony colony = new Colony(ids[i], i % 1000, i / 1000, true);
+                colony.setAttribute(VISITED, i % 3 == 0);
+                colonies.put(colony);
+            }
+            build[round] = System.nanoTime() - start;
+            retained[round] = usedMemory() - before;
+
+            start = System.nanoTime();
+            final Colony[] found = new Colony[OPERATIONS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                found[i] = colonies.get(lookups[i]);
+            }
+            get[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Colony colony : found) {
+                if (Boolean.TRUE.equals(colony.getAttribute(VISITED))) {
+                    checksum++;
+                }
+            }
+            flags[round] = System.nanoTime() - start;
+            checksum += colonies.get(ids[0]).getID().length();
+        }
+
+        System.out.println(count + " colonies, " + rounds + " rounds, checksum " + checksum);
+        print("Retained MB", retained, 1e6);
+        print("Build ms", build, 1e6);
+        print(OPERATIONS / 1000 + "k get() ms", get, 1e6);
+        print(OPERATIONS / 1000 + "k flag reads ms", flags, 1e6);
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, long[] values, double divisor) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-20s median %8.1f  min %8.1f", name,
+                sorted[sorted.length / 2] / divisor, sorted[0] / divisor));
+    }
+}
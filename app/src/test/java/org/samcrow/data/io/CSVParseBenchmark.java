@@ -0,0 +1,144 @@
+package org.samcrow.data.io;
+
+import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the time needed to parse a colony CSV file with {@link CSVFileParser} and
+ * {@link CSVScanner}, and with the previous implementation, which split each line with a
+ * regular expression
+ * <p/>
+ * The file is generated with the given number of lines in the format written by
+ * {@link CSVFileParser}. The scanner is measured separately from reading the file, with one
+ * chunk and with four chunks on four threads. Each operation is run a few times to warm up, and
+ * then the given number of times.
+ * <p/>
+ * Usage: CSVParseBenchmark [lines] [rounds]
+ */
+public class CSVParseBenchmark {
+
+    private static final int WARM_UP = 3;
+    private static final int CHUNKS = 4;
+
+    private interface Operation {
+        ColonySet run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final Random random = new Random(1);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i + 1).append(',')
+                    .append(random.nextInt(1000)).append(',')
+                    .append(random.nextInt(1000)).append(',')
+                    .append(random.nextBoolean() ? 'A' : ' ').append(",,\n");
+        }
+        final String text = builder.toString();
+        final char[] chars = text.toCharArray();
+        final byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+        System.out.println(String.format("%d lines, %.1f MB", count, bytes.length / 1e6));
+        System.out.println(String.format("%-18s %9s %9s", "Operation", "Median ms", "Min ms"));
+
+        measure("Parse previous", rounds, new Operation() {
+            @Override
+            public ColonySet run() throws IOException {
+                return previousParse(new ByteArrayInputStream(bytes));
+            }
+        });
+        measure("Parse", rounds, new Operation() {
+            @Override
+            public ColonySet run() throws IOException {
+                return CSVFileParser.parseFromStream(new ByteArrayInputStream(bytes));
+            }
+        });
+        measure("Scan, 1 chunk", rounds, new Operation() {
+            @Override
+            public ColonySet run() {
+                return CSVScanner.parse(chars, chars.length, null);
+            }
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(CHUNKS);
+        try {
+            measure("Scan, " + CHUNKS + " chunks", rounds, new Operation() {
+                @Override
+                public ColonySet run() throws IOException {
+                    return CSVScanner.parse(chars, chars.length, CHUNKS, executor, null);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void measure(String name, int rounds, Operation operation)
+            throws IOException {
+        for (int i = 0; i < WARM_UP; i++) {
+            operation.run();
+        }
+        final long[] times = new long[rounds];
+        int size = 0;
+        for (int i = 0; i < rounds; i++) {
+            final long start = System.nanoTime();
+            size = operation.run().size();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.println(String.format("%-18s %9.1f %9.1f  (%d colonies)", name,
+                times[rounds / 2] / 1e6, times[0] / 1e6, size));
+    }
+
+    /**
+     * The previous CSVFileParser.parseFromStream
+     */
+    private static ColonySet previousParse(InputStream in) throws IOException {
+        ColonySet colonies = new ColonySet();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            Colony colony = previousParseOne(line);
+            if (colony != null) {
+                colonies.put(colony);
+            }
+        }
+        reader.close();
+        return colonies;
+    }
+
+    /**
+     * The previous CSVParser.parseOneStatic
+     */
+    private static Colony previousParseOne(String line) {
+        line = line.trim();
+        String[] parts = line.split("\\s*,\\s*");
+        try {
+            String colonyId = parts[0];
+            int x = Integer.parseInt(parts[1]);
+            int y = Integer.parseInt(parts[2]);
+
+            final Colony colony = new Colony(colonyId);
+            colony.setX(x);
+            colony.setY(y);
+            colony.setAttribute("census.active", false);
+            return colony;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.samcrow.data.io;
+
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.samcrow.colonynavigator.data4.AttributeKey;
+import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time and memory allocation needed to read and write a colonies.json file with
+ * {@link JSONFileParser}, and with the previous implementation, which built the whole document
+ * with org.json
+ * <p/>
+ * The file is generated with the given number of colonies at random positions, to the nearest
+ * decimeter, with random flags and update times. Each operation is run a few times to warm up,
+ * and then the given number of times.
+ * <p/>
+ * Usage: JSONFileBenchmark [colonies] [rounds]
+ */
+public class JSONFileBenchmark extends JSONParser {
+
+    private static final int WARM_UP = 3;
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final List<Colony> colonies = makeColonies(count);
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        JSONFileParser.writeToStream(file, colonies);
+        final byte[] bytes = file.toByteArray();
+        System.out.println(String.format("%d colonies, %.1f MB", count, bytes.length / 1e6));
+        System.out.println(String.format("%-15s %9s %9s %13s", "Operation", "Median ms",
+                "Min ms", "Allocated MB"));
+
+        measure("Parse previous", rounds, new Operation() {
+            @Override
+            public void run() throws IOException {
+                previousParse(new ByteArrayInputStream(bytes));
+            }
+        });
+        measure("Parse", rounds, new Operation() {
+            @Override
+            public void run() throws IOException {
+                JSONFileParser.parseFromStream(new ByteArrayInputStream(bytes));
+            }
+        });
+        measure("Write previous", rounds, new Operation() {
+            @Override
+            public void run() throws IOException {
+                previousWrite(new ByteArrayOutputStream(bytes.length), colonies);
+            }
+        });
+        measure("Write", rounds, new Operation() {
+            @Override
+            public void run() throws IOException {
+                JSONFileParser.writeToStream(new ByteArrayOutputStream(bytes.length), colonies);
+            }
+        });
+    }
+
+    private static List<Colony> makeColonies(int count) {
+        final Random random = new Random(1);
+        final DateTime now = DateTime.now();
+        final List<Colony> colonies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Colony colony = new Colony(Integer.toString(i + 1),
+                    random.nextInt(10000) / 10.0, random.nextInt(10000) / 10.0,
+                    random.nextBoolean());
+            colony.setFlag(AttributeKey.VISITED, random.nextBoolean());
+            colony.setUpdateTime(now.minusMinutes(random.nextInt(100000)));
+            colonies.add(colony);
+        }
+        return colonies;
+    }
+
+    private static void measure(String name, int rounds, Operation operation)
+            throws IOException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP; i++) {
+            operation.run();
+        }
+        final long[] times = new long[rounds];
+        long allocated = 0;
+        for (int i = 0; i < rounds; i++) {
+            final long startAllocated = threads.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+            operation.run();
+            times[i] = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(threadId) - startAllocated;
+        }
+        Arrays.sort(times);
+        System.out.println(String.format("%-15s %9.1f %9.1f %13.1f", name,
+                times[rounds / 2] / 1e6, times[0] / 1e6, allocated / 1e6 / rounds));
+    }
+
+    /**
+     * The previous JSONFileParser.parseFromStream
+     */
+    private static ColonySet previousParse(InputStream in) throws IOException {
+        try {
+            ColonySet colonies = new ColonySet();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+
+            StringBuilder jsonText = new StringBuilder();
+            while (true) {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                jsonText.append(line);
+            }
+            reader.close();
+
+            JSONObject jsonRoot = new JSONObject(jsonText.toString());
+            JSONArray colonyArray = jsonRoot.getJSONArray("colonies");
+            for (int i = 0, max = colonyArray.length(); i < max; i++) {
+                colonies.put(fromJSON(colonyArray.getJSONObject(i)));
+            }
+            return colonies;
+        } catch (JSONException e) {
+            throw new IOException("Could not parse JSON", e);
+        }
+    }
+
+    /**
+     * The previous JSONFileParser.writeToStream
+     */
+    private static void previousWrite(OutputStream out, Iterable<? extends Colony> values)
+            throws IOException {
+        try {
+            JSONObject jsonRoot = new JSONObject();
+            JSONArray colonyArray = new JSONArray();
+            for (Colony colony : values) {
+                colonyArray.put(toJSON(colony));
+            }
+            jsonRoot.put("colonies", colonyArray);
+            jsonRoot.put("comment", "Serialized into JSON by JSONFileParser at "
+                    + DateTime.now() + ".");
+            PrintStream stream = new PrintStream(out);
+            stream.println(jsonRoot.toString());
+        } catch (JSONException e) {
+            throw new IOException("Could not write JSON", e);
+        }
+    }
+}
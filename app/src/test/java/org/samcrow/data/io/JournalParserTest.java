@@ -0,0 +1,88 @@
+package org.samcrow.data.io;
+
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.samcrow.colonynavigator.data4.AttributeKey;
+import org.samcrow.colonynavigator.data4.Colony;
+import org.samcrow.colonynavigator.data4.ColonySet;
+import org.samcrow.colonynavigator.data4.ColonySnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class JournalParserTest {
+
+    private static final byte[] KEY = {1, 2, 3};
+    private static final long EDIT_TIME = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replayAfterSnapshotKeepsFocus() throws IOException {
+        final ColonySet colonies = new ColonySet();
+        final Colony focus = new Colony("1", 10, 20, true);
+        focus.setFlag(AttributeKey.FOCUS, true);
+        colonies.put(focus);
+        colonies.put(new Colony("2", 30, 40, true));
+        final File snapshot = mFolder.newFile("snapshot");
+        ColonySnapshot.write(colonies, KEY, snapshot);
+
+        // Edit the focus colony and journal the change
+        focus.setX(11);
+        focus.setFlag(AttributeKey.VISITED, true);
+        focus.setUpdateTime(new DateTime(EDIT_TIME));
+        final ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        JournalParser.appendEntry(journal, JournalParser.encodeEntry(focus));
+
+        // Reload
+        final ColonySet loaded = ColonySnapshot.read(snapshot, KEY);
+        assertNotNull(loaded);
+        assertEquals(1, replay(journal, loaded));
+
+        final Colony reloaded = loaded.get("1");
+        assertNotNull(reloaded);
+        assertTrue(reloaded.getFlag(AttributeKey.FOCUS));
+        assertTrue(reloaded.getFlag(AttributeKey.VISITED));
+        assertTrue(reloaded.getFlag(AttributeKey.ACTIVE));
+        assertEquals(11, reloaded.getX(), 0);
+        assertEquals(20, reloaded.getY(), 0);
+        assertEquals(EDIT_TIME, reloaded.getUpdateTimeMillis());
+        assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void laterEntriesOverrideEarlierEntries() throws IOException {
+        final Colony colony = new Colony("1", 10, 20, true);
+        final ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        colony.setFlag(AttributeKey.VISITED, true);
+        JournalParser.appendEntry(journal, JournalParser.encodeEntry(colony));
+        colony.setFlag(AttributeKey.VISITED, false);
+        colony.setY(25);
+        colony.setUpdateTime(new DateTime(EDIT_TIME));
+        JournalParser.appendEntry(journal, JournalParser.encodeEntry(colony));
+
+        final ColonySet colonies = new ColonySet();
+        assertEquals(2, replay(journal, colonies));
+
+        final Colony replayed = colonies.get("1");
+        assertNotNull(replayed);
+        assertFalse(replayed.getFlag(AttributeKey.VISITED));
+        assertEquals(25, replayed.getY(), 0);
+        assertEquals(EDIT_TIME, replayed.getUpdateTimeMillis());
+    }
+
+    private static int replay(ByteArrayOutputStream journal, ColonySet colonies)
+            throws IOException {
+        return JournalParser.replay(new ByteArrayInputStream(journal.toByteArray()), colonies);
+    }
+}
@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Renders the tiles of Site.map with each render theme the application can use, and prints
+# the render time and memory allocated per tile for each theme and zoom level.
+#
+# This needs the same jars in the plugins folder as generate_tiles.sh.
+#
+# Settings can be changed with environment variables:
+#   TILE_SIZE  tile size in pixels
+#   MIN_ZOOM, MAX_ZOOM  the range of zoom levels to render
+#   PASSES  the number of times each tile is rendered after warming up
+
+set -e
+cd "$(dirname "$0")"
+
+TILE_SIZE=${TILE_SIZE:-512}
+MIN_ZOOM=${MIN_ZOOM:-13}
+MAX_ZOOM=${MAX_ZOOM:-18}
+PASSES=${PASSES:-3}
+# Must match MainActivity.TEXT_SCALE
+TEXT_SCALE=1.5
+
+mkdir -p build
+javac -cp "plugins/*" -d build tiles/Themes.java tiles/TileRenderBenchmark.java
+java -Djava.awt.headless=true -cp "build:plugins/*" TileRenderBenchmark \
+    Site.map "$TILE_SIZE" "$MIN_ZOOM" "$MAX_ZOOM" "$TEXT_SCALE" "$PASSES"
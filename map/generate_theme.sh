@@ -0,0 +1,14 @@
+#!/bin/bash
+
+# Generates the site render theme, app/src/main/assets/site_theme.xml, with rules for only the
+# tags used in Site.osm. The styles are in tiles/SiteThemeGenerator.java.
+#
+# Run this after changing Site.osm or the styles, then run generate_tiles.sh to render the
+# tile archive again.
+
+set -e
+cd "$(dirname "$0")"
+
+mkdir -p build ../app/src/main/assets
+javac -d build tiles/SiteThemeGenerator.java
+java -cp build SiteThemeGenerator Site.osm ../app/src/main/assets/site_theme.xml
@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Pre-renders the map tiles for the site into app/src/main/assets/site.tiles. The application
+# draws tiles from this archive, and only renders tiles that are not in it.
+#
+# Run this after generate.sh, whenever Site.map changes. The application ignores an archive
+# that is older than the map.
+#
+# Before running, download these jars from https://search.maven.org and place them in the
+# plugins folder:
+#   mapsforge-core, mapsforge-map, mapsforge-map-reader, mapsforge-themes, mapsforge-map-awt
+#   (the same version as the application), kxml2 and svg-salamander
+#
+# Settings can be changed with environment variables:
+#   TILE_SIZE  tile size in pixels, 256 times the display scale factor of the device
+#              (for example 512 for an xhdpi tablet). Tiles are scaled on devices with
+#              a different tile size.
+#   MIN_ZOOM, MAX_ZOOM  the range of zoom levels to render. Each zoom level has about four
+#              times as many tiles as the one before it.
+#   THEME      the render theme, SITE or OSMARENDER. The application only uses the archive
+#              when the same theme is selected.
+
+set -e
+cd "$(dirname "$0")"
+
+TILE_SIZE=${TILE_SIZE:-512}
+MIN_ZOOM=${MIN_ZOOM:-15}
+MAX_ZOOM=${MAX_ZOOM:-18}
+THEME=${THEME:-SITE}
+# Must match MainActivity.TEXT_SCALE
+TEXT_SCALE=1.5
+
+mkdir -p build ../app/src/main/assets
+javac -cp "plugins/*" -d build tiles/Themes.java tiles/TileArchiveBuilder.java
+java -Djava.awt.headless=true -cp "build:plugins/*" TileArchiveBuilder \
+    Site.map ../app/src/main/assets/site.tiles "$TILE_SIZE" "$MIN_ZOOM" "$MAX_ZOOM" "$TEXT_SCALE" "$THEME"
@@ -0,0 +1,260 @@
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Generates a render theme with rules for only the tags that are used in an OSM file
+ * <p/>
+ * The styles are listed below, in drawing order. A style is written to the theme only for the
+ * values of its key that appear in the OSM file, so the theme has no rules that never match.
+ * Values of the styled keys that do not have a style are listed when the theme is written.
+ * <p/>
+ * Usage: SiteThemeGenerator osm-file theme-file
+ */
+public class SiteThemeGenerator {
+
+    private static final String NODE = "node";
+    private static final String WAY = "way";
+
+    private static final Style[] STYLES = {
+            // Areas
+            way("landuse", "orchard", 0, "<area fill=\"#e3efcf\" />"),
+            way("leisure", "park", 0, "<area fill=\"#cdebc0\" stroke=\"#b5d6a5\" stroke-width=\"0.3\" />"),
+            way("amenity", "parking", 16, "<area fill=\"#f0efe0\" stroke=\"#d6d3b5\" stroke-width=\"0.3\" />"),
+            way("natural", "water", 0, "<area fill=\"#b5d0e6\" stroke=\"#8fb0cc\" stroke-width=\"0.3\" />"),
+            way("landuse", "reservoir", 0, "<area fill=\"#b5d0e6\" stroke=\"#8fb0cc\" stroke-width=\"0.3\" />"),
+            way("building", "*", 15, "<area fill=\"#d9ccbf\" stroke=\"#b3a393\" stroke-width=\"0.3\" />"),
+
+            // Lines that are not roads
+            way("waterway", "stream", 14, "<line stroke=\"#8fb0cc\" stroke-width=\"0.8\" />"),
+            way("waterway", "river", 0, "<line stroke=\"#8fb0cc\" stroke-width=\"2.0\" />"),
+            way("natural", "tree_row", 16, "<line stroke=\"#9cc28a\" stroke-width=\"1.5\" stroke-linecap=\"round\" />"),
+            way("barrier", "fence|guard_rail", 16, "<line stroke=\"#8c8c8c\" stroke-width=\"0.3\" />"),
+            way("barrier", "wall", 16, "<line stroke=\"#8c8c8c\" stroke-width=\"0.6\" />"),
+
+            // Road casings, then road cores, so that intersections are not outlined
+            way("highway", "service", 0, "<line stroke=\"#a6a6a6\" stroke-width=\"1.3\" />"),
+            way("highway", "residential|unclassified", 0, "<line stroke=\"#a6a6a6\" stroke-width=\"1.8\" />"),
+            way("highway", "tertiary", 0, "<line stroke=\"#8c8c8c\" stroke-width=\"2.3\" />"),
+            way("highway", "secondary", 0, "<line stroke=\"#8c8c8c\" stroke-width=\"2.7\" />"),
+            way("highway", "primary", 0, "<line stroke=\"#8c8c8c\" stroke-width=\"3.1\" />"),
+            way("highway", "path|footway", 15, "<line stroke=\"#c07070\" stroke-width=\"0.4\" stroke-dasharray=\"3,2\" stroke-linecap=\"butt\" />"),
+            way("highway", "track", 0, "<line stroke=\"#a08050\" stroke-width=\"0.7\" stroke-dasharray=\"6,3\" stroke-linecap=\"butt\" />"),
+            way("highway", "service", 0, "<line stroke=\"#ffffff\" stroke-width=\"1.0\" />"),
+            way("highway", "residential|unclassified", 0, "<line stroke=\"#ffffff\" stroke-width=\"1.4\" />"),
+            way("highway", "tertiary", 0, "<line stroke=\"#ffffb3\" stroke-width=\"1.9\" />"),
+            way("highway", "secondary", 0, "<line stroke=\"#fdd6a4\" stroke-width=\"2.3\" />"),
+            way("highway", "primary", 0, "<line stroke=\"#fcbf83\" stroke-width=\"2.7\" />"),
+
+            way("boundary", "administrative", 0, "<line stroke=\"#a385a3\" stroke-width=\"1.0\" stroke-dasharray=\"8,4\" stroke-linecap=\"butt\" />"),
+            way("boundary", "national_park|protected_area", 0, "<line stroke=\"#70a870\" stroke-width=\"1.0\" stroke-dasharray=\"8,4\" stroke-linecap=\"butt\" />"),
+            way("leisure", "nature_reserve", 0, "<line stroke=\"#70a870\" stroke-width=\"1.0\" stroke-dasharray=\"8,4\" stroke-linecap=\"butt\" />"),
+
+            // Labels
+            way("highway", "*", 15, "<pathText k=\"name\" font-style=\"bold\" font-size=\"9\" fill=\"#404040\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("waterway", "*", 16, "<pathText k=\"name\" font-style=\"italic\" font-size=\"9\" fill=\"#4a7099\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("natural", "water", 16, "<caption k=\"name\" font-style=\"italic\" font-size=\"9\" fill=\"#4a7099\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("landuse", "reservoir", 16, "<caption k=\"name\" font-style=\"italic\" font-size=\"9\" fill=\"#4a7099\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("leisure", "park", 16, "<caption k=\"name\" font-size=\"9\" fill=\"#407040\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("amenity", "*", 17, "<caption k=\"name\" font-size=\"9\" fill=\"#404040\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            way("tourism", "*", 17, "<caption k=\"name\" font-size=\"9\" fill=\"#404040\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+
+            // Points
+            node("natural", "tree", 17, "<circle radius=\"1.5\" scale-radius=\"true\" fill=\"#8fba7a\" stroke=\"#6f9a5a\" stroke-width=\"0.3\" />"),
+            node("highway", "turning_circle", 16, "<circle radius=\"1.4\" scale-radius=\"true\" fill=\"#ffffff\" stroke=\"#a6a6a6\" stroke-width=\"0.3\" />"),
+            node("barrier", "gate|cattle_grid", 16, "<circle radius=\"1.2\" scale-radius=\"true\" fill=\"#666666\" />"),
+            node("ford", "yes", 16, "<circle radius=\"1.2\" scale-radius=\"true\" fill=\"#8fb0cc\" />"),
+            node("man_made", "windmill", 16, "<circle radius=\"1.5\" scale-radius=\"true\" fill=\"#8c6d46\" />"),
+            node("natural", "peak", 13, "<circle radius=\"1.5\" scale-radius=\"true\" fill=\"#a0522d\" />",
+                    "<caption k=\"name\" dy=\"-6\" font-size=\"9\" fill=\"#603010\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+            node("tourism", "*", 17, "<caption k=\"name\" font-size=\"9\" fill=\"#404040\" stroke=\"#ffffff\" stroke-width=\"2.0\" />"),
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: SiteThemeGenerator osm-file theme-file");
+            System.exit(1);
+        }
+        // Tag values by element type and key, with the number of elements that use each value
+        final Map<String, Map<String, Map<String, Integer>>> tags = readTags(args[0]);
+
+        int ruleCount = 0;
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(args[1]), StandardCharsets.UTF_8))) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<!-- Generated by map/generate_theme.sh from the tags used in Site.osm. To change the");
+            out.println("     styles, edit map/tiles/SiteThemeGenerator.java and run generate_theme.sh again. -->");
+            out.println("<rendertheme xmlns=\"http://mapsforge.org/renderTheme\" map-background=\"#f4f2ee\"");
+            out.println("    map-background-outside=\"#dddddd\" version=\"5\">");
+            for (Style style : STYLES) {
+                final List<String> values = style.presentValues(tags);
+                if (values.isEmpty()) {
+                    continue;
+                }
+                out.print("    <rule e=\"" + style.element + "\" k=\"" + style.key + "\" v=\""
+                        + String.join("|", values) + "\"");
+                if (style.zoomMin != 0) {
+                    out.print(" zoom-min=\"" + style.zoomMin + "\"");
+                }
+                out.println(">");
+                for (String instruction : style.instructions) {
+                    out.println("        " + instruction);
+                }
+                out.println("    </rule>");
+                ruleCount++;
+            }
+            out.println("</rendertheme>");
+        }
+        System.out.println("Wrote " + ruleCount + " rules to " + args[1]);
+        reportUnstyled(tags);
+    }
+
+    /**
+     * Prints the values of styled keys that no style matches
+     */
+    private static void reportUnstyled(Map<String, Map<String, Map<String, Integer>>> tags) {
+        for (Map.Entry<String, Map<String, Map<String, Integer>>> element : tags.entrySet()) {
+            for (Map.Entry<String, Map<String, Integer>> key : element.getValue().entrySet()) {
+                for (Map.Entry<String, Integer> value : key.getValue().entrySet()) {
+                    if (isStyledKey(element.getKey(), key.getKey())
+                            && !isStyled(element.getKey(), key.getKey(), value.getKey())) {
+                        System.out.println("No style for " + element.getKey() + " "
+                                + key.getKey() + "=" + value.getKey() + " (" + value.getValue()
+                                + ")");
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isStyledKey(String element, String key) {
+        for (Style style : STYLES) {
+            if (style.element.equals(element) && style.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isStyled(String element, String key, String value) {
+        for (Style style : STYLES) {
+            if (style.element.equals(element) && style.key.equals(key) && style.matches(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the tags of the nodes and ways in an OSM file. Relations are counted as ways,
+     * because the map writer converts multipolygon relations into ways.
+     */
+    private static Map<String, Map<String, Map<String, Integer>>> readTags(String path)
+            throws IOException, XMLStreamException {
+        final Map<String, Map<String, Map<String, Integer>>> tags = new TreeMap<>();
+        tags.put(NODE, new TreeMap<String, Map<String, Integer>>());
+        tags.put(WAY, new TreeMap<String, Map<String, Integer>>());
+        try (InputStream stream = new FileInputStream(path)) {
+            final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
+            Map<String, Map<String, Integer>> current = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                final String name = reader.getLocalName();
+                if (name.equals(NODE)) {
+                    current = tags.get(NODE);
+                } else if (name.equals(WAY) || name.equals("relation")) {
+                    current = tags.get(WAY);
+                } else if (name.equals("tag") && current != null) {
+                    final String key = reader.getAttributeValue(null, "k");
+                    final String value = reader.getAttributeValue(null, "v");
+                    Map<String, Integer> values = current.get(key);
+                    if (values == null) {
+                        values = new TreeMap<>();
+                        current.put(key, values);
+                    }
+                    final Integer count = values.get(value);
+                    values.put(value, count == null ? 1 : count + 1);
+                }
+            }
+            reader.close();
+        }
+        return tags;
+    }
+
+    private static Style way(String key, String values, int zoomMin, String... instructions) {
+        return new Style(WAY, key, values, zoomMin, instructions);
+    }
+
+    private static Style node(String key, String values, int zoomMin, String... instructions) {
+        return new Style(NODE, key, values, zoomMin, instructions);
+    }
+
+    /**
+     * Render instructions for elements with a key and one of a set of values
+     */
+    private static class Style {
+        final String element;
+        final String key;
+        /**
+         * The values, or "*" for any value
+         */
+        final Set<String> values;
+        /**
+         * The minimum zoom level, or 0 for all zoom levels
+         */
+        final int zoomMin;
+        final String[] instructions;
+
+        Style(String element, String key, String values, int zoomMin, String[] instructions) {
+            this.element = element;
+            this.key = key;
+            this.values = new HashSet<>(Arrays.asList(values.split("\\|")));
+            this.zoomMin = zoomMin;
+            this.instructions = instructions;
+        }
+
+        boolean matches(String value) {
+            return values.contains("*") || values.contains(value);
+        }
+
+        /**
+         * Returns the values of this style that are used by elements in the OSM file, in sorted
+         * order, or "*" if this style matches any value and the key is used
+         */
+        List<String> presentValues(Map<String, Map<String, Map<String, Integer>>> tags) {
+            final Map<String, Integer> used = tags.get(element).get(key);
+            final List<String> result = new ArrayList<>();
+            if (used == null) {
+                return result;
+            }
+            if (values.contains("*")) {
+                result.add("*");
+                return result;
+            }
+            for (String value : used.keySet()) {
+                if (values.contains(value)) {
+                    result.add(value);
+                }
+            }
+            return result;
+        }
+    }
+}
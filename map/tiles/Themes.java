@@ -0,0 +1,36 @@
+import org.mapsforge.map.rendertheme.ExternalRenderTheme;
+import org.mapsforge.map.rendertheme.InternalRenderTheme;
+import org.mapsforge.map.rendertheme.XmlRenderTheme;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Loads the render themes that the application can use, by the names of
+ * org.samcrow.colonynavigator.map.MapTheme. Paths are relative to the map folder.
+ */
+final class Themes {
+
+    /**
+     * The names of all themes
+     */
+    static final String[] NAMES = {"SITE", "OSMARENDER"};
+
+    /**
+     * The site theme, created by generate_theme.sh
+     */
+    private static final String SITE_THEME = "../app/src/main/assets/site_theme.xml";
+
+    private Themes() {
+    }
+
+    static XmlRenderTheme forName(String name) throws FileNotFoundException {
+        switch (name) {
+            case "SITE":
+                return new ExternalRenderTheme(SITE_THEME);
+            case "OSMARENDER":
+                return InternalRenderTheme.OSMARENDER;
+            default:
+                throw new IllegalArgumentException("Unknown theme " + name);
+        }
+    }
+}
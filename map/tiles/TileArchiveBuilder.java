@@ -0,0 +1,148 @@
+import org.mapsforge.core.graphics.GraphicFactory;
+import org.mapsforge.core.graphics.TileBitmap;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.awt.graphics.AwtGraphicFactory;
+import org.mapsforge.map.layer.cache.InMemoryTileCache;
+import org.mapsforge.map.layer.labels.TileBasedLabelStore;
+import org.mapsforge.map.layer.renderer.DatabaseRenderer;
+import org.mapsforge.map.layer.renderer.RendererJob;
+import org.mapsforge.map.model.DisplayModel;
+import org.mapsforge.map.reader.MapFile;
+import org.mapsforge.map.rendertheme.rule.RenderThemeFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the tiles of a map file for a range of zoom levels and writes them to a packed tile
+ * archive, in the format read by org.samcrow.colonynavigator.map.PackedTileArchive
+ * <p/>
+ * Tiles are rendered with the same settings as the application: labels drawn into the tiles and
+ * no transparency. The theme is one of the names in {@link Themes}, and is recorded in the archive
+ * so that the application only uses the archive with the same theme.
+ * <p/>
+ * Usage: TileArchiveBuilder map-file archive-file tile-size min-zoom max-zoom text-scale theme
+ */
+public class TileArchiveBuilder {
+
+    private static final byte[] MAGIC = {'C', 'N', 'T', 'A'};
+    private static final int VERSION = 1;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 7) {
+            System.err.println("Usage: TileArchiveBuilder map-file archive-file tile-size min-zoom max-zoom text-scale theme");
+            System.exit(1);
+        }
+        final File mapPath = new File(args[0]);
+        final File archivePath = new File(args[1]);
+        final int tileSize = Integer.parseInt(args[2]);
+        final byte minZoom = Byte.parseByte(args[3]);
+        final byte maxZoom = Byte.parseByte(args[4]);
+        final float textScale = Float.parseFloat(args[5]);
+        final String themeName = args[6];
+
+        // Symbols and lines are scaled like they are on a device with this tile size
+        DisplayModel.setDeviceScaleFactor(tileSize / 256f);
+        final DisplayModel displayModel = new DisplayModel();
+        displayModel.setFixedTileSize(tileSize);
+
+        final GraphicFactory graphicFactory = AwtGraphicFactory.INSTANCE;
+        final MapFile mapFile = new MapFile(mapPath);
+        final RenderThemeFuture theme = new RenderThemeFuture(graphicFactory,
+                Themes.forName(themeName), displayModel);
+        theme.run();
+        // Rendered tiles are kept so that labels are not drawn twice across tile edges
+        final InMemoryTileCache renderedTiles = new InMemoryTileCache(256);
+        final DatabaseRenderer renderer = new DatabaseRenderer(mapFile, graphicFactory,
+                renderedTiles, new TileBasedLabelStore(256), true, false, null);
+
+        final BoundingBox bounds = mapFile.boundingBox();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        // Offsets of images already in the data, by content
+        final Map<ByteBuffer, Integer> imageOffsets = new HashMap<>();
+        final List<int[]> ranges = new ArrayList<>();
+        final List<int[]> indexes = new ArrayList<>();
+        int tileCount = 0;
+        int uniqueCount = 0;
+
+        for (byte zoom = minZoom; zoom <= maxZoom; zoom++) {
+            final int minX = MercatorProjection.longitudeToTileX(bounds.minLongitude, zoom);
+            final int maxX = MercatorProjection.longitudeToTileX(bounds.maxLongitude, zoom);
+            final int minY = MercatorProjection.latitudeToTileY(bounds.maxLatitude, zoom);
+            final int maxY = MercatorProjection.latitudeToTileY(bounds.minLatitude, zoom);
+            final int width = maxX - minX + 1;
+            final int height = maxY - minY + 1;
+            ranges.add(new int[]{zoom, minX, minY, width, height});
+            final int[] index = new int[width * height * 2];
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    final Tile tile = new Tile(x, y, zoom, tileSize);
+                    final RendererJob job = new RendererJob(tile, mapFile, theme, displayModel,
+                            textScale, false, false);
+                    final TileBitmap bitmap = renderer.executeJob(job);
+                    if (bitmap == null) {
+                        continue;
+                    }
+                    renderedTiles.put(job, bitmap);
+                    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+                    bitmap.compress(png);
+                    bitmap.decrementRefCount();
+
+                    final ByteBuffer image = ByteBuffer.wrap(png.toByteArray());
+                    Integer offset = imageOffsets.get(image);
+                    if (offset == null) {
+                        offset = data.size();
+                        imageOffsets.put(image, offset);
+                        data.write(image.array());
+                        uniqueCount++;
+                    }
+                    final int entry = ((y - minY) * width + (x - minX)) * 2;
+                    index[entry] = offset;
+                    index[entry + 1] = image.capacity();
+                    tileCount++;
+                }
+            }
+            indexes.add(index);
+            System.out.println("Zoom " + zoom + ": " + width * height + " tiles");
+        }
+        mapFile.close();
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(archivePath))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tileSize);
+            out.writeFloat(textScale);
+            final byte[] themeBytes = themeName.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(themeBytes.length);
+            out.write(themeBytes);
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(ranges.size());
+            for (int[] range : ranges) {
+                out.writeByte(range[0]);
+                out.writeInt(range[1]);
+                out.writeInt(range[2]);
+                out.writeInt(range[3]);
+                out.writeInt(range[4]);
+            }
+            for (int[] index : indexes) {
+                for (int value : index) {
+                    out.writeInt(value);
+                }
+            }
+            data.writeTo(out);
+        }
+        System.out.println("Wrote " + tileCount + " tiles (" + uniqueCount + " unique, "
+                + data.size() / 1024 + " KiB) to " + archivePath);
+    }
+}
@@ -0,0 +1,191 @@
+import org.mapsforge.core.graphics.GraphicFactory;
+import org.mapsforge.core.graphics.TileBitmap;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.awt.graphics.AwtGraphicFactory;
+import org.mapsforge.map.layer.cache.InMemoryTileCache;
+import org.mapsforge.map.layer.labels.TileBasedLabelStore;
+import org.mapsforge.map.layer.renderer.DatabaseRenderer;
+import org.mapsforge.map.layer.renderer.RendererJob;
+import org.mapsforge.map.model.DisplayModel;
+import org.mapsforge.map.reader.MapFile;
+import org.mapsforge.map.rendertheme.rule.RenderThemeFuture;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measures the time and memory allocation needed to render the tiles of a map file with each
+ * render theme in {@link Themes}
+ * <p/>
+ * Tiles are rendered like the application renders them, with labels and without transparency.
+ * For each theme, every tile is rendered once to warm up, and then every tile at each zoom level
+ * is rendered the given number of times. Each pass uses a new renderer, so that labels placed
+ * in one pass do not change the work done in the next one.
+ * <p/>
+ * Times are measured on the CPU of the computer running the benchmark, so they are useful for
+ * comparing themes, but not as the times taken on a device.
+ * <p/>
+ * Usage: TileRenderBenchmark map-file tile-size min-zoom max-zoom text-scale passes
+ */
+public class TileRenderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 6) {
+            System.err.println("Usage: TileRenderBenchmark map-file tile-size min-zoom max-zoom text-scale passes");
+            System.exit(1);
+        }
+        final File mapPath = new File(args[0]);
+        final int tileSize = Integer.parseInt(args[1]);
+        final byte minZoom = Byte.parseByte(args[2]);
+        final byte maxZoom = Byte.parseByte(args[3]);
+        final float textScale = Float.parseFloat(args[4]);
+        final int passes = Integer.parseInt(args[5]);
+
+        DisplayModel.setDeviceScaleFactor(tileSize / 256f);
+        final DisplayModel displayModel = new DisplayModel();
+        displayModel.setFixedTileSize(tileSize);
+        final GraphicFactory graphicFactory = AwtGraphicFactory.INSTANCE;
+        final MapFile mapFile = new MapFile(mapPath);
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final Measurer measurer = new Measurer(threads);
+
+        System.out.println(String.format("%-11s %4s %6s %9s %9s %9s %9s %11s", "Theme", "Zoom",
+                "Tiles", "Mean ms", "Median ms", "95% ms", "Max ms", "Mean KiB"));
+        for (String themeName : Themes.NAMES) {
+            final long compileStart = System.nanoTime();
+            final RenderThemeFuture theme = new RenderThemeFuture(graphicFactory,
+                    Themes.forName(themeName), displayModel);
+            theme.run();
+            theme.get();
+            final long compileNanos = System.nanoTime() - compileStart;
+
+            // Warm up
+            for (byte zoom = minZoom; zoom <= maxZoom; zoom++) {
+                renderZoomLevel(mapFile, graphicFactory, theme, displayModel, tileSize, zoom,
+                        textScale, null);
+            }
+
+            for (byte zoom = minZoom; zoom <= maxZoom; zoom++) {
+                measurer.reset();
+                for (int pass = 0; pass < passes; pass++) {
+                    renderZoomLevel(mapFile, graphicFactory, theme, displayModel, tileSize, zoom,
+                            textScale, measurer);
+                }
+                System.out.println(String.format("%-11s %4d %6d %9.2f %9.2f %9.2f %9.2f %11.1f",
+                        themeName, zoom, measurer.count / passes, measurer.meanMillis(),
+                        measurer.percentileMillis(0.5), measurer.percentileMillis(0.95),
+                        measurer.percentileMillis(1.0), measurer.meanAllocated() / 1024.0));
+            }
+            System.out.println(String.format("%-11s compiled in %.1f ms", themeName,
+                    compileNanos / 1e6));
+            theme.decrementRefCount();
+        }
+        mapFile.close();
+    }
+
+    /**
+     * Renders every tile of the map at a zoom level with a new renderer
+     *
+     * @param measurer the measurer to record each tile with, or null to not record tiles
+     */
+    private static void renderZoomLevel(MapFile mapFile, GraphicFactory graphicFactory,
+                                        RenderThemeFuture theme, DisplayModel displayModel,
+                                        int tileSize, byte zoom, float textScale,
+                                        Measurer measurer) {
+        // Rendered tiles are kept so that labels are not drawn twice across tile edges, as in
+        // the application
+        final InMemoryTileCache renderedTiles = new InMemoryTileCache(256);
+        final DatabaseRenderer renderer = new DatabaseRenderer(mapFile, graphicFactory,
+                renderedTiles, new TileBasedLabelStore(256), true, false, null);
+        final BoundingBox bounds = mapFile.boundingBox();
+        final int minX = MercatorProjection.longitudeToTileX(bounds.minLongitude, zoom);
+        final int maxX = MercatorProjection.longitudeToTileX(bounds.maxLongitude, zoom);
+        final int minY = MercatorProjection.latitudeToTileY(bounds.maxLatitude, zoom);
+        final int maxY = MercatorProjection.latitudeToTileY(bounds.minLatitude, zoom);
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                final RendererJob job = new RendererJob(new Tile(x, y, zoom, tileSize), mapFile,
+                        theme, displayModel, textScale, false, false);
+                if (measurer != null) {
+                    measurer.start();
+                }
+                final TileBitmap bitmap = renderer.executeJob(job);
+                if (measurer != null) {
+                    measurer.stop();
+                }
+                if (bitmap != null) {
+                    renderedTiles.put(job, bitmap);
+                    bitmap.decrementRefCount();
+                }
+            }
+        }
+        renderedTiles.destroy();
+    }
+
+    /**
+     * Records the time and memory allocated by the current thread for each tile
+     */
+    private static class Measurer {
+        private final com.sun.management.ThreadMXBean mThreads;
+        private final long mThreadId = Thread.currentThread().getId();
+        private long[] mNanos = new long[256];
+        private long mAllocatedTotal;
+        private long mStartNanos;
+        private long mStartAllocated;
+        int count;
+
+        Measurer(com.sun.management.ThreadMXBean threads) {
+            mThreads = threads;
+        }
+
+        void reset() {
+            count = 0;
+            mAllocatedTotal = 0;
+        }
+
+        void start() {
+            mStartAllocated = mThreads.getThreadAllocatedBytes(mThreadId);
+            mStartNanos = System.nanoTime();
+        }
+
+        void stop() {
+            final long nanos = System.nanoTime() - mStartNanos;
+            mAllocatedTotal += mThreads.getThreadAllocatedBytes(mThreadId) - mStartAllocated;
+            if (count == mNanos.length) {
+                mNanos = Arrays.copyOf(mNanos, count * 2);
+            }
+            mNanos[count++] = nanos;
+        }
+
+        double meanMillis() {
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                total += mNanos[i];
+            }
+            return count == 0 ? 0 : total / 1e6 / count;
+        }
+
+        /**
+         * @param fraction the fraction of tiles that took at most the returned time, from 0 to 1
+         */
+        double percentileMillis(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            final long[] sorted = Arrays.copyOf(mNanos, count);
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(fraction * count) - 1;
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+
+        double meanAllocated() {
+            return count == 0 ? 0 : (double) mAllocatedTotal / count;
+        }
+    }
+}